@@ -23,6 +23,8 @@
 package org.jboss.msc.service;
 
 import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link ServiceTarget} that provides {@link #removeServices() removal} of all services installed so far. 
@@ -78,4 +80,20 @@ public interface BatchServiceTarget extends ServiceTarget {
     /** {@inheritDoc} */
     @Override
     BatchServiceTarget removeDependency(ServiceName dependency);
+
+    /** {@inheritDoc} */
+    @Override
+    BatchServiceTarget setExecutor(Executor executor);
+
+    /** {@inheritDoc} */
+    @Override
+    BatchServiceTarget setConcurrencyLimit(int limit);
+
+    /** {@inheritDoc} */
+    @Override
+    BatchServiceTarget setStartTimeout(long timeout, TimeUnit unit);
+
+    /** {@inheritDoc} */
+    @Override
+    BatchServiceTarget setStopTimeout(long timeout, TimeUnit unit);
 }
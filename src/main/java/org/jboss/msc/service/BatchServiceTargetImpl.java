@@ -24,6 +24,9 @@ package org.jboss.msc.service;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.msc.service.ServiceController.Mode;
 import org.jboss.msc.value.ImmediateValue;
@@ -65,6 +68,15 @@ class BatchServiceTargetImpl extends ServiceTargetImpl implements BatchServiceTa
         return controller;
     }
 
+    List<ServiceController<?>> installAll(final List<ServiceBuilderImpl<?>> serviceBuilders) throws ServiceRegistryException {
+        final List<ServiceController<?>> installed = super.installAll(serviceBuilders);
+        final Collection<ServiceController<?>> controllers = addedServiceControllers;
+        synchronized (controllers) {
+            controllers.addAll(installed);
+        }
+        return installed;
+    }
+
     @Override
     public <T> ServiceBuilder<T> addService(ServiceName name, Service<T> service) {
         return addServiceValue(name, new ImmediateValue<Service<T>>(service));
@@ -126,4 +138,24 @@ class BatchServiceTargetImpl extends ServiceTargetImpl implements BatchServiceTa
         super.removeDependency(dependency);
         return this;
     }
+
+    public BatchServiceTarget setExecutor(final Executor executor) {
+        super.setExecutor(executor);
+        return this;
+    }
+
+    public BatchServiceTarget setConcurrencyLimit(final int limit) {
+        super.setConcurrencyLimit(limit);
+        return this;
+    }
+
+    public BatchServiceTarget setStartTimeout(final long timeout, final TimeUnit unit) {
+        super.setStartTimeout(timeout, unit);
+        return this;
+    }
+
+    public BatchServiceTarget setStopTimeout(final long timeout, final TimeUnit unit) {
+        super.setStopTimeout(timeout, unit);
+        return this;
+    }
 }
@@ -23,6 +23,7 @@
 package org.jboss.msc.service;
 
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import org.jboss.msc.inject.Injector;
 import org.jboss.msc.value.Value;
 
@@ -58,6 +59,18 @@ public final class DelegatingServiceBuilder<T> implements ServiceBuilder<T> {
         return this;
     }
 
+    /** {@inheritDoc} */
+    public ServiceBuilder<T> setStartTimeout(final long timeout, final TimeUnit unit) {
+        delegate.setStartTimeout(timeout, unit);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public ServiceBuilder<T> setStopTimeout(final long timeout, final TimeUnit unit) {
+        delegate.setStopTimeout(timeout, unit);
+        return this;
+    }
+
     /** {@inheritDoc} */
     public ServiceBuilder<T> addDependencies(final ServiceName... dependencies) {
         delegate.addDependencies(dependencies);
@@ -26,6 +26,7 @@ import java.io.PrintStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import org.jboss.msc.value.Value;
@@ -63,6 +64,11 @@ public final class DelegatingServiceContainer implements ServiceContainer {
         return delegateTarget.addService(name, service);
     }
 
+    /** {@inheritDoc} */
+    public List<ServiceController<?>> install(final Collection<? extends ServiceBuilder<?>> builders) throws ServiceRegistryException {
+        return delegateTarget.install(builders);
+    }
+
     /** {@inheritDoc} */
     public ServiceContainer addListener(final ServiceListener<Object> listener) {
         delegateTarget.addListener(listener);
@@ -139,6 +145,30 @@ public final class DelegatingServiceContainer implements ServiceContainer {
         return this;
     }
 
+    /** {@inheritDoc} */
+    public ServiceContainer setExecutor(final Executor executor) {
+        delegateTarget.setExecutor(executor);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public ServiceContainer setConcurrencyLimit(final int limit) {
+        delegateTarget.setConcurrencyLimit(limit);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public ServiceContainer setStartTimeout(final long timeout, final TimeUnit unit) {
+        delegateTarget.setStartTimeout(timeout, unit);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public ServiceContainer setStopTimeout(final long timeout, final TimeUnit unit) {
+        delegateTarget.setStopTimeout(timeout, unit);
+        return this;
+    }
+
     /** {@inheritDoc} */
     public Set<ServiceName> getDependencies() {
         return delegateTarget.getDependencies();
@@ -169,6 +199,11 @@ public final class DelegatingServiceContainer implements ServiceContainer {
         return delegateRegistry.getServiceNames();
     }
 
+    /** {@inheritDoc} */
+    public List<ServiceName> getServiceNames(final ServiceName name) {
+        return delegateRegistry.getServiceNames(name);
+    }
+
     /** {@inheritDoc} */
     public String getName() {
         throw new UnsupportedOperationException();
@@ -239,4 +274,13 @@ public final class DelegatingServiceContainer implements ServiceContainer {
     public boolean awaitStability(final long timeout, final TimeUnit unit, final Set<? super ServiceController<?>> failed, final Set<? super ServiceController<?>> problem) throws InterruptedException {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Unsupported operation.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public void addStabilityListener(final StabilityListener listener) {
+        throw new UnsupportedOperationException();
+    }
 }
@@ -55,4 +55,9 @@ public final class DelegatingServiceRegistry implements ServiceRegistry {
     public List<ServiceName> getServiceNames() {
         return delegate.getServiceNames();
     }
+
+    /** {@inheritDoc} */
+    public List<ServiceName> getServiceNames(final ServiceName name) {
+        return delegate.getServiceNames(name);
+    }
 }
@@ -23,7 +23,10 @@
 package org.jboss.msc.service;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.msc.value.Value;
 
@@ -55,6 +58,11 @@ public final class DelegatingServiceTarget implements ServiceTarget {
         return delegate.addService(name, service);
     }
 
+    /** {@inheritDoc} */
+    public List<ServiceController<?>> install(final Collection<? extends ServiceBuilder<?>> builders) throws ServiceRegistryException {
+        return delegate.install(builders);
+    }
+
     /** {@inheritDoc} */
     public ServiceTarget addListener(final ServiceListener<Object> listener) {
         delegate.addListener(listener);
@@ -108,6 +116,30 @@ public final class DelegatingServiceTarget implements ServiceTarget {
         return this;
     }
 
+    /** {@inheritDoc} */
+    public ServiceTarget setExecutor(final Executor executor) {
+        delegate.setExecutor(executor);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public ServiceTarget setConcurrencyLimit(final int limit) {
+        delegate.setConcurrencyLimit(limit);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public ServiceTarget setStartTimeout(final long timeout, final TimeUnit unit) {
+        delegate.setStartTimeout(timeout, unit);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public ServiceTarget setStopTimeout(final long timeout, final TimeUnit unit) {
+        delegate.setStopTimeout(timeout, unit);
+        return this;
+    }
+
     /** {@inheritDoc} */
     public Set<ServiceName> getDependencies() {
         return delegate.getDependencies();
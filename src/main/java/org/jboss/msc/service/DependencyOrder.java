@@ -0,0 +1,497 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A topological order of the installed services, maintained incrementally as services are installed and removed, which
+ * is used to detect dependency cycles.  The graph has an edge from every service to each of its dependents and
+ * children.  Each service is given an order number, such that every service is ordered before its dependents.
+ * <p>
+ * Inserting an edge which agrees with the current order is a constant time operation.  Only when an edge contradicts
+ * the order, the affected region, i.e. the services ordered between the two ends of the edge which are reachable from
+ * them, is searched and reordered, as described by Pearce and Kelly in "A Dynamic Topological Sort Algorithm for
+ * Directed Acyclic Graphs".  The edge closes a cycle exactly if the forward search of that region reaches the
+ * dependency again.  Since services are usually installed after their dependencies, a new service is ordered last and
+ * most of its edges agree with the order.
+ * <p>
+ * This class keeps its own copy of the edges, so that no registration or controller locks are needed while searching;
+ * all of its methods synchronize on this instance.  Each service in the order is given a small integer id, which is
+ * reused once the service is removed, and which indexes the per-service columns: the service, its order number, its
+ * search mark, and its dependencies and dependents as rows of ids.  The searches thus only read primitive arrays.
+ */
+final class DependencyOrder {
+    private static final int[] NO_IDS = new int[0];
+
+    /**
+     * The services by id; {@code null} for a free id.
+     */
+    private ServiceControllerImpl<?>[] controllers = new ServiceControllerImpl<?>[16];
+    /**
+     * The order numbers by id.
+     */
+    private long[] orders = new long[16];
+    /**
+     * The search marks by id.
+     */
+    private int[] marks = new int[16];
+    /**
+     * The ids of the dependencies and parent of each service, and their number.
+     */
+    private int[][] dependencies = new int[16][];
+    private int[] dependencyCounts = new int[16];
+    /**
+     * The ids of the dependents and children of each service, and their number.
+     */
+    private int[][] dependents = new int[16][];
+    private int[] dependentCounts = new int[16];
+    /**
+     * The ids which were used and are free again, and their number.
+     */
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    /**
+     * The lowest id which was never used.
+     */
+    private int nextId;
+    /**
+     * The next order number, which places a service after all others.
+     */
+    private long nextOrder;
+    /**
+     * The mark of the current search.
+     */
+    private int mark;
+
+    /**
+     * Add a service which is being installed, with the edges to its installed dependencies, parent and dependents.  If
+     * one of these edges closes a cycle, nothing is added.
+     *
+     * @param controller the service being installed
+     * @return {@code null} if the service was added, or the names of the services in the cycle, starting with
+     * {@code controller} and continuing with its dependent on the cycle
+     */
+    synchronized ServiceName[] add(final ServiceControllerImpl<?> controller) {
+        return addNode(controller);
+    }
+
+    /**
+     * Add several services which are being installed together, in the same way as {@link #add(ServiceControllerImpl)}.
+     * The services are added in a topological order of the edges among them, so that these edges never need a
+     * reordering, whatever the order of {@code controllers}.  If any edge closes a cycle, none of the services is added.
+     *
+     * @param controllers the services being installed
+     * @return {@code null} if the services were added, or the names of the services in the first cycle found
+     */
+    synchronized ServiceName[] addAll(final List<ServiceControllerImpl<?>> controllers) {
+        final List<ServiceControllerImpl<?>> sorted = sort(controllers);
+        for (int i = 0; i < sorted.size(); i ++) {
+            final ServiceName[] cycle = addNode(sorted.get(i));
+            if (cycle != null) {
+                for (int j = 0; j < i; j ++) {
+                    remove(sorted.get(j).getDependencyOrderId());
+                }
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sort services so that each one comes after those of its dependencies which are among them (Kahn's algorithm).
+     * Services on a cycle are left at the end, in their original order.
+     *
+     * @param controllers the services to sort
+     * @return the sorted services
+     */
+    private static List<ServiceControllerImpl<?>> sort(final List<ServiceControllerImpl<?>> controllers) {
+        final int count = controllers.size();
+        final Map<ServiceControllerImpl<?>, Integer> indexes = new IdentityHashMap<ServiceControllerImpl<?>, Integer>(count);
+        for (int i = 0; i < count; i ++) {
+            indexes.put(controllers.get(i), Integer.valueOf(i));
+        }
+        final int[] pending = new int[count];
+        final int[][] dependents = new int[count][];
+        final int[] dependentCounts = new int[count];
+        for (int i = 0; i < count; i ++) {
+            for (Dependency dependency : controllers.get(i).getDependencies()) {
+                final Integer index = indexes.get(dependency.getDependencyController());
+                if (index != null) {
+                    final int j = index.intValue();
+                    pending[i] ++;
+                    int[] array = dependents[j];
+                    if (array == null) {
+                        dependents[j] = array = new int[2];
+                    } else if (dependentCounts[j] == array.length) {
+                        dependents[j] = array = Arrays.copyOf(array, array.length << 1);
+                    }
+                    array[dependentCounts[j] ++] = i;
+                }
+            }
+        }
+        final int[] queue = new int[count];
+        int head = 0, tail = 0;
+        for (int i = 0; i < count; i ++) {
+            if (pending[i] == 0) {
+                queue[tail ++] = i;
+            }
+        }
+        final List<ServiceControllerImpl<?>> sorted = new ArrayList<ServiceControllerImpl<?>>(count);
+        while (head < tail) {
+            final int i = queue[head ++];
+            sorted.add(controllers.get(i));
+            for (int k = 0; k < dependentCounts[i]; k ++) {
+                final int j = dependents[i][k];
+                if (-- pending[j] == 0) {
+                    queue[tail ++] = j;
+                }
+            }
+        }
+        if (sorted.size() < count) {
+            for (int i = 0; i < count; i ++) {
+                if (pending[i] > 0) {
+                    sorted.add(controllers.get(i));
+                }
+            }
+        }
+        return sorted;
+    }
+
+    private ServiceName[] addNode(final ServiceControllerImpl<?> controller) {
+        assert controller.getDependencyOrderId() == -1;
+        final int node = allocate(controller);
+        // incoming edges agree with the order, as the new service is ordered last
+        for (Dependency dependency : controller.getDependencies()) {
+            final ServiceControllerImpl<?> dependencyController = dependency.getDependencyController();
+            if (dependencyController == controller) {
+                remove(node);
+                return new ServiceName[] { controller.getName() };
+            }
+            final int dependencyNode = dependencyController == null ? -1 : dependencyController.getDependencyOrderId();
+            if (dependencyNode != -1) {
+                addEdge(dependencyNode, node);
+            }
+        }
+        final ServiceControllerImpl<?> parent = controller.getParent();
+        final int parentNode = parent == null ? -1 : parent.getDependencyOrderId();
+        if (parentNode != -1) {
+            addEdge(parentNode, node);
+        }
+        // outgoing edges go to services which were installed before, so each of them may need a reordering
+        ServiceName[] cycle = addDependentEdges(node, controller.getPrimaryRegistration());
+        for (ServiceRegistrationImpl aliasRegistration : controller.getAliasRegistrations()) {
+            if (cycle != null) {
+                break;
+            }
+            cycle = addDependentEdges(node, aliasRegistration);
+        }
+        if (cycle != null) {
+            remove(node);
+        }
+        return cycle;
+    }
+
+    private int allocate(final ServiceControllerImpl<?> controller) {
+        final int id;
+        if (freeCount > 0) {
+            id = freeIds[-- freeCount];
+        } else {
+            id = nextId ++;
+            if (id == controllers.length) {
+                final int length = id << 1;
+                controllers = Arrays.copyOf(controllers, length);
+                orders = Arrays.copyOf(orders, length);
+                marks = Arrays.copyOf(marks, length);
+                dependencies = Arrays.copyOf(dependencies, length);
+                dependencyCounts = Arrays.copyOf(dependencyCounts, length);
+                dependents = Arrays.copyOf(dependents, length);
+                dependentCounts = Arrays.copyOf(dependentCounts, length);
+            }
+        }
+        controllers[id] = controller;
+        orders[id] = nextOrder ++;
+        marks[id] = 0;
+        dependencies[id] = NO_IDS;
+        dependents[id] = NO_IDS;
+        controller.setDependencyOrderId(id);
+        return id;
+    }
+
+    /**
+     * Remove a service and all of its edges.  The remaining services stay in order.
+     *
+     * @param controller the service being removed
+     */
+    synchronized void remove(final ServiceControllerImpl<?> controller) {
+        final int node = controller.getDependencyOrderId();
+        if (node != -1) {
+            remove(node);
+        }
+    }
+
+    private void remove(final int node) {
+        final int[] nodeDependencies = dependencies[node];
+        for (int i = 0; i < dependencyCounts[node]; i ++) {
+            final int dependency = nodeDependencies[i];
+            dependentCounts[dependency] = removeId(dependents[dependency], dependentCounts[dependency], node);
+        }
+        final int[] nodeDependents = dependents[node];
+        for (int i = 0; i < dependentCounts[node]; i ++) {
+            final int dependent = nodeDependents[i];
+            dependencyCounts[dependent] = removeId(dependencies[dependent], dependencyCounts[dependent], node);
+        }
+        controllers[node].setDependencyOrderId(-1);
+        controllers[node] = null;
+        dependencies[node] = null;
+        dependencyCounts[node] = 0;
+        dependents[node] = null;
+        dependentCounts[node] = 0;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount << 1);
+        }
+        freeIds[freeCount ++] = node;
+    }
+
+    /**
+     * Remove one occurrence of an id from a row, moving the last id into its place.
+     *
+     * @return the new number of ids in the row
+     */
+    private static int removeId(final int[] row, final int count, final int id) {
+        for (int i = count - 1; i >= 0; i --) {
+            if (row[i] == id) {
+                row[i] = row[count - 1];
+                return count - 1;
+            }
+        }
+        throw new IllegalStateException("Missing edge");
+    }
+
+    private ServiceName[] addDependentEdges(final int node, final ServiceRegistrationImpl registration) {
+        for (Dependent dependent : registration.getDependentsSnapshot()) {
+            final int dependentNode = dependent.getController().getDependencyOrderId();
+            if (dependentNode != -1) {
+                final ServiceName[] cycle = addEdge(node, dependentNode);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add an edge, reordering the affected region if the edge contradicts the current order.
+     *
+     * @param from the dependency
+     * @param to the dependent
+     * @return {@code null} if the edge was added, or the cycle it would close, starting with {@code from}
+     */
+    private ServiceName[] addEdge(final int from, final int to) {
+        final long[] orders = this.orders;
+        if (orders[from] < orders[to]) {
+            link(from, to);
+            return null;
+        }
+        // the affected region lies between the order numbers of "to" and "from"
+        final Ids forward = new Ids();
+        final Ids path = searchForward(to, from, forward);
+        if (path != null) {
+            final ServiceName[] cycle = new ServiceName[path.size + 1];
+            cycle[0] = controllers[from].getName();
+            for (int i = 1; i < cycle.length; i ++) {
+                cycle[i] = controllers[path.ids[i - 1]].getName();
+            }
+            return cycle;
+        }
+        final Ids backward = searchBackward(from, orders[to]);
+        // the services which reach "from" take the lowest order numbers of the region, followed by those which are
+        // reachable from "to", each group keeping its relative order
+        sortByOrder(forward);
+        sortByOrder(backward);
+        final long[] regionOrders = new long[forward.size + backward.size];
+        int i = 0;
+        for (int j = 0; j < backward.size; j ++) {
+            regionOrders[i++] = orders[backward.ids[j]];
+        }
+        for (int j = 0; j < forward.size; j ++) {
+            regionOrders[i++] = orders[forward.ids[j]];
+        }
+        Arrays.sort(regionOrders);
+        i = 0;
+        for (int j = 0; j < backward.size; j ++) {
+            orders[backward.ids[j]] = regionOrders[i++];
+        }
+        for (int j = 0; j < forward.size; j ++) {
+            orders[forward.ids[j]] = regionOrders[i++];
+        }
+        link(from, to);
+        return null;
+    }
+
+    private void link(final int from, final int to) {
+        dependentCounts[from] = addId(dependents, from, dependentCounts[from], to);
+        dependencyCounts[to] = addId(dependencies, to, dependencyCounts[to], from);
+    }
+
+    /**
+     * Append an id to a row, growing the row if it is full.
+     *
+     * @return the new number of ids in the row
+     */
+    private static int addId(final int[][] rows, final int row, final int count, final int id) {
+        int[] ids = rows[row];
+        if (count == ids.length) {
+            rows[row] = ids = Arrays.copyOf(ids, count == 0 ? 2 : count << 1);
+        }
+        ids[count] = id;
+        return count + 1;
+    }
+
+    /**
+     * Search the dependents of {@code start} which are ordered before {@code target}.
+     *
+     * @param start the start of the search
+     * @param target the service which closes a cycle if it is reached
+     * @param visited the ids to which the visited services are added
+     * @return the path from {@code start} to the last service before {@code target} if {@code target} was reached,
+     * otherwise {@code null}
+     */
+    private Ids searchForward(final int start, final int target, final Ids visited) {
+        final int mark = ++ this.mark;
+        final long bound = orders[target];
+        // the path, and the position reached in the dependents of each service on it
+        final Ids path = new Ids();
+        final Ids positions = new Ids();
+        marks[start] = mark;
+        visited.add(start);
+        path.add(start);
+        positions.add(0);
+        while (path.size > 0) {
+            final int top = path.size - 1;
+            final int node = path.ids[top];
+            final int position = positions.ids[top];
+            if (position == dependentCounts[node]) {
+                path.size --;
+                positions.size --;
+                continue;
+            }
+            positions.ids[top] = position + 1;
+            final int next = dependents[node][position];
+            if (next == target) {
+                return path;
+            }
+            if (marks[next] != mark && orders[next] < bound) {
+                marks[next] = mark;
+                visited.add(next);
+                path.add(next);
+                positions.add(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Search the dependencies of {@code start} which are ordered after {@code bound}.
+     *
+     * @param start the start of the search
+     * @param bound the order number of the dependent end of the new edge
+     * @return the visited services
+     */
+    private Ids searchBackward(final int start, final long bound) {
+        final int mark = ++ this.mark;
+        final Ids visited = new Ids();
+        final Ids stack = new Ids();
+        marks[start] = mark;
+        visited.add(start);
+        stack.add(start);
+        while (stack.size > 0) {
+            final int node = stack.ids[-- stack.size];
+            final int[] nodeDependencies = dependencies[node];
+            for (int i = 0; i < dependencyCounts[node]; i ++) {
+                final int dependency = nodeDependencies[i];
+                if (marks[dependency] != mark && orders[dependency] > bound) {
+                    marks[dependency] = mark;
+                    visited.add(dependency);
+                    stack.add(dependency);
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Sort ids by their order numbers, with a heapsort.
+     *
+     * @param ids the ids to sort
+     */
+    private void sortByOrder(final Ids ids) {
+        final int[] array = ids.ids;
+        final int count = ids.size;
+        for (int i = (count >> 1) - 1; i >= 0; i --) {
+            siftDown(array, i, count);
+        }
+        for (int end = count - 1; end > 0; end --) {
+            final int id = array[0];
+            array[0] = array[end];
+            array[end] = id;
+            siftDown(array, 0, end);
+        }
+    }
+
+    private void siftDown(final int[] array, int i, final int count) {
+        final long[] orders = this.orders;
+        final int id = array[i];
+        final long order = orders[id];
+        for (int child; (child = (i << 1) + 1) < count; i = child) {
+            if (child + 1 < count && orders[array[child + 1]] > orders[array[child]]) {
+                child ++;
+            }
+            if (orders[array[child]] <= order) {
+                break;
+            }
+            array[i] = array[child];
+        }
+        array[i] = id;
+    }
+
+    /**
+     * A growable list of ids.
+     */
+    private static final class Ids {
+        private int[] ids = new int[8];
+        private int size;
+
+        void add(final int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+            }
+            ids[size ++] = id;
+        }
+    }
+}
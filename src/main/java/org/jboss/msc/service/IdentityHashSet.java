@@ -43,6 +43,12 @@ import java.util.Set;
  * probing. With a 50% load-factor a get is expected to return in only 2 probes.
  * However, a 90% load-factor is expected to return in around 50 probes.
  *
+ * Most sets hold no more than a few elements, so small sets are stored
+ * compactly: an empty set shares a single empty table, and a set of up to
+ * {@link #SMALL_CAPACITY} elements keeps them packed at the start of a table
+ * of that length, which is scanned rather than hashed. The set moves to a
+ * hashed table once it grows beyond that.
+ *
  * @param <E> the element type
  *
  * @author Jason T. Greene
@@ -55,10 +61,20 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
     private static final long serialVersionUID = 10929568968762L;
 
     /**
-     * Same default as HashMap, must be a power of 2
+     * Same default as HashMap, must be a power of 2; the smallest hashed table
      */
     private static final int DEFAULT_CAPACITY = 8;
 
+    /**
+     * The largest number of elements which are stored packed, without hashing
+     */
+    private static final int SMALL_CAPACITY = 4;
+
+    /**
+     * The table shared by all sets which have not held any element yet
+     */
+    private static final Object[] EMPTY_TABLE = new Object[0];
+
     /**
      * MAX_INT - 1
      */
@@ -70,7 +86,8 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
     private static final float DEFAULT_LOAD_FACTOR = 0.67f;
 
     /**
-     * The open-addressed table
+     * The open-addressed table, or the packed elements if its length is at
+     * most {@link #SMALL_CAPACITY}
      */
     private transient Object[] table;
 
@@ -112,7 +129,7 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
     public IdentityHashSet(Set<? extends E> set) {
         if (set instanceof IdentityHashSet) {
             IdentityHashSet<? extends E> fast = (IdentityHashSet<? extends E>) set;
-            table = fast.table.clone();
+            table = fast.size == 0 ? EMPTY_TABLE : fast.table.clone();
             loadFactor = fast.loadFactor;
             size = fast.size;
             threshold = fast.threshold;
@@ -124,7 +141,13 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
     }
 
     private void init(int initialCapacity, float loadFactor) {
-        int c = 1;
+        if (initialCapacity <= SMALL_CAPACITY) {
+            // allocated on the first add
+            table = EMPTY_TABLE;
+            threshold = 0;
+            return;
+        }
+        int c = DEFAULT_CAPACITY;
         for (; c < initialCapacity; c <<= 1);
         threshold = (int) (c * loadFactor);
 
@@ -142,7 +165,7 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
     }
 
     public IdentityHashSet() {
-        this(DEFAULT_CAPACITY);
+        this(0);
     }
 
     // The normal bit spreader...
@@ -161,6 +184,28 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
         return hashCode & (length - 1);
     }
 
+    private static boolean isPacked(Object[] table) {
+        return table.length <= SMALL_CAPACITY;
+    }
+
+    /**
+     * Move the packed elements to a hashed table which can hold the given
+     * number of elements.
+     */
+    @SuppressWarnings("unchecked")
+    private void inflate(int expectedSize) {
+        final Object[] packed = table;
+        final int size = this.size;
+        int c = DEFAULT_CAPACITY;
+        while ((int) (c * loadFactor) <= expectedSize && c < MAXIMUM_CAPACITY)
+            c <<= 1;
+
+        table = new Object[c];
+        threshold = (int) (c * loadFactor);
+        for (int i = 0; i < size; i++)
+            putForCreate((E) packed[i]);
+    }
+
     public int size() {
         return size;
     }
@@ -172,6 +217,14 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
     public boolean contains(Object entry) {
         if (entry == null) return false;
 
+        final Object[] table = this.table;
+        if (isPacked(table)) {
+            for (int i = 0; i < size; i++)
+                if (table[i] == entry)
+                    return true;
+            return false;
+        }
+
         int hash = hash(entry);
         int length = table.length;
         int index = index(hash, length);
@@ -196,6 +249,24 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
         }
 
         Object[] table = this.table;
+        if (isPacked(table)) {
+            final int size = this.size;
+            for (int i = 0; i < size; i++)
+                if (table[i] == entry)
+                    return false;
+
+            if (size < SMALL_CAPACITY) {
+                if (table.length == 0)
+                    this.table = table = new Object[SMALL_CAPACITY];
+                modCount++;
+                table[size] = entry;
+                this.size = size + 1;
+                return true;
+            }
+            inflate(size + 1);
+            table = this.table;
+        }
+
         int hash = hash(entry);
         int length = table.length;
         int index = index(hash, length);
@@ -252,7 +323,10 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
         if (size == 0)
             return false;
 
-        if (size > threshold) {
+        if (isPacked(table)) {
+            if (this.size + size > SMALL_CAPACITY)
+                inflate(Math.min(this.size + size, MAXIMUM_CAPACITY));
+        } else if (size > threshold) {
             if (size > MAXIMUM_CAPACITY)
                 size = MAXIMUM_CAPACITY;
 
@@ -279,6 +353,20 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
         if (o == null) return false;
 
         Object[] table = this.table;
+        if (isPacked(table)) {
+            final int last = size - 1;
+            for (int i = 0; i <= last; i++) {
+                if (table[i] == o) {
+                    table[i] = table[last];
+                    table[last] = null;
+                    modCount++;
+                    size = last;
+                    return true;
+                }
+            }
+            return false;
+        }
+
         int length = table.length;
         int hash = hash(o);
         int start = index(hash, length);
@@ -339,7 +427,7 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
     public IdentityHashSet<E> clone() {
         try {
             IdentityHashSet<E> clone = (IdentityHashSet<E>) super.clone();
-            clone.table = table.clone();
+            clone.table = size == 0 && isPacked(table) ? EMPTY_TABLE : table.clone();
             return clone;
         } catch (CloneNotSupportedException e) {
             // should never happen
@@ -427,7 +515,14 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
         init(size, loadFactor);
 
         for (int i = 0; i < size; i++) {
-            putForCreate((E) s.readObject());
+            final E e = (E) s.readObject();
+            if (isPacked(table)) {
+                if (table.length == 0)
+                    table = new Object[SMALL_CAPACITY];
+                table[i] = e;
+            } else {
+                putForCreate(e);
+            }
         }
 
         this.size = size;
@@ -519,6 +614,15 @@ class IdentityHashSet<E> extends AbstractSet<E> implements Set<E>, Cloneable, Se
             next = delete;
 
             Object[] table = this.table;
+            // a snapshot of the end of a hashed table may be as short as a packed one
+            if (table == IdentityHashSet.this.table && isPacked(table)) {
+                // the last element, which was not seen yet, takes the place of the removed one
+                final int last = size - 1;
+                table[delete] = table[last];
+                table[last] = null;
+                size = last;
+                return;
+            }
             if (table != IdentityHashSet.this.table) {
                 IdentityHashSet.this.remove(table[delete]);
                 table[delete] = null;
@@ -88,7 +88,7 @@ class OptionalDependency implements Dependency, Dependent {
     /**
      * The dependent on this optional dependency
      */
-    private Dependent dependent;
+    private volatile Dependent dependent;
 
     /**
      * Indicates if this dependency has been demanded by the dependent
@@ -112,6 +112,15 @@ class OptionalDependency implements Dependency, Dependent {
         dependencyState = DependencyState.AVAILABLE;
     }
 
+    /**
+     * Get the dependent on this optional dependency.
+     *
+     * @return the dependent, or {@code null} if it is not set yet
+     */
+    Dependent getDependent() {
+        return dependent;
+    }
+
     @Override
     public void addDependent(Dependent dependent) {
         assert !holdsLock(this);
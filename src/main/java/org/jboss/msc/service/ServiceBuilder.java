@@ -26,6 +26,7 @@ import org.jboss.msc.inject.Injector;
 import org.jboss.msc.value.Value;
 
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A builder for an individual service in a {@code ServiceTarget}.  Create an instance via the
@@ -56,6 +57,31 @@ public interface ServiceBuilder<T> {
      */
     ServiceBuilder<T> setInitialMode(ServiceController.Mode mode);
 
+    /**
+     * Set the time within which an {@linkplain StartContext#asynchronous() asynchronous} start of the service must
+     * complete.  If it does not, the service fails to start with a {@link StartException}, and a later completion of
+     * the start is ignored.  The time is measured from the call of {@link Service#start(StartContext)}.  Overrides the
+     * start timeout of the target.
+     *
+     * @param timeout the timeout, or {@code 0} for no timeout
+     * @param unit the unit of the timeout
+     * @return this builder
+     */
+    ServiceBuilder<T> setStartTimeout(long timeout, TimeUnit unit);
+
+    /**
+     * Set the time within which an {@linkplain StopContext#asynchronous() asynchronous} stop of the service must
+     * complete.  If it does not, the service no longer keeps its container and monitors from becoming stable, but it
+     * stays in {@link ServiceController.State#STOPPING STOPPING}, with its injections in place, until the stop does
+     * complete; it cannot be started again, nor its dependencies stopped, before then.  The time is measured from the
+     * call of {@link Service#stop(StopContext)}.  Overrides the stop timeout of the target.
+     *
+     * @param timeout the timeout, or {@code 0} for no timeout
+     * @param unit the unit of the timeout
+     * @return this builder
+     */
+    ServiceBuilder<T> setStopTimeout(long timeout, TimeUnit unit);
+
     /**
      * Add multiple, non-injected dependencies.
      *
@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.msc.inject.Injector;
 import org.jboss.msc.inject.Injectors;
@@ -56,6 +57,9 @@ class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
     private final Set<ServiceListener<? super T>> listeners = new IdentityHashSet<ServiceListener<? super T>>(0);
     private final List<ValueInjection<?>> valueInjections = new ArrayList<ValueInjection<?>>(0);
     private final List<Injector<? super T>> outInjections = new ArrayList<Injector<? super T>>(0);
+    private ServiceContainerImpl.Bulkhead bulkhead;
+    private long startTimeout = -1L;
+    private long stopTimeout = -1L;
     private boolean installed = false;
 
     static final class Dependency {
@@ -105,6 +109,30 @@ class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
         return this;
     }
 
+    @Override
+    public ServiceBuilderImpl<T> setStartTimeout(final long timeout, final TimeUnit unit) {
+        checkAlreadyInstalled();
+        startTimeout = toTimeoutNanos(timeout, unit);
+        return this;
+    }
+
+    @Override
+    public ServiceBuilderImpl<T> setStopTimeout(final long timeout, final TimeUnit unit) {
+        checkAlreadyInstalled();
+        stopTimeout = toTimeoutNanos(timeout, unit);
+        return this;
+    }
+
+    static long toTimeoutNanos(final long timeout, final TimeUnit unit) {
+        if (timeout < 0L) {
+            throw new IllegalArgumentException("timeout is negative");
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("unit is null");
+        }
+        return unit.toNanos(timeout);
+    }
+
     @Override
     public ServiceBuilderImpl<T> setInitialMode(final ServiceController.Mode mode) {
         checkAlreadyInstalled();
@@ -308,13 +336,21 @@ class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
 
     @Override
     public ServiceController<T> install() throws ServiceRegistryException {
+        // mark it before perform the installation,
+        // so we avoid ServiceRegistryException being thrown multiple times
+        markInstalled();
+        return serviceTarget.install(this);
+    }
+
+    void markInstalled() {
         if (installed) {
             throw new IllegalStateException("ServiceBuilder is already installed");
         }
-        // mark it before perform the installation,
-        // so we avoid ServiceRegistryException being thrown multiple times
         installed = true;
-        return serviceTarget.install(this);
+    }
+
+    boolean isInstalled() {
+        return installed;
     }
 
     Value<? extends Service<T>> getServiceValue() {
@@ -357,6 +393,43 @@ class ServiceBuilderImpl<T> implements ServiceBuilder<T> {
         return parent;
     }
 
+    void setBulkheadIfAbsent(final ServiceContainerImpl.Bulkhead bulkhead) {
+        if (this.bulkhead == null) {
+            this.bulkhead = bulkhead;
+        }
+    }
+
+    ServiceContainerImpl.Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    void setTimeoutsIfAbsent(final long startTimeout, final long stopTimeout) {
+        if (this.startTimeout < 0L) {
+            this.startTimeout = startTimeout;
+        }
+        if (this.stopTimeout < 0L) {
+            this.stopTimeout = stopTimeout;
+        }
+    }
+
+    /**
+     * Get the start timeout.
+     *
+     * @return the timeout in nanoseconds, {@code 0} for none, or a negative value if it was not set
+     */
+    long getStartTimeout() {
+        return startTimeout;
+    }
+
+    /**
+     * Get the stop timeout.
+     *
+     * @return the timeout in nanoseconds, {@code 0} for none, or a negative value if it was not set
+     */
+    long getStopTimeout() {
+        return stopTimeout;
+    }
+
     List<Injector<? super T>> getOutInjections() {
         return outInjections;
     }
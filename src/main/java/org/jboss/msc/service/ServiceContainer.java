@@ -23,7 +23,11 @@
 package org.jboss.msc.service;
 
 import java.io.PrintStream;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -123,6 +127,17 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
      */
     boolean awaitStability(long timeout, TimeUnit unit, Set<? super ServiceController<?>> failed, Set<? super ServiceController<?>> problem) throws InterruptedException;
 
+    /**
+     * Add a listener to be notified once, as soon as the container is stable.  If the container is stable already, the
+     * listener is notified right away.  The listener is always invoked by a container thread, never by the calling
+     * thread, and it is not invoked at all once the container is shut down.  The statistics cover all the services of
+     * the container.
+     *
+     * @param listener the listener
+     * @see StabilityListener
+     */
+    void addStabilityListener(StabilityListener listener);
+
     /**
      * Dump a complete list of services to {@code System.out}.
      */
@@ -158,7 +173,7 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
         public static ServiceContainer create() {
             int cpuCount = Runtime.getRuntime().availableProcessors();
             int coreSize = Math.max(cpuCount << 1, 2);
-            return new ServiceContainerImpl(null, coreSize, 30L, TimeUnit.SECONDS, true);
+            return new ServiceContainerImpl(null, coreSize, 30L, TimeUnit.SECONDS, null, true, new Options());
         }
 
         /**
@@ -170,7 +185,7 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
         public static ServiceContainer create(String name) {
             int cpuCount = Runtime.getRuntime().availableProcessors();
             int coreSize = Math.max(cpuCount << 1, 2);
-            return new ServiceContainerImpl(name, coreSize, 30L, TimeUnit.SECONDS, true);
+            return new ServiceContainerImpl(name, coreSize, 30L, TimeUnit.SECONDS, null, true, new Options());
         }
 
         /**
@@ -183,7 +198,7 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
          * @return a new service container instance
          */
         public static ServiceContainer create(int coreSize, long keepAliveTime, TimeUnit keepAliveTimeUnit) {
-            return new ServiceContainerImpl(null, coreSize, keepAliveTime, keepAliveTimeUnit, true);
+            return new ServiceContainerImpl(null, coreSize, keepAliveTime, keepAliveTimeUnit, null, true, new Options());
         }
 
         /**
@@ -197,7 +212,7 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
          * @return a new service container instance
          */
         public static ServiceContainer create(String name, int coreSize, long keepAliveTime, TimeUnit keepAliveTimeUnit) {
-            return new ServiceContainerImpl(name, coreSize, keepAliveTime, keepAliveTimeUnit, true);
+            return new ServiceContainerImpl(name, coreSize, keepAliveTime, keepAliveTimeUnit, null, true, new Options());
         }
 
         /**
@@ -209,7 +224,7 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
         public static ServiceContainer create(boolean autoShutdown) {
             int cpuCount = Runtime.getRuntime().availableProcessors();
             int coreSize = Math.max(cpuCount << 1, 2);
-            return new ServiceContainerImpl(null, coreSize, 30L, TimeUnit.SECONDS, autoShutdown);
+            return new ServiceContainerImpl(null, coreSize, 30L, TimeUnit.SECONDS, null, autoShutdown, new Options());
         }
 
         /**
@@ -222,7 +237,7 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
         public static ServiceContainer create(String name, boolean autoShutdown) {
             int cpuCount = Runtime.getRuntime().availableProcessors();
             int coreSize = Math.max(cpuCount << 1, 2);
-            return new ServiceContainerImpl(name, coreSize, 30L, TimeUnit.SECONDS, autoShutdown);
+            return new ServiceContainerImpl(name, coreSize, 30L, TimeUnit.SECONDS, null, autoShutdown, new Options());
         }
 
         /**
@@ -236,7 +251,7 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
          * @return a new service container instance
          */
         public static ServiceContainer create(int coreSize, long keepAliveTime, TimeUnit keepAliveTimeUnit, boolean autoShutdown) {
-            return new ServiceContainerImpl(null, coreSize, keepAliveTime, keepAliveTimeUnit, autoShutdown);
+            return new ServiceContainerImpl(null, coreSize, keepAliveTime, keepAliveTimeUnit, null, autoShutdown, new Options());
         }
 
         /**
@@ -251,7 +266,281 @@ public interface ServiceContainer extends ServiceTarget, ServiceRegistry {
          * @return a new service container instance
          */
         public static ServiceContainer create(String name, int coreSize, long keepAliveTime, TimeUnit keepAliveTimeUnit, boolean autoShutdown) {
-            return new ServiceContainerImpl(name, coreSize, keepAliveTime, keepAliveTimeUnit, autoShutdown);
+            return new ServiceContainerImpl(name, coreSize, keepAliveTime, keepAliveTimeUnit, null, autoShutdown, new Options());
+        }
+
+        /**
+         * Create a new instance with a generated name which runs its tasks on the given executor.  The executor is
+         * not owned by the container: it may be shared between several containers, and it is not shut down when the
+         * container is shut down.  Container tasks are never run on the submitting thread: a task which the executor
+         * rejects, for instance because its queue is bounded, is submitted again later.
+         *
+         * @param executor the executor to run container tasks on
+         * @return a new service container instance
+         */
+        public static ServiceContainer create(Executor executor) {
+            return create(null, executor, true);
+        }
+
+        /**
+         * Create a new instance with a given name which runs its tasks on the given executor.  The executor is
+         * not owned by the container: it may be shared between several containers, and it is not shut down when the
+         * container is shut down.  Container tasks are never run on the submitting thread: a task which the executor
+         * rejects, for instance because its queue is bounded, is submitted again later.
+         *
+         * @param name the name of the new container
+         * @param executor the executor to run container tasks on
+         * @return a new service container instance
+         */
+        public static ServiceContainer create(String name, Executor executor) {
+            return create(name, executor, true);
+        }
+
+        /**
+         * Create a new instance with a given name which runs its tasks on the given executor.  The executor is
+         * not owned by the container: it may be shared between several containers, and it is not shut down when the
+         * container is shut down.  Container tasks are never run on the submitting thread: a task which the executor
+         * rejects, for instance because its queue is bounded, is submitted again later.
+         *
+         * @param name the name of the new container
+         * @param executor the executor to run container tasks on
+         * @param autoShutdown {@code true} to automatically shut down the container at VM exit, {@code false} otherwise
+         * @return a new service container instance
+         */
+        public static ServiceContainer create(String name, Executor executor, boolean autoShutdown) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor is null");
+            }
+            return create(name, executor, autoShutdown, new Options());
+        }
+
+        /**
+         * Create a new instance with a given name, default thread pool and the given options.
+         *
+         * @param name the name of the new container
+         * @param options the container options
+         * @return a new service container instance
+         */
+        public static ServiceContainer create(String name, Options options) {
+            int cpuCount = Runtime.getRuntime().availableProcessors();
+            int coreSize = Math.max(cpuCount << 1, 2);
+            return create(name, coreSize, 30L, TimeUnit.SECONDS, true, options);
+        }
+
+        /**
+         * Create a new instance with a given name, specified initial thread pool settings and the given options.
+         *
+         * @param name the name of the new container
+         * @param coreSize the core pool size (must be greater than zero)
+         * @param keepAliveTime the amount of time that non-core threads should linger without tasks
+         * @param keepAliveTimeUnit the time unit for {@code keepAliveTime}
+         * @param autoShutdown {@code true} to automatically shut down the container at VM exit, {@code false} otherwise
+         * @param options the container options
+         * @return a new service container instance
+         */
+        public static ServiceContainer create(String name, int coreSize, long keepAliveTime, TimeUnit keepAliveTimeUnit, boolean autoShutdown, Options options) {
+            if (options == null) {
+                throw new IllegalArgumentException("options is null");
+            }
+            return new ServiceContainerImpl(name, coreSize, keepAliveTime, keepAliveTimeUnit, null, autoShutdown, options);
+        }
+
+        /**
+         * Create a new instance with a given name which runs its tasks on the given executor, with the given options.
+         * The executor is not owned by the container: it may be shared between several containers, and it is not shut
+         * down when the container is shut down.  Container tasks are never run on the submitting thread: a task which
+         * the executor rejects, for instance because its queue is bounded, is submitted again later.
+         *
+         * @param name the name of the new container
+         * @param executor the executor to run container tasks on
+         * @param autoShutdown {@code true} to automatically shut down the container at VM exit, {@code false} otherwise
+         * @param options the container options
+         * @return a new service container instance
+         */
+        public static ServiceContainer create(String name, Executor executor, boolean autoShutdown, Options options) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor is null");
+            }
+            if (options == null) {
+                throw new IllegalArgumentException("options is null");
+            }
+            return new ServiceContainerImpl(name, 0, 0L, null, executor, autoShutdown, options);
+        }
+    }
+
+    /**
+     * The order in which a container starts the services which are ready to start.
+     */
+    enum StartOrder {
+        /**
+         * Services are started in the order in which they become ready.
+         */
+        FIFO,
+        /**
+         * Services with the longest chain of dependents, and then the longest recorded start, are started first, so
+         * that the critical path of the boot is started as early as possible.  The recorded start durations are read
+         * from a profile, by default the one which the previous run wrote to the {@code jboss.msc.profile.output} file.
+         */
+        PRIORITY
+    }
+
+    /**
+     * The options of a new container.  A new instance holds the defaults, which are taken from the system properties
+     * listed with each option; a property holding a value which cannot be parsed is ignored.  The options are read
+     * when the container is created, so an instance may be changed and reused for other containers afterwards.
+     */
+    final class Options {
+        private StartOrder startOrder;
+        private String startProfile;
+        private boolean workStealing;
+        private int inlineDepth;
+        private boolean virtualThreads;
+
+        /**
+         * Create a new instance holding the default options.
+         */
+        public Options() {
+            final String startOrder = getSystemProperty("jboss.msc.start.order");
+            StartOrder order = StartOrder.FIFO;
+            if (startOrder != null) try {
+                order = StartOrder.valueOf(startOrder.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                ServiceLogger.ROOT.unknownStartOrder(startOrder);
+            }
+            this.startOrder = order;
+            startProfile = getSystemProperty("jboss.msc.profile.input");
+            workStealing = Boolean.parseBoolean(getSystemProperty("jboss.msc.work.stealing"));
+            final String inlineDepth = getSystemProperty("jboss.msc.inline.depth");
+            if (inlineDepth != null) try {
+                this.inlineDepth = Math.max(0, Integer.parseInt(inlineDepth.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+            virtualThreads = Boolean.parseBoolean(getSystemProperty("jboss.msc.virtual.threads"));
+        }
+
+        /**
+         * Get the start order.
+         *
+         * @return the start order
+         */
+        public StartOrder getStartOrder() {
+            return startOrder;
+        }
+
+        /**
+         * Set the start order.  Defaults to the {@code jboss.msc.start.order} property, either {@code fifo} or
+         * {@code priority}, and otherwise to {@link StartOrder#FIFO FIFO}.
+         *
+         * @param startOrder the start order
+         * @return this instance
+         */
+        public Options setStartOrder(final StartOrder startOrder) {
+            if (startOrder == null) {
+                throw new IllegalArgumentException("startOrder is null");
+            }
+            this.startOrder = startOrder;
+            return this;
+        }
+
+        /**
+         * Get the name of the profile file which the recorded start durations are read from.
+         *
+         * @return the file name, or {@code null} for the profile written by the previous run
+         */
+        public String getStartProfile() {
+            return startProfile;
+        }
+
+        /**
+         * Set the name of the profile file which the recorded start durations of the {@link StartOrder#PRIORITY
+         * PRIORITY} start order are read from.  Defaults to the {@code jboss.msc.profile.input} property, and
+         * otherwise to the profile written by the previous run.
+         *
+         * @param startProfile the file name, or {@code null} for the profile written by the previous run
+         * @return this instance
+         */
+        public Options setStartProfile(final String startProfile) {
+            this.startProfile = startProfile;
+            return this;
+        }
+
+        /**
+         * Determine whether the thread pool of the container uses work stealing.
+         *
+         * @return {@code true} if it does
+         */
+        public boolean isWorkStealing() {
+            return workStealing;
+        }
+
+        /**
+         * Set whether the thread pool of the container gives each thread its own task queue, from which idle threads
+         * steal, instead of sharing one queue between all threads.  This has no effect on a container which runs on a
+         * caller-supplied executor.  Defaults to the {@code jboss.msc.work.stealing} property, and otherwise to
+         * {@code false}.
+         *
+         * @param workStealing {@code true} to use work stealing
+         * @return this instance
+         */
+        public Options setWorkStealing(final boolean workStealing) {
+            this.workStealing = workStealing;
+            return this;
+        }
+
+        /**
+         * Get the inline depth.
+         *
+         * @return the inline depth
+         */
+        public int getInlineDepth() {
+            return inlineDepth;
+        }
+
+        /**
+         * Set how many internal controller tasks a thread may run in a row as continuations of the task which produced
+         * them, instead of submitting them to the executor.  Service starts and stops, and listener notifications, are
+         * never run inline.  Defaults to the {@code jboss.msc.inline.depth} property, and otherwise to {@code 0}, which submits every task.
+         *
+         * @param inlineDepth the inline depth (must not be negative)
+         * @return this instance
+         */
+        public Options setInlineDepth(final int inlineDepth) {
+            if (inlineDepth < 0) {
+                throw new IllegalArgumentException("inlineDepth is negative");
+            }
+            this.inlineDepth = inlineDepth;
+            return this;
+        }
+
+        /**
+         * Determine whether services are started and stopped on virtual threads.
+         *
+         * @return {@code true} if they are
+         */
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        /**
+         * Set whether services are started and stopped on virtual threads, one per start or stop, instead of on the
+         * threads of the container.  The other tasks of the container still run on its threads.  On a JVM without
+         * virtual threads, a warning is logged and the option has no effect.  Defaults to the
+         * {@code jboss.msc.virtual.threads} property, and otherwise to {@code false}.
+         *
+         * @param virtualThreads {@code true} to use virtual threads
+         * @return this instance
+         */
+        public Options setVirtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        private static String getSystemProperty(final String name) {
+            return AccessController.doPrivileged(new PrivilegedAction<String>() {
+                public String run() {
+                    return System.getProperty(name);
+                }
+            });
         }
     }
 
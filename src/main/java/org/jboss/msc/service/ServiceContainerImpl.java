@@ -24,9 +24,13 @@ package org.jboss.msc.service;
 
 import static org.jboss.modules.management.ObjectProperties.property;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
@@ -40,22 +44,31 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -67,6 +80,7 @@ import org.jboss.modules.ref.WeakReference;
 import org.jboss.msc.Version;
 import org.jboss.msc.inject.Injector;
 import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
 import org.jboss.msc.service.ServiceController.Substate;
 import org.jboss.msc.service.management.ServiceContainerMXBean;
 import org.jboss.msc.service.management.ServiceStatus;
@@ -82,24 +96,48 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
     private static final AtomicInteger SERIAL = new AtomicInteger(1);
 
     static final String PROFILE_OUTPUT;
+    /**
+     * The start durations recorded by the previous run in the profile output file.
+     */
+    private static final Map<ServiceName, Long> PREVIOUS_START_DURATIONS;
 
     static {
-        PROFILE_OUTPUT = AccessController.doPrivileged(new PrivilegedAction<String>() {
+        PROFILE_OUTPUT = getSystemProperty("jboss.msc.profile.output");
+        // read once, before the first container overwrites the profile output of the previous run
+        PREVIOUS_START_DURATIONS = readStartDurations(PROFILE_OUTPUT);
+        ServiceLogger.ROOT.greeting(Version.getVersionString());
+    }
+
+    private static String getSystemProperty(final String name) {
+        return AccessController.doPrivileged(new PrivilegedAction<String>() {
             public String run() {
-                return System.getProperty("jboss.msc.profile.output");
+                return System.getProperty(name);
             }
         });
-        ServiceLogger.ROOT.greeting(Version.getVersionString());
     }
 
-    private final ConcurrentMap<ServiceName, ServiceRegistrationImpl> registry = new UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl>(512);
+    private final UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl> registry = new UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl>(512);
     private final long start = System.nanoTime();
 
-    private final Set<ServiceController<?>> problems = new IdentityHashSet<ServiceController<?>>();
-    private final Set<ServiceController<?>> failed = new IdentityHashSet<ServiceController<?>>();
-    private final Object lock = new Object();
+    /**
+     * The services with missing dependencies.  Controllers do not override {@code equals}, so a hash-based concurrent
+     * set behaves as an identity set here.
+     */
+    private final Set<ServiceController<?>> problems = Collections.newSetFromMap(new ConcurrentHashMap<ServiceController<?>, Boolean>());
+    private final Set<ServiceController<?>> failed = Collections.newSetFromMap(new ConcurrentHashMap<ServiceController<?>, Boolean>());
 
-    private int unstableServices;
+    /**
+     * The number of services which are not in a rest state.
+     */
+    private final AtomicInteger unstableServices = new AtomicInteger();
+    /**
+     * The threads waiting for stability, which are unparked whenever the number of unstable services drops to zero.
+     */
+    private final Queue<Thread> stabilityWaiters = new ConcurrentLinkedQueue<Thread>();
+    /**
+     * The listeners to notify once, the next time the number of unstable services drops to zero.
+     */
+    private final Queue<StabilityListener> stabilityListeners = new ConcurrentLinkedQueue<StabilityListener>();
     private long shutdownInitiated;
 
     private final List<TerminateListener> terminateListeners = new ArrayList<TerminateListener>(1);
@@ -157,7 +195,37 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
 
     private volatile boolean down = false;
 
-    private final ContainerExecutor executor;
+    private final TaskExecutor executor;
+    private final TaskExecutor lifecycleExecutor;
+    private final int inlineDepth;
+
+    /**
+     * The historical start durations by service name, or {@code null} if starts are not prioritized.
+     */
+    private final Map<ServiceName, Long> startCosts;
+    private final DependencyOrder dependencyOrder = new DependencyOrder();
+    /**
+     * The names of the registrations which have an instance.
+     */
+    private final ServiceNameIndex serviceNameIndex = new ServiceNameIndex();
+    /**
+     * The installed services by substate.
+     */
+    private final ServiceStateIndex serviceStateIndex = new ServiceStateIndex();
+    /**
+     * The number of executors which have yet to terminate before the shutdown is complete.
+     */
+    private final AtomicInteger liveExecutors = new AtomicInteger(1);
+    /**
+     * The executors of target bulkheads, which are shut down along with the container executor.
+     */
+    private final List<TaskExecutor> bulkheadExecutors = new ArrayList<TaskExecutor>();
+    /**
+     * The timer for service start and stop timeouts.
+     */
+    private final TimerWheel timerWheel;
+    private final AtomicLong submittedTaskBatches = new AtomicLong();
+    private final AtomicLong submittedTasks = new AtomicLong();
 
     private final String name;
     private final MBeanServer mBeanServer;
@@ -295,6 +363,28 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
             }
         }
 
+        @Override
+        public long getSubmittedTaskBatchCount() {
+            return ServiceContainerImpl.this.getSubmittedTaskBatchCount();
+        }
+
+        @Override
+        public long getSubmittedTaskCount() {
+            return ServiceContainerImpl.this.getSubmittedTaskCount();
+        }
+
+        @Override
+        public double getAverageTaskBatchSize() {
+            final long batches = ServiceContainerImpl.this.getSubmittedTaskBatchCount();
+            return batches == 0L ? 0.0 : (double) ServiceContainerImpl.this.getSubmittedTaskCount() / (double) batches;
+        }
+
+        @Override
+        public int countServicesByStatus(String status) {
+            final State state = stateOf(status);
+            return state == null ? 0 : serviceStateIndex.count(state);
+        }
+
         @Override
         public String dumpServicesToStringByStatus(String status) {
             Collection<ServiceStatus> services = this.queryServicesByStatus(status);
@@ -326,20 +416,31 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
          * @return
          */
         private Collection<ServiceStatus> queryServicesByStatus(String status) {
-            final Collection<ServiceRegistrationImpl> registrations = registry.values();
-            final ArrayList<ServiceStatus> list = new ArrayList<ServiceStatus>(registrations.size());
-            for (ServiceRegistrationImpl registration : registrations) {
-                final ServiceControllerImpl<?> instance = registration.getInstance();
-                if (instance != null) {
-                    ServiceStatus serviceStatus = instance.getStatus();
-                    if (serviceStatus.getStateName().equals(status)) {
-                        list.add(serviceStatus);
-                    }
+            final State state = stateOf(status);
+            if (state == null) {
+                return Collections.emptyList();
+            }
+            final List<ServiceControllerImpl<?>> controllers = serviceStateIndex.getControllers(state);
+            final ArrayList<ServiceStatus> list = new ArrayList<ServiceStatus>(controllers.size());
+            for (ServiceControllerImpl<?> controller : controllers) {
+                final ServiceStatus serviceStatus = controller.getStatus();
+                // the service may have changed its state since the index was read
+                if (serviceStatus.getStateName().equals(status)) {
+                    list.add(serviceStatus);
                 }
             }
             return list;
         }
 
+        private State stateOf(String status) {
+            for (State state : State.values()) {
+                if (state.name().equals(status)) {
+                    return state;
+                }
+            }
+            return null;
+        }
+
         /**
          * Print the passed {@link ServiceStatus}es to the {@link PrintStream}
          * @param serviceStatuses
@@ -355,14 +456,43 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         }
     };
 
-    ServiceContainerImpl(String name, int coreSize, long timeOut, TimeUnit timeOutUnit, final boolean autoShutdown) {
+    ServiceContainerImpl(String name, int coreSize, long timeOut, TimeUnit timeOutUnit, final Executor externalExecutor, final boolean autoShutdown, final Options options) {
         this.autoShutdown = autoShutdown;
         final int serialNo = SERIAL.getAndIncrement();
         if (name == null) {
             name = String.format("anonymous-%d", Integer.valueOf(serialNo));
         }
         this.name = name;
-        executor = new ContainerExecutor(coreSize, coreSize, timeOut, timeOutUnit);
+        if (options.getStartOrder() == StartOrder.PRIORITY) {
+            final String startProfile = options.getStartProfile();
+            startCosts = startProfile == null || startProfile.equals(PROFILE_OUTPUT) ? PREVIOUS_START_DURATIONS : readStartDurations(startProfile);
+        } else {
+            startCosts = null;
+        }
+        final TaskExecutor taskExecutor;
+        if (externalExecutor != null) {
+            taskExecutor = new ExternalExecutor(externalExecutor);
+        } else if (options.isWorkStealing()) {
+            taskExecutor = new WorkStealingExecutor(coreSize);
+        } else {
+            taskExecutor = new ContainerExecutor(coreSize, coreSize, timeOut, timeOutUnit, startCosts != null);
+        }
+        final ExecutorService virtualThreadExecutor = options.isVirtualThreads() ? createVirtualThreadExecutor(name) : null;
+        if (virtualThreadExecutor == null) {
+            executor = taskExecutor;
+            lifecycleExecutor = null;
+        } else {
+            liveExecutors.incrementAndGet();
+            lifecycleExecutor = new ExternalExecutor(virtualThreadExecutor) {
+                public void shutdown() {
+                    super.shutdown();
+                    virtualThreadExecutor.shutdown();
+                }
+            };
+            executor = new LifecycleTaskExecutor(taskExecutor, lifecycleExecutor);
+        }
+        inlineDepth = options.getInlineDepth();
+        timerWheel = new TimerWheel("MSC timer thread (" + name + ")", 10L, TimeUnit.MILLISECONDS, 512);
         ObjectName objectName = null;
         MBeanServer mBeanServer = null;
         try {
@@ -412,41 +542,145 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
     }
 
     void removeProblem(ServiceController<?> controller) {
-        synchronized (lock) {
-            problems.remove(controller);
-        }
+        problems.remove(controller);
     }
 
     void removeFailed(ServiceController<?> controller) {
-        synchronized (lock) {
-            failed.remove(controller);
-        }
+        failed.remove(controller);
     }
 
     void incrementUnstableServices() {
-        synchronized (lock) {
-            unstableServices++;
-        }
+        unstableServices.incrementAndGet();
     }
 
     void addProblem(ServiceController<?> controller) {
-        synchronized (lock) {
-            problems.add(controller);
-        }
+        problems.add(controller);
     }
 
     void addFailed(ServiceController<?> controller) {
-        synchronized (lock) {
-            failed.add(controller);
-        }
+        failed.add(controller);
     }
 
     void decrementUnstableServices() {
-        synchronized (lock) {
-            if (--unstableServices == 0) {
-                lock.notifyAll();
+        final int count = unstableServices.decrementAndGet();
+        assert count >= 0;
+        if (count == 0) {
+            for (Thread waiter : stabilityWaiters) {
+                LockSupport.unpark(waiter);
+            }
+            if (! stabilityListeners.isEmpty()) {
+                final List<StabilityListener> listeners = takeStabilityListeners();
+                if (listeners != null) {
+                    // we are called under the controller lock, so the listeners are notified by a container thread
+                    executeNotification(new Runnable() {
+                        public void run() {
+                            notifyStabilityListeners(listeners);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the pending stability listeners, provided that no service is unstable.  A listener which is taken while the
+     * count rises again is put back, and the count is rechecked, so that it is either notified now or left for the
+     * thread which brings the count back to zero.
+     *
+     * @return the listeners to notify, or {@code null} if there are none
+     */
+    private List<StabilityListener> takeStabilityListeners() {
+        List<StabilityListener> listeners = null;
+        StabilityListener listener;
+        while (unstableServices.get() == 0 && (listener = stabilityListeners.poll()) != null) {
+            if (unstableServices.get() != 0) {
+                stabilityListeners.add(listener);
+                continue;
+            }
+            if (listeners == null) {
+                listeners = new ArrayList<StabilityListener>(1);
+            }
+            listeners.add(listener);
+        }
+        return listeners;
+    }
+
+    private void notifyStabilityListeners(final List<StabilityListener> listeners) {
+        final Set<ServiceController<?>> failed = snapshot(this.failed);
+        final Set<ServiceController<?>> problems = snapshot(this.problems);
+        final IdentityHashSet<ServiceControllerImpl<?>> controllers = new IdentityHashSet<ServiceControllerImpl<?>>();
+        for (ServiceRegistrationImpl registration : registry.values()) {
+            final ServiceControllerImpl<?> controller = registration.getInstance();
+            if (controller != null) {
+                controllers.add(controller);
+            }
+        }
+        final StabilityStatistics statistics = new StabilityStatistics();
+        statistics.collect(controllers, failed.size(), problems.size());
+        for (StabilityListener listener : listeners) {
+            try {
+                listener.handleStability(failed, problems, statistics);
+            } catch (Throwable t) {
+                ServiceLogger.ROOT.stabilityListenerFailed(t, listener);
+            }
+        }
+    }
+
+    private static Set<ServiceController<?>> snapshot(final Set<ServiceController<?>> controllers) {
+        if (controllers.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new IdentityHashSet<ServiceController<?>>(controllers));
+    }
+
+    /**
+     * Submit a notification task to the container executor.  The task is never run on the calling thread, which may
+     * hold a controller lock: if the executor rejects it because the container is shut down, it is discarded.
+     *
+     * @param task the notification task
+     */
+    void executeNotification(final Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shut down; nobody is left to be notified of stability
+        }
+    }
+
+    /**
+     * Wait until no service is unstable.  The waiting thread registers itself before checking the count, so it cannot
+     * miss the wakeup of a concurrent drop to zero.
+     *
+     * @param timeout the maximum time to wait in nanoseconds, ignored if not {@code timed}
+     * @param timed {@code true} to wait at most {@code timeout}
+     * @return {@code true} if the container was stable, {@code false} if the timeout elapsed first
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    private boolean waitForStability(final long timeout, final boolean timed) throws InterruptedException {
+        if (unstableServices.get() == 0) {
+            return true;
+        }
+        final Thread thread = Thread.currentThread();
+        final long deadline = timed ? System.nanoTime() + timeout : 0L;
+        stabilityWaiters.add(thread);
+        try {
+            while (unstableServices.get() != 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (timed) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
             }
-            assert unstableServices >= 0; 
+            return true;
+        } finally {
+            stabilityWaiters.remove(thread);
         }
     }
 
@@ -462,6 +696,56 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         return profileOutput;
     }
 
+    /**
+     * Read the start durations recorded in a profile output file.
+     *
+     * @param fileName the profile file name, or {@code null} for none
+     * @return the start durations by service name
+     */
+    private static Map<ServiceName, Long> readStartDurations(final String fileName) {
+        final Map<ServiceName, Long> durations = new HashMap<ServiceName, Long>();
+        if (fileName == null) {
+            return durations;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                if (fields.length == 4 && fields[1].equals("S")) try {
+                    durations.put(ServiceName.parse(fields[0]), Long.valueOf(fields[3]));
+                } catch (IllegalArgumentException ignored) {
+                    // not a profile line
+                }
+            }
+        } catch (IOException e) {
+            // no history
+        } finally {
+            if (reader != null) try {
+                reader.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * The estimated start cost of a service which has no recorded start duration, in nanoseconds.
+     */
+    private static final long DEFAULT_START_COST = 100000L;
+
+    /**
+     * Get the estimated start cost of a service.
+     *
+     * @param name the service name
+     * @return the start cost in nanoseconds
+     */
+    long getStartCost(final ServiceName name) {
+        final Long cost = startCosts == null ? null : startCosts.get(name);
+        return cost == null ? DEFAULT_START_COST : Math.max(cost.longValue(), 0L);
+    }
+
     long getStart() {
         return start;
     }
@@ -502,38 +786,44 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
 
     @Override
     public void awaitStability(Set<? super ServiceController<?>> failed, Set<? super ServiceController<?>> problem) throws InterruptedException {
-        synchronized (lock) {
-            while (unstableServices != 0) {
-                lock.wait();
-            }
-            if (failed != null) {
-                failed.addAll(this.failed);
-            }
-            if (problem != null) {
-                problem.addAll(this.problems);
-            }
+        waitForStability(0L, false);
+        if (failed != null) {
+            failed.addAll(this.failed);
+        }
+        if (problem != null) {
+            problem.addAll(this.problems);
         }
     }
 
     @Override
     public boolean awaitStability(final long timeout, final TimeUnit unit, Set<? super ServiceController<?>> failed, Set<? super ServiceController<?>> problem) throws InterruptedException {
-        long now = System.nanoTime();
-        long remaining = unit.toNanos(timeout);
-        synchronized (lock) {
-            while (unstableServices != 0) {
-                if (remaining <= 0L) {
-                    return false;
+        if (! waitForStability(unit.toNanos(timeout), true)) {
+            return false;
+        }
+        if (failed != null) {
+            failed.addAll(this.failed);
+        }
+        if (problem != null) {
+            problem.addAll(this.problems);
+        }
+        return true;
+    }
+
+    @Override
+    public void addStabilityListener(final StabilityListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is null");
+        }
+        stabilityListeners.add(listener);
+        // the container may already be stable, in which case no thread will take the listener
+        final List<StabilityListener> listeners = takeStabilityListeners();
+        if (listeners != null) {
+            // notified by a container thread, just like when the last transition completes
+            executeNotification(new Runnable() {
+                public void run() {
+                    notifyStabilityListeners(listeners);
                 }
-                lock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
-                remaining -= (-now + (now = System.nanoTime()));
-            }
-            if (failed != null) {
-                failed.addAll(this.failed);
-            }
-            if (problem != null) {
-                problem.addAll(this.problems);
-            }
-            return true;
+            });
         }
     }
 
@@ -542,6 +832,51 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         return this;
     }
 
+    @Override
+    ServiceContainerImpl getContainer() {
+        return this;
+    }
+
+    /**
+     * Create a bulkhead for the services of a target.  The bulkhead neither has a dedicated executor nor a limit until
+     * it is {@linkplain Bulkhead#update updated}.
+     *
+     * @return the bulkhead
+     */
+    Bulkhead createBulkhead() {
+        return new Bulkhead();
+    }
+
+    /**
+     * Register the dedicated executor of a bulkhead in place of its previous one, which is shut down, so that it
+     * terminates once its outstanding tasks are done.
+     *
+     * @param previous the previous executor of the bulkhead, or {@code null} if it had none
+     * @param executor the new executor, or {@code null} to use the container's executor
+     * @return the registered executor, or {@code null} if {@code executor} is {@code null}
+     * @throws IllegalStateException if the container is shut down
+     */
+    private TaskExecutor replaceBulkheadExecutor(final TaskExecutor previous, final Executor executor) throws IllegalStateException {
+        TaskExecutor bulkheadExecutor = null;
+        synchronized (this) {
+            if (executor != null) {
+                if (down) {
+                    throw new IllegalStateException("Container is down");
+                }
+                bulkheadExecutor = new ExternalExecutor(executor);
+                bulkheadExecutors.add(bulkheadExecutor);
+                liveExecutors.incrementAndGet();
+            }
+            if (previous != null) {
+                bulkheadExecutors.remove(previous);
+            }
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+        return bulkheadExecutor;
+    }
+
     public boolean isShutdown() {
         return down;
     }
@@ -558,6 +893,13 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         shutdownListener = MultipleRemoveListener.create(new Runnable() {
             public void run() {
                 executor.shutdown();
+                final TaskExecutor[] executors;
+                synchronized (ServiceContainerImpl.this) {
+                    executors = bulkheadExecutors.toArray(new TaskExecutor[bulkheadExecutors.size()]);
+                }
+                for (TaskExecutor bulkheadExecutor : executors) {
+                    bulkheadExecutor.shutdown();
+                }
             }
         });
         final HashSet<ServiceControllerImpl<?>> done = new HashSet<ServiceControllerImpl<?>>();
@@ -611,7 +953,14 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         shutdown();
     }
 
+    private void executorTerminated() {
+        if (liveExecutors.decrementAndGet() == 0) {
+            shutdownComplete(shutdownInitiated);
+        }
+    }
+
     private synchronized void shutdownComplete(long started) {
+        timerWheel.shutdown();
         terminateInfo = new TerminateListener.Info(started, System.nanoTime());
         for (TerminateListener terminateListener : terminateListeners) {
             try {
@@ -634,30 +983,85 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         }
     }
 
-    Executor getExecutor() {
-        return executor;
+    /**
+     * Submit a list of tasks produced by a controller transition.
+     *
+     * @param tasks the tasks, which must not be empty
+     */
+    void executeTasks(final List<Runnable> tasks) {
+        submittedTaskBatches.incrementAndGet();
+        submittedTasks.addAndGet(tasks.size());
+        executor.executeAll(tasks);
+    }
+
+    long getSubmittedTaskBatchCount() {
+        return submittedTaskBatches.get();
+    }
+
+    long getSubmittedTaskCount() {
+        return submittedTasks.get();
+    }
+
+    /**
+     * Get the executor for service start and stop work, if it is separate from the task executor.
+     *
+     * @return the lifecycle executor, or {@code null} if start and stop work runs on the task executor
+     */
+    Executor getLifecycleExecutor() {
+        return lifecycleExecutor;
+    }
+
+    TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * Get the maximum number of internal tasks which are run on a thread as continuations of the internal task which
+     * produced them, instead of being submitted to the executor.
+     *
+     * @return the inline depth, or {@code 0} if internal tasks are always submitted to the executor
+     */
+    int getInlineDepth() {
+        return inlineDepth;
     }
 
     /**
-     * Atomically get or create a registration.
+     * Atomically get or create a registration, and pin it.
      *
      * @param name the service name
-     * @return the registration
+     * @return the pinned registration
      */
     private ServiceRegistrationImpl getOrCreateRegistration(final ServiceName name) {
         final ConcurrentMap<ServiceName, ServiceRegistrationImpl> registry = this.registry;
-        ServiceRegistrationImpl registration;
-        registration = registry.get(name);
-        if (registration == null) {
-            registration = new ServiceRegistrationImpl(this, name);
-            ServiceRegistrationImpl existing = registry.putIfAbsent(name, registration);
-            if(existing != null) {
-                return existing;
-            } else {
+        for (;;) {
+            ServiceRegistrationImpl registration = registry.get(name);
+            if (registration == null) {
+                registration = new ServiceRegistrationImpl(this, name);
+                final ServiceRegistrationImpl existing = registry.putIfAbsent(name, registration);
+                if (existing != null) {
+                    registration = existing;
+                }
+            }
+            if (registration.pin()) {
                 return registration;
             }
-        } else {
-            return registration;
+            // it was reclaimed, but may not be removed yet
+            registry.remove(name, registration);
+        }
+    }
+
+    /**
+     * Remove a reclaimed registration from the registry.
+     *
+     * @param registration the registration
+     */
+    void removeRegistration(final ServiceRegistrationImpl registration) {
+        registry.remove(registration.getName(), registration);
+    }
+
+    private static void unpin(final Map<ServiceName, ServiceRegistrationImpl> registrations) {
+        for (ServiceRegistrationImpl registration : registrations.values()) {
+            registration.unpin();
         }
     }
 
@@ -678,13 +1082,23 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
 
     @Override
     public List<ServiceName> getServiceNames() {
-        final List<ServiceName> result = new ArrayList<ServiceName>(registry.size());
-        for (Map.Entry<ServiceName, ServiceRegistrationImpl> registryEntry: registry.entrySet()) {
-            if (registryEntry.getValue().getInstance() != null) {
-                result.add(registryEntry.getKey());
-            }
+        return serviceNameIndex.names(null);
+    }
+
+    @Override
+    public List<ServiceName> getServiceNames(final ServiceName name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
         }
-        return result;
+        return serviceNameIndex.names(name);
+    }
+
+    ServiceNameIndex getServiceNameIndex() {
+        return serviceNameIndex;
+    }
+
+    ServiceStateIndex getServiceStateIndex() {
+        return serviceStateIndex;
     }
 
     void apply(ServiceBuilderImpl<?> builder, ServiceControllerImpl<?> parent) {
@@ -700,10 +1114,14 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
     }
 
     void apply(ServiceBuilderImpl<?> builder) {
+        final ServiceControllerImpl<?> parent = builder.getParent();
+        // Children inherit the bulkhead of their parent, unless one of their targets has its own
+        if (parent != null) {
+            builder.setBulkheadIfAbsent(parent.getBulkhead());
+        }
         // Apply listeners from the target, first
         super.apply(builder);
         // Now apply inherited listeners from the parent
-        final ServiceControllerImpl<?> parent = builder.getParent();
         if (parent != null) {
             apply(builder, parent);
         }
@@ -716,147 +1134,236 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         }
         apply(serviceBuilder);
 
-        // Get names & aliases
-        final ServiceName name = serviceBuilder.getName();
-        final ServiceName[] aliases = serviceBuilder.getAliases();
-        final int aliasCount = aliases.length;
-
-        // Create registrations
-        final ServiceRegistrationImpl primaryRegistration = getOrCreateRegistration(name);
-        final ServiceRegistrationImpl[] aliasRegistrations = new ServiceRegistrationImpl[aliasCount];
-
-        for (int i = 0; i < aliasCount; i++) {
-            aliasRegistrations[i] = getOrCreateRegistration(aliases[i]);
-        }
-
-        // Create the list of dependencies
-        final Map<ServiceName, ServiceBuilderImpl.Dependency> dependencyMap = serviceBuilder.getDependencies();
-        final int dependencyCount = dependencyMap.size();
-        final Dependency[] dependencies = new Dependency[dependencyCount];
-        final List<ValueInjection<?>> valueInjections = serviceBuilder.getValueInjections();
-        final List<ValueInjection<?>> outInjections = new ArrayList<ValueInjection<?>>();
-        // set up outInjections with an InjectedValue
-        final InjectedValue<T> serviceValue = new InjectedValue<T>();
-        for (final Injector<? super T> outInjection : serviceBuilder.getOutInjections()) {
-            outInjections.add(new ValueInjection<T>(serviceValue, outInjection));
-        }
-
-        // Dependencies
-        int i = 0;
-        for (ServiceName serviceName : dependencyMap.keySet()) {
-            Dependency registration = getOrCreateRegistration(serviceName);
-            final ServiceBuilderImpl.Dependency dependency = dependencyMap.get(serviceName);
-            if (dependency.getDependencyType() == ServiceBuilder.DependencyType.OPTIONAL) {
-                registration = new OptionalDependency(registration);
-            }
-            dependencies[i++] = registration;
-            for (Injector<Object> injector : dependency.getInjectorList()) {
-                valueInjections.add(new ValueInjection<Object>(registration, injector));
-            }
-        }
-        final ValueInjection<?>[] valueInjectionArray = valueInjections.toArray(new ValueInjection<?>[valueInjections.size()]);
-        final ValueInjection<?>[] outInjectionArray = outInjections.toArray(new ValueInjection<?>[outInjections.size()]);
-
-        // Next create the actual controller
-        final ServiceControllerImpl<T> instance = new ServiceControllerImpl<T>(serviceBuilder.getServiceValue(),
-                dependencies, valueInjectionArray, outInjectionArray, primaryRegistration, aliasRegistrations,
-                serviceBuilder.getMonitors(), serviceBuilder.getListeners(), serviceBuilder.getParent());
-        boolean ok = false;
+        // the registrations are pinned until the installation is committed or rolled back
+        final List<ServiceRegistrationImpl> pinned = new ArrayList<ServiceRegistrationImpl>();
         try {
-            serviceValue.setValue(instance);
-            instance.startInstallation();
-            // detect circularity before committing
-            detectCircularity(instance);
-            instance.commitInstallation(serviceBuilder.getInitialMode());
-            ok = true;
-            return instance;
+            final ServiceControllerImpl<T> instance = createController(serviceBuilder, null, pinned);
+            boolean ok = false;
+            try {
+                instance.startInstallation();
+                // detect circularity before committing
+                detectCircularity(instance);
+                instance.commitInstallation(serviceBuilder.getInitialMode());
+                ok = true;
+                return instance;
+            } finally {
+                if (! ok) {
+                    instance.rollbackInstallation();
+                }
+            }
         } finally {
-            if (! ok) {
-                instance.rollbackInstallation();
+            for (ServiceRegistrationImpl registration : pinned) {
+                registration.unpin();
             }
         }
     }
 
-    /**
-     * Detects if installation of {@code instance} results in dependency cycles.
-     *
-     * @param instance                     the service being installed
-     * @throws CircularDependencyException if a dependency cycle involving {@code instance} is detected
+    @Override
+    List<ServiceController<?>> installAll(final List<ServiceBuilderImpl<?>> serviceBuilders) throws ServiceRegistryException {
+        if (down) {
+            throw new IllegalStateException ("Container is down");
+        }
+        for (ServiceBuilderImpl<?> serviceBuilder : serviceBuilders) {
+            apply(serviceBuilder);
+        }
+
+        // Create the registrations of all services at once, and check for duplicates before creating any controller
+        final Map<ServiceName, ServiceRegistrationImpl> registrations = getOrCreateRegistrations(serviceBuilders);
+        try {
+            final Set<ServiceName> names = new HashSet<ServiceName>();
+            for (ServiceBuilderImpl<?> serviceBuilder : serviceBuilders) {
+                checkDuplicate(serviceBuilder.getName(), names, registrations);
+                for (ServiceName alias : serviceBuilder.getAliases()) {
+                    checkDuplicate(alias, names, registrations);
+                }
+            }
+
+            final int count = serviceBuilders.size();
+            final List<ServiceControllerImpl<?>> instances = new ArrayList<ServiceControllerImpl<?>>(count);
+            int committed = 0;
+            try {
+                for (ServiceBuilderImpl<?> serviceBuilder : serviceBuilders) {
+                    final ServiceControllerImpl<?> instance = createController(serviceBuilder, registrations, null);
+                    instances.add(instance);
+                    instance.startInstallation();
+                }
+                // detect circularity of the whole set before committing any of them
+                final ServiceName[] cycle = dependencyOrder.addAll(instances);
+                if (cycle != null) {
+                    throw new CircularDependencyException("Container " + name + " has a circular dependency: " + Arrays.asList(cycle), cycle);
+                }
+                for (; committed < count; committed ++) {
+                    instances.get(committed).commitInstallation(serviceBuilders.get(committed).getInitialMode());
+                }
+                return new ArrayList<ServiceController<?>>(instances);
+            } finally {
+                for (int i = committed; i < instances.size(); i ++) {
+                    instances.get(i).rollbackInstallation();
+                }
+            }
+        } finally {
+            unpin(registrations);
+        }
+    }
+
+    private static void checkDuplicate(final ServiceName name, final Set<ServiceName> names, final Map<ServiceName, ServiceRegistrationImpl> registrations) throws DuplicateServiceException {
+        if (! names.add(name) || registrations.get(name).getInstance() != null) {
+            throw new DuplicateServiceException(String.format("Service %s is already registered", name.getCanonicalName()));
+        }
+    }
+
+    /**
+     * Get or create the registrations of all names used by the given builders, looking up each name only once.  The
+     * registrations are pinned, so that none of them is reclaimed before the builders are installed.
+     *
+     * @param serviceBuilders the service builders
+     * @return the pinned registrations by name
      */
-    private <T> void detectCircularity(ServiceControllerImpl<T> instance) throws CircularDependencyException {
-        final Set<ServiceControllerImpl<?>> visited = new IdentityHashSet<ServiceControllerImpl<?>>();
-        final Deque<ServiceName> visitStack = new ArrayDeque<ServiceName>();
-        final ServiceRegistrationImpl reg = instance.getPrimaryRegistration();
-        IdentityHashSet<Dependent> dependents;
-        synchronized (reg) {
-            visitStack.push(instance.getName());
-            dependents = reg.getDependents();
-            synchronized (dependents) {
-                detectCircularity(reg.getDependents(), instance, visited, visitStack);
+    private Map<ServiceName, ServiceRegistrationImpl> getOrCreateRegistrations(final List<ServiceBuilderImpl<?>> serviceBuilders) {
+        final UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl> registry = this.registry;
+        final Map<ServiceName, ServiceRegistrationImpl> registrations = new HashMap<ServiceName, ServiceRegistrationImpl>();
+        final List<ServiceName> missing = new ArrayList<ServiceName>();
+        for (ServiceBuilderImpl<?> serviceBuilder : serviceBuilders) {
+            addRegistration(serviceBuilder.getName(), registry, registrations, missing);
+            for (ServiceName alias : serviceBuilder.getAliases()) {
+                addRegistration(alias, registry, registrations, missing);
             }
-            synchronized (instance) {
-                detectCircularity(instance.getChildren(), instance, visited, visitStack);
+            for (ServiceName dependency : serviceBuilder.getDependencies().keySet()) {
+                addRegistration(dependency, registry, registrations, missing);
             }
         }
-        for (ServiceRegistrationImpl alias: instance.getAliasRegistrations()) {
-            synchronized (alias) {
-                dependents = alias.getDependents();
-                synchronized (dependents) {
-                    detectCircularity(dependents, instance, visited, visitStack);
-                }
+        if (! missing.isEmpty()) {
+            final ServiceName[] names = missing.toArray(new ServiceName[missing.size()]);
+            final ServiceRegistrationImpl[] created = new ServiceRegistrationImpl[names.length];
+            for (int i = 0; i < names.length; i ++) {
+                created[i] = new ServiceRegistrationImpl(this, names[i]);
+            }
+            registry.putAllIfAbsent(names, created);
+            for (int i = 0; i < names.length; i ++) {
+                final ServiceRegistrationImpl registration = created[i];
+                registrations.put(names[i], registration.pin() ? registration : getOrCreateRegistration(names[i]));
             }
         }
+        return registrations;
     }
 
-    private void detectCircularity(IdentityHashSet<? extends Dependent> dependents, ServiceControllerImpl<?> instance, Set<ServiceControllerImpl<?>> visited,  Deque<ServiceName> visitStack) {
-        for (Dependent dependent: dependents) {
-            final ServiceControllerImpl<?> controller = dependent.getController();
-            if (controller == instance) {
-                // change cycle from dependent order to dependency order
-                ServiceName[] cycle = new ServiceName[visitStack.size()];
-                visitStack.toArray(cycle);
-                int j = cycle.length -1;
-                for (int i = 0; i < j; i++, j--) {
-                    ServiceName temp = cycle[i];
-                    cycle[i] = cycle[j];
-                    cycle[j] = temp;
-                }
-                throw new CircularDependencyException("Container " + name + " has a circular dependency: " + Arrays.asList(cycle), cycle);
+    private static void addRegistration(final ServiceName name, final UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl> registry, final Map<ServiceName, ServiceRegistrationImpl> registrations, final List<ServiceName> missing) {
+        if (! registrations.containsKey(name)) {
+            final ServiceRegistrationImpl registration = registry.get(name);
+            if (registration != null && registration.pin()) {
+                registrations.put(name, registration);
+            } else {
+                registrations.put(name, null);
+                missing.add(name);
             }
-            if (visited.add(controller)) {
-                synchronized (controller) {
-                    if (controller.getSubstateLocked() == Substate.CANCELLED) {
-                        continue;
-                    }
-                }
-                ServiceRegistrationImpl reg = controller.getPrimaryRegistration();
-                synchronized(reg) {
-                    // concurrent removal, skip this one entirely
-                    if (reg.getInstance() == null) {
-                        continue;
-                    }
-                    visitStack.push(controller.getName());
-                    IdentityHashSet<? extends Dependent> controllerDependents = reg.getDependents();
-                    synchronized(controllerDependents) {
-                        detectCircularity(reg.getDependents(), instance, visited, visitStack);
-                    }
-                    synchronized(controller) {
-                        detectCircularity(controller.getChildren(), instance, visited, visitStack);
-                    }
-                }
-                for (ServiceRegistrationImpl alias: controller.getAliasRegistrations()) {
-                    synchronized (alias) {
-                        IdentityHashSet<? extends Dependent> controllerDependents = alias.getDependents();
-                        synchronized (controllerDependents) {
-                            detectCircularity(controllerDependents, instance, visited, visitStack);
-                        }
-                    }
-                }
-                visitStack.poll();
+        }
+    }
+
+    /**
+     * Create the controller of a service which is about to be installed.
+     *
+     * @param serviceBuilder the service builder
+     * @param registrations the pinned registrations of the names used by the builder, or {@code null} to get, create
+     * and pin each of them
+     * @param pinned the list to add the registrations pinned by this method to, if {@code registrations} is {@code null}
+     * @return the controller
+     */
+    private <T> ServiceControllerImpl<T> createController(final ServiceBuilderImpl<T> serviceBuilder, final Map<ServiceName, ServiceRegistrationImpl> registrations, final List<ServiceRegistrationImpl> pinned) {
+        // Get names & aliases
+        final ServiceName name = serviceBuilder.getName();
+        final ServiceName[] aliases = serviceBuilder.getAliases();
+        final int aliasCount = aliases.length;
+
+        // Create registrations
+        final ServiceRegistrationImpl primaryRegistration = getRegistration(name, registrations, pinned);
+        final ServiceRegistrationImpl[] aliasRegistrations = aliasCount == 0 ? NO_REGISTRATIONS : new ServiceRegistrationImpl[aliasCount];
+
+        for (int i = 0; i < aliasCount; i++) {
+            aliasRegistrations[i] = getRegistration(aliases[i], registrations, pinned);
+        }
+
+        // Create the list of dependencies
+        final Map<ServiceName, ServiceBuilderImpl.Dependency> dependencyMap = serviceBuilder.getDependencies();
+        final int dependencyCount = dependencyMap.size();
+        final Dependency[] dependencies = new Dependency[dependencyCount];
+        final List<ValueInjection<?>> valueInjections = serviceBuilder.getValueInjections();
+        final List<Injector<? super T>> outInjectors = serviceBuilder.getOutInjections();
+        final ValueInjection<?>[] outInjectionArray;
+        final InjectedValue<T> serviceValue;
+        if (outInjectors.isEmpty()) {
+            outInjectionArray = NO_INJECTIONS;
+            serviceValue = null;
+        } else {
+            // set up outInjections with an InjectedValue
+            outInjectionArray = new ValueInjection<?>[outInjectors.size()];
+            serviceValue = new InjectedValue<T>();
+            int i = 0;
+            for (final Injector<? super T> outInjection : outInjectors) {
+                outInjectionArray[i++] = new ValueInjection<T>(serviceValue, outInjection);
             }
         }
+
+        // Dependencies
+        int i = 0;
+        for (ServiceName serviceName : dependencyMap.keySet()) {
+            Dependency registration = getRegistration(serviceName, registrations, pinned);
+            final ServiceBuilderImpl.Dependency dependency = dependencyMap.get(serviceName);
+            if (dependency.getDependencyType() == ServiceBuilder.DependencyType.OPTIONAL) {
+                registration = new OptionalDependency(registration);
+            }
+            dependencies[i++] = registration;
+            for (Injector<Object> injector : dependency.getInjectorList()) {
+                valueInjections.add(new ValueInjection<Object>(registration, injector));
+            }
+        }
+        final ValueInjection<?>[] valueInjectionArray = valueInjections.isEmpty() ? NO_INJECTIONS : valueInjections.toArray(new ValueInjection<?>[valueInjections.size()]);
+
+        // Next create the actual controller
+        final ServiceControllerImpl<T> instance = new ServiceControllerImpl<T>(serviceBuilder.getServiceValue(),
+                dependencies, valueInjectionArray, outInjectionArray, primaryRegistration, aliasRegistrations,
+                serviceBuilder.getMonitors(), serviceBuilder.getListeners(), serviceBuilder.getParent(), serviceBuilder.getBulkhead(),
+                Math.max(0L, serviceBuilder.getStartTimeout()), Math.max(0L, serviceBuilder.getStopTimeout()));
+        if (serviceValue != null) {
+            serviceValue.setValue(instance);
+        }
+        return instance;
+    }
+
+    private ServiceRegistrationImpl getRegistration(final ServiceName name, final Map<ServiceName, ServiceRegistrationImpl> registrations, final List<ServiceRegistrationImpl> pinned) {
+        if (registrations != null) {
+            return registrations.get(name);
+        }
+        final ServiceRegistrationImpl registration = getOrCreateRegistration(name);
+        pinned.add(registration);
+        return registration;
+    }
+
+    /**
+     * Detects if installation of {@code instance} results in dependency cycles.  If it does not, {@code instance} is
+     * added to the dependency order of this container.
+     *
+     * @param instance                     the service being installed
+     * @throws CircularDependencyException if a dependency cycle involving {@code instance} is detected
+     */
+    private <T> void detectCircularity(ServiceControllerImpl<T> instance) throws CircularDependencyException {
+        final ServiceName[] cycle = dependencyOrder.add(instance);
+        if (cycle != null) {
+            throw new CircularDependencyException("Container " + name + " has a circular dependency: " + Arrays.asList(cycle), cycle);
+        }
     }
 
+    /**
+     * Remove a service from the dependency order of this container, once it is being removed.
+     *
+     * @param instance the service being removed
+     */
+    void removeFromDependencyOrder(ServiceControllerImpl<?> instance) {
+        dependencyOrder.remove(instance);
+    }
+
+    private static final ServiceRegistrationImpl[] NO_REGISTRATIONS = new ServiceRegistrationImpl[0];
+    private static final ValueInjection<?>[] NO_INJECTIONS = new ValueInjection<?>[0];
+
     private static final AtomicInteger executorSeq = new AtomicInteger(1);
     private static final Thread.UncaughtExceptionHandler HANDLER = new Thread.UncaughtExceptionHandler() {
         public void uncaughtException(final Thread t, final Throwable e) {
@@ -864,6 +1371,22 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         }
     };
     private static final ThreadPoolExecutor.CallerRunsPolicy POLICY = new ThreadPoolExecutor.CallerRunsPolicy();
+    private static final ThreadLocal<ServiceContainerImpl> CURRENT_CONTAINER = new ThreadLocal<ServiceContainerImpl>();
+
+    /**
+     * Get the container whose tasks are run by the given thread.  Threads of a caller-supplied executor are only
+     * associated with a container while they run one of its tasks, so they can only be identified when the given
+     * thread is the current thread.
+     *
+     * @param thread the thread
+     * @return the container, or {@code null} if the thread is not a service thread
+     */
+    static ServiceContainerImpl getContainer(final Thread thread) {
+        if (thread instanceof ServiceThread) {
+            return ((ServiceThread) thread).getContainer();
+        }
+        return thread == Thread.currentThread() ? CURRENT_CONTAINER.get() : null;
+    }
 
     static class ServiceThread extends Thread {
         private final ServiceContainerImpl container;
@@ -878,10 +1401,50 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         }
     }
 
-    final class ContainerExecutor extends ThreadPoolExecutor {
+    /**
+     * An executor for the tasks of this container.
+     */
+    interface TaskExecutor extends Executor {
+
+        /**
+         * Initiate the shutdown of this executor.  Once all submitted tasks have completed, the container shutdown
+         * is reported complete.
+         */
+        void shutdown();
+
+        /**
+         * Execute a list of tasks, in order.  The tasks are never run on the calling thread, which may hold registration
+         * or controller locks; tasks which are submitted after this executor is shut down are discarded, as the
+         * {@link ThreadPoolExecutor.CallerRunsPolicy policy} of the container thread pool does.
+         *
+         * @param tasks the tasks
+         */
+        void executeAll(List<Runnable> tasks);
+    }
+
+    /**
+     * Submit each task separately, discarding the ones which are rejected because the executor is shut down.
+     *
+     * @param executor the executor
+     * @param tasks the tasks
+     */
+    static void executeEach(final Executor executor, final List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // shut down
+            }
+        }
+    }
+
+    final class ContainerExecutor extends ThreadPoolExecutor implements TaskExecutor {
+        private final boolean prioritized;
+        private final AtomicLong taskSeq;
+        private volatile boolean poolStarted;
 
-        ContainerExecutor(final int corePoolSize, final int maximumPoolSize, final long keepAliveTime, final TimeUnit unit) {
-            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        ContainerExecutor(final int corePoolSize, final int maximumPoolSize, final long keepAliveTime, final TimeUnit unit, final boolean prioritized) {
+            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, prioritized ? new PriorityBlockingQueue<Runnable>() : new TaskQueue(), new ThreadFactory() {
                 private final int id = executorSeq.getAndIncrement();
                 private final AtomicInteger threadSeq = new AtomicInteger(1);
                 public Thread newThread(final Runnable r) {
@@ -891,6 +1454,38 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
                     return thread;
                 }
             }, POLICY);
+            this.prioritized = prioritized;
+            taskSeq = prioritized ? new AtomicLong() : null;
+        }
+
+        public void execute(final Runnable command) {
+            super.execute(prioritized ? new PrioritizedTask(command, ServiceControllerImpl.getStartRank(command), taskSeq.getAndIncrement()) : command);
+        }
+
+        public void executeAll(final List<Runnable> tasks) {
+            if (prioritized || tasks.size() == 1 || ! isPoolStarted()) {
+                // until all core threads exist, each submission may need to start one
+                executeEach(this, tasks);
+                return;
+            }
+            final TaskQueue queue = (TaskQueue) getQueue();
+            queue.offerAll(tasks);
+            if (isShutdown()) {
+                // same as a rejected execute
+                for (Runnable task : tasks) {
+                    if (queue.remove(task)) {
+                        getRejectedExecutionHandler().rejectedExecution(task, this);
+                    }
+                }
+            }
+        }
+
+        private boolean isPoolStarted() {
+            if (poolStarted) {
+                return true;
+            }
+            // core threads never time out, so once started the pool stays at its core size
+            return poolStarted = getPoolSize() >= getCorePoolSize();
         }
 
         protected void afterExecute(final Runnable r, final Throwable t) {
@@ -901,7 +1496,639 @@ final class ServiceContainerImpl extends ServiceTargetImpl implements ServiceCon
         }
 
         protected void terminated() {
-            shutdownComplete(shutdownInitiated);
+            executorTerminated();
+        }
+    }
+
+    /**
+     * Create an executor which runs each task on a new virtual thread.  Virtual threads are only available on Java 21
+     * and later, so the executor is created reflectively.
+     *
+     * @param containerName the container name, for logging
+     * @return the executor, or {@code null} if virtual threads are not supported
+     */
+    private static ExecutorService createVirtualThreadExecutor(final String containerName) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            ServiceLogger.ROOT.virtualThreadsUnsupported(containerName);
+            return null;
+        }
+    }
+
+    /**
+     * Runs service start and stop tasks on a separate executor, and all other tasks on the task executor.
+     */
+    static final class LifecycleTaskExecutor implements TaskExecutor {
+        private final TaskExecutor taskExecutor;
+        private final TaskExecutor lifecycleExecutor;
+
+        LifecycleTaskExecutor(final TaskExecutor taskExecutor, final TaskExecutor lifecycleExecutor) {
+            this.taskExecutor = taskExecutor;
+            this.lifecycleExecutor = lifecycleExecutor;
+        }
+
+        public void execute(final Runnable command) {
+            if (ServiceControllerImpl.isLifecycleTask(command)) {
+                lifecycleExecutor.execute(command);
+            } else {
+                taskExecutor.execute(command);
+            }
+        }
+
+        public void shutdown() {
+            taskExecutor.shutdown();
+            lifecycleExecutor.shutdown();
+        }
+
+        public void executeAll(final List<Runnable> tasks) {
+            List<Runnable> lifecycleTasks = null;
+            List<Runnable> otherTasks = null;
+            for (Runnable task : tasks) {
+                if (ServiceControllerImpl.isLifecycleTask(task)) {
+                    if (lifecycleTasks == null) lifecycleTasks = new ArrayList<Runnable>(tasks.size());
+                    lifecycleTasks.add(task);
+                } else {
+                    if (otherTasks == null) otherTasks = new ArrayList<Runnable>(tasks.size());
+                    otherTasks.add(task);
+                }
+            }
+            if (otherTasks != null) taskExecutor.executeAll(otherTasks);
+            if (lifecycleTasks != null) lifecycleExecutor.executeAll(lifecycleTasks);
+        }
+    }
+
+    /**
+     * A task queued in prioritized order.  Start tasks are run after all other tasks, the highest ranked first; other
+     * tasks, and start tasks of the same rank, are run in submission order.
+     */
+    static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable task;
+        private final ServiceControllerImpl.StartRank rank;
+        private final long seq;
+
+        PrioritizedTask(final Runnable task, final ServiceControllerImpl.StartRank rank, final long seq) {
+            this.task = task;
+            this.rank = rank;
+            this.seq = seq;
+        }
+
+        public void run() {
+            task.run();
+        }
+
+        public int compareTo(final PrioritizedTask other) {
+            if (rank != other.rank) {
+                if (rank == null) {
+                    return -1;
+                }
+                if (other.rank == null) {
+                    return 1;
+                }
+                final int res = other.rank.compareTo(rank);
+                if (res != 0) {
+                    return res;
+                }
+            }
+            return seq < other.seq ? -1 : seq == other.seq ? 0 : 1;
+        }
+    }
+
+    /**
+     * Runs the tasks of this container on a caller-supplied executor.  The executor is not owned by this container, so
+     * it is never shut down; instead, the container shutdown is complete as soon as the last outstanding task is done.
+     * <p>
+     * The tasks are often submitted while registration or controller locks are held, so they are never run on the
+     * submitting thread.  A task which the executor rejects, for instance because its queue is bounded and full, is
+     * parked instead, and parked tasks are submitted again in order whenever a task of this container completes, and
+     * otherwise from the timer thread one tick later.
+     */
+    class ExternalExecutor implements TaskExecutor {
+        private final Executor delegate;
+        // one extra count is held until shutdown, so that the count can only drop to zero after shutdown
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final AtomicBoolean shutdown = new AtomicBoolean();
+        /**
+         * The tasks which were rejected by the executor, in submission order.  Guarded by itself.
+         */
+        private final ArrayDeque<ServiceTask> parked = new ArrayDeque<ServiceTask>();
+        private final AtomicBoolean retryScheduled = new AtomicBoolean();
+
+        ExternalExecutor(final Executor delegate) {
+            this.delegate = delegate;
+        }
+
+        public void execute(final Runnable command) {
+            int old;
+            do {
+                old = outstanding.get();
+                if (old == 0) {
+                    throw new RejectedExecutionException("Container executor is terminated");
+                }
+            } while (! outstanding.compareAndSet(old, old + 1));
+            final ServiceTask task = new ServiceTask(command);
+            boolean ok = false;
+            try {
+                if (! hasParkedTasks() && submit(task)) {
+                    ok = true;
+                    return;
+                }
+                synchronized (parked) {
+                    parked.addLast(task);
+                }
+                ok = true;
+            } finally {
+                if (! ok) {
+                    taskDone();
+                }
+            }
+            submitParked();
+        }
+
+        private boolean hasParkedTasks() {
+            synchronized (parked) {
+                return ! parked.isEmpty();
+            }
+        }
+
+        /**
+         * Submit a task to the executor.
+         *
+         * @param task the task
+         * @return {@code true} if it was accepted, or {@code false} if it was rejected
+         */
+        private boolean submit(final ServiceTask task) {
+            try {
+                delegate.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Submit the parked tasks again, until the executor rejects one, in which case a retry is scheduled.
+         */
+        private void submitParked() {
+            for (;;) {
+                final ServiceTask task;
+                synchronized (parked) {
+                    task = parked.pollFirst();
+                }
+                if (task == null) {
+                    return;
+                }
+                if (! submit(task)) {
+                    synchronized (parked) {
+                        parked.addFirst(task);
+                    }
+                    scheduleRetry();
+                    return;
+                }
+            }
+        }
+
+        private void scheduleRetry() {
+            if (retryScheduled.compareAndSet(false, true)) try {
+                timerWheel.schedule(new Runnable() {
+                    public void run() {
+                        retryScheduled.set(false);
+                        submitParked();
+                    }
+                }, 0L, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                // the timer is shut down; the parked tasks are submitted again once a running task completes
+                retryScheduled.set(false);
+            }
+        }
+
+        public void shutdown() {
+            if (shutdown.compareAndSet(false, true)) {
+                taskDone();
+            }
+        }
+
+        public void executeAll(final List<Runnable> tasks) {
+            executeEach(this, tasks);
+        }
+
+        private void taskDone() {
+            if (outstanding.decrementAndGet() == 0) {
+                executorTerminated();
+            }
+        }
+
+        private final class ServiceTask implements Runnable {
+            private final Runnable command;
+
+            ServiceTask(final Runnable command) {
+                this.command = command;
+            }
+
+            public void run() {
+                final ServiceContainerImpl old = CURRENT_CONTAINER.get();
+                CURRENT_CONTAINER.set(ServiceContainerImpl.this);
+                try {
+                    command.run();
+                } catch (Throwable t) {
+                    HANDLER.uncaughtException(Thread.currentThread(), t);
+                } finally {
+                    if (old == null) {
+                        CURRENT_CONTAINER.remove();
+                    } else {
+                        CURRENT_CONTAINER.set(old);
+                    }
+                    taskDone();
+                }
+                if (hasParkedTasks()) {
+                    // the executor has room for at least this task again
+                    submitParked();
+                }
+            }
+        }
+    }
+
+    /**
+     * Confines the start and stop work of the services installed through a target, either to a dedicated executor,
+     * or to a bounded number of concurrently running tasks, or both.  Tasks in excess of the limit wait in a queue
+     * and are submitted as running ones complete.  A target keeps a single bulkhead, which is updated in place when
+     * the executor or the limit of the target changes, so that all of its services share the same limit.
+     */
+    final class Bulkhead implements Executor {
+        private volatile TaskExecutor executor;
+        private volatile int limit;
+        /**
+         * The caller-supplied executor which {@link #executor} runs tasks on, guarded by this bulkhead.
+         */
+        private Executor delegate;
+        private final AtomicInteger running = new AtomicInteger();
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+
+        Bulkhead() {
+        }
+
+        /**
+         * Change the executor and the limit of this bulkhead.  Tasks which are already running are not affected.
+         *
+         * @param executor the executor for service start and stop work, or {@code null} to use the container's executor
+         * @param limit the maximum number of concurrently running starts and stops, or {@code 0} for no limit
+         * @throws IllegalStateException if a new executor is given and the container is shut down
+         */
+        synchronized void update(final Executor executor, final int limit) throws IllegalStateException {
+            if (executor != delegate) {
+                this.executor = replaceBulkheadExecutor(this.executor, executor);
+                delegate = executor;
+            }
+            this.limit = limit;
+            // a raised or removed limit may admit queued tasks
+            drain();
+        }
+
+        /**
+         * Get the dedicated executor of this bulkhead.
+         *
+         * @return the executor, or {@code null} if service work runs on the container's executor
+         */
+        Executor getExecutor() {
+            return executor;
+        }
+
+        public void execute(final Runnable command) {
+            if (limit == 0 && pending.isEmpty()) {
+                submit(command);
+                return;
+            }
+            pending.add(command);
+            drain();
+        }
+
+        private Executor getTargetExecutor() {
+            final Executor executor = this.executor;
+            if (executor != null) {
+                return executor;
+            }
+            return lifecycleExecutor != null ? lifecycleExecutor : ServiceContainerImpl.this.executor;
+        }
+
+        private void drain() {
+            for (;;) {
+                final int current = running.get();
+                final int limit = this.limit;
+                if (limit != 0 && current >= limit) {
+                    return;
+                }
+                if (! running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                final Runnable command = pending.poll();
+                if (command == null) {
+                    running.decrementAndGet();
+                    // a task may have been queued after the poll but before the permit was given back
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                if (! submit(new LimitedTask(command))) {
+                    running.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Submit a task to the executor of this bulkhead.  The task is never run on the calling thread: if a dedicated
+         * executor was replaced concurrently and rejects it, it goes to the current executor instead, and if it is
+         * rejected because the container is shut down, it is discarded.
+         *
+         * @param task the task
+         * @return {@code true} if the task was accepted, {@code false} if it was discarded
+         */
+        private boolean submit(final Runnable task) {
+            for (;;) {
+                final Executor target = getTargetExecutor();
+                try {
+                    target.execute(task);
+                    return true;
+                } catch (RejectedExecutionException e) {
+                    if (target == getTargetExecutor()) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Give back a permit, and submit the next queued task, if any.
+         */
+        void release() {
+            running.decrementAndGet();
+            drain();
+        }
+
+        /**
+         * A task which holds a permit of the bulkhead while it runs, and, if the service starts or stops
+         * asynchronously, until its start or stop completes.  The wrapped task is exposed, so that a start task is
+         * still recognized as such by the executors it is submitted to.
+         */
+        final class LimitedTask implements Runnable {
+            private final Runnable task;
+
+            LimitedTask(final Runnable task) {
+                this.task = task;
+            }
+
+            Runnable getTask() {
+                return task;
+            }
+
+            public void run() {
+                boolean kept = false;
+                try {
+                    kept = ServiceControllerImpl.runLifecycleTask(task, Bulkhead.this);
+                } finally {
+                    if (! kept) {
+                        release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks of this container on a fixed set of service threads, each of which has its own task queue.  A task
+     * submitted from one of these threads goes to the queue of that thread, so that a cascade of dependency
+     * notifications tends to stay on the thread which started it; tasks submitted from any other thread go to a shared
+     * submission queue.  A thread which runs out of tasks takes them from the submission queue, or else steals them
+     * from the queues of the other threads.
+     */
+    final class WorkStealingExecutor implements TaskExecutor {
+        private final int id = executorSeq.getAndIncrement();
+        private final AtomicReferenceArray<Worker> workers;
+        private final AtomicInteger startedWorkers = new AtomicInteger();
+        // one extra count is held until shutdown, so that the count can only drop to zero after shutdown
+        private final AtomicInteger liveWorkers = new AtomicInteger(1);
+        private final AtomicBoolean shutdown = new AtomicBoolean();
+        private final Queue<Runnable> submissions = new ConcurrentLinkedQueue<Runnable>();
+        private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<Worker>();
+
+        WorkStealingExecutor(final int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("size must be greater than zero");
+            }
+            workers = new AtomicReferenceArray<Worker>(size);
+        }
+
+        public void execute(final Runnable command) {
+            if (command == null) {
+                throw new IllegalArgumentException("command is null");
+            }
+            final Thread thread = Thread.currentThread();
+            if (thread instanceof WorkerThread && ((WorkerThread) thread).worker.getExecutor() == this) {
+                // the current worker keeps running until its own queue is empty, even after shutdown
+                ((WorkerThread) thread).worker.push(command);
+                return;
+            }
+            if (shutdown.get()) {
+                throw new RejectedExecutionException("Container executor is shut down");
+            }
+            submissions.add(command);
+            if (! startWorker()) {
+                signalWork();
+            }
+            if (shutdown.get() && submissions.remove(command)) {
+                // the workers may all have exited already
+                throw new RejectedExecutionException("Container executor is shut down");
+            }
+        }
+
+        public void executeAll(final List<Runnable> tasks) {
+            final Thread thread = Thread.currentThread();
+            if (thread instanceof WorkerThread && ((WorkerThread) thread).worker.getExecutor() == this) {
+                ((WorkerThread) thread).worker.pushAll(tasks);
+                return;
+            }
+            if (shutdown.get()) {
+                return;
+            }
+            submissions.addAll(tasks);
+            if (! startWorker()) {
+                signalWork();
+            }
+            if (shutdown.get()) {
+                // the workers may all have exited already
+                submissions.removeAll(tasks);
+            }
+        }
+
+        public void shutdown() {
+            if (shutdown.compareAndSet(false, true)) {
+                for (int i = 0; i < workers.length(); i ++) {
+                    final Worker worker = workers.get(i);
+                    if (worker != null) {
+                        LockSupport.unpark(worker.thread);
+                    }
+                }
+                workerDone();
+            }
+        }
+
+        private boolean startWorker() {
+            int idx;
+            do {
+                idx = startedWorkers.get();
+                if (idx == workers.length()) {
+                    return false;
+                }
+            } while (! startedWorkers.compareAndSet(idx, idx + 1));
+            int live;
+            do {
+                live = liveWorkers.get();
+                if (live == 0) {
+                    return false;
+                }
+            } while (! liveWorkers.compareAndSet(live, live + 1));
+            final Worker worker = new Worker(idx);
+            workers.set(idx, worker);
+            worker.thread.start();
+            return true;
+        }
+
+        private void workerDone() {
+            if (liveWorkers.decrementAndGet() == 0) {
+                executorTerminated();
+            }
+        }
+
+        private void signalWork() {
+            final Worker worker = idleWorkers.poll();
+            if (worker != null) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+
+        private Runnable steal(final int thiefIdx) {
+            final int size = startedWorkers.get();
+            for (int i = 1; i < size; i ++) {
+                final Worker victim = workers.get((thiefIdx + i) % size);
+                if (victim != null) {
+                    final Runnable task = victim.steal();
+                    if (task != null) {
+                        return task;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private final class Worker implements Runnable {
+            private final int idx;
+            private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+            private final WorkerThread thread;
+
+            Worker(final int idx) {
+                this.idx = idx;
+                thread = new WorkerThread(this, ServiceContainerImpl.this);
+                thread.setName(String.format("MSC service thread %d-%d", Integer.valueOf(id), Integer.valueOf(idx + 1)));
+                thread.setUncaughtExceptionHandler(HANDLER);
+            }
+
+            WorkStealingExecutor getExecutor() {
+                return WorkStealingExecutor.this;
+            }
+
+            void push(final Runnable task) {
+                synchronized (queue) {
+                    queue.addLast(task);
+                }
+                if (! startWorker() && ! idleWorkers.isEmpty()) {
+                    signalWork();
+                }
+            }
+
+            void pushAll(final List<Runnable> tasks) {
+                synchronized (queue) {
+                    queue.addAll(tasks);
+                }
+                if (! startWorker() && ! idleWorkers.isEmpty()) {
+                    signalWork();
+                }
+            }
+
+            Runnable steal() {
+                final Runnable task;
+                final boolean more;
+                synchronized (queue) {
+                    task = queue.pollLast();
+                    more = ! queue.isEmpty();
+                }
+                if (more && ! idleWorkers.isEmpty()) {
+                    // pass the remaining work on to the next idle worker
+                    signalWork();
+                }
+                return task;
+            }
+
+            private Runnable poll() {
+                synchronized (queue) {
+                    return queue.pollFirst();
+                }
+            }
+
+            private Runnable findTask() {
+                Runnable task = poll();
+                if (task == null) {
+                    task = submissions.poll();
+                    if (task != null) {
+                        if (! submissions.isEmpty()) {
+                            signalWork();
+                        }
+                    } else {
+                        task = WorkStealingExecutor.this.steal(idx);
+                    }
+                }
+                return task;
+            }
+
+            public void run() {
+                try {
+                    for (;;) {
+                        Runnable task = findTask();
+                        if (task == null) {
+                            // register as idle before looking again, so that a concurrent submission cannot be missed
+                            idleWorkers.add(this);
+                            task = findTask();
+                            if (task == null) {
+                                if (shutdown.get()) {
+                                    idleWorkers.remove(this);
+                                    return;
+                                }
+                                LockSupport.park(this);
+                                idleWorkers.remove(this);
+                                continue;
+                            }
+                            idleWorkers.remove(this);
+                        }
+                        // clear any interrupt left over from the previous task
+                        Thread.interrupted();
+                        try {
+                            task.run();
+                        } catch (Throwable t) {
+                            HANDLER.uncaughtException(thread, t);
+                        }
+                    }
+                } finally {
+                    workerDone();
+                }
+            }
+        }
+    }
+
+    static final class WorkerThread extends ServiceThread {
+        private final WorkStealingExecutor.Worker worker;
+
+        WorkerThread(final WorkStealingExecutor.Worker worker, final ServiceContainerImpl container) {
+            super(worker, container);
+            this.worker = worker;
         }
     }
 }
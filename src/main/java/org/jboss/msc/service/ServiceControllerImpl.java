@@ -27,15 +27,18 @@ import static java.lang.Thread.holdsLock;
 import java.io.IOException;
 import java.io.Writer;
 import java.security.AccessController;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import org.jboss.msc.service.management.ServiceStatus;
 import org.jboss.msc.value.Value;
 
@@ -69,13 +72,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      */
     private final ValueInjection<?>[] outInjections;
     /**
-     * The set of registered service listeners.
+     * The set of registered service listeners, or {@code null} if none were added.
      */
-    private final IdentityHashSet<ServiceListener<? super S>> listeners;
+    private IdentityHashSet<ServiceListener<? super S>> listeners;
     /**
-     * The set of registered stability monitors.
+     * The set of registered stability monitors, or {@code null} if none were added.
      */
-    private final IdentityHashSet<StabilityMonitor> monitors;
+    private IdentityHashSet<StabilityMonitor> monitors;
     /**
      * The primary registration of this service.
      */
@@ -89,48 +92,73 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      */
     private final ServiceControllerImpl<?> parent;
     /**
-     * The children of this service (only valid during {@link State#UP}).
+     * The bulkhead confining the start and stop work of this service, or {@code null} if there is none.
      */
-    private final IdentityHashSet<ServiceControllerImpl<?>> children;
+    private final ServiceContainerImpl.Bulkhead bulkhead;
     /**
-     * The immediate unavailable dependencies of this service.
+     * The start and stop timeouts in nanoseconds, or {@code 0} for none.
      */
-    private final IdentityHashSet<ServiceName> immediateUnavailableDependencies;
+    private final long startTimeout, stopTimeout;
+    /**
+     * The children of this service (only valid during {@link State#UP}), in the first {@link #childCount} slots.  The
+     * array grows by doubling, and a removed child is replaced by the last one.  Guarded by this controller.
+     */
+    private ServiceControllerImpl<?>[] children = NO_CONTROLLERS;
+    /**
+     * The number of children of this service.
+     */
+    private int childCount;
+    /**
+     * A compact copy of the children of this service, which is shared with transition tasks and never modified, or
+     * {@code null} if the children changed since it was made.  Guarded by this controller.
+     */
+    private ServiceControllerImpl<?>[] childrenSnapshot = NO_CONTROLLERS;
+    /**
+     * The slot of this service in the children array of its parent.  Guarded by the parent.
+     */
+    private int childIndex = -1;
+    /**
+     * The immediate unavailable dependencies of this service, or {@code null} if there are none.
+     */
+    private IdentityHashSet<ServiceName> immediateUnavailableDependencies;
     /**
      * The start exception.
      */
     private StartException startException;
     /**
-     * The controller mode.
+     * Indicates whether the start failed because it timed out.
      */
-    private ServiceController.Mode mode = ServiceController.Mode.NEVER;
+    private boolean startTimedOut;
     /**
-     * The controller state.
+     * Indicates whether the stop timed out and has not completed yet.  The controller stays in {@code STOPPING} until
+     * the stop completes, but it no longer counts as unstable.
      */
-    private Substate state = Substate.NEW;
+    private boolean stopTimedOut;
     /**
-     * The number of registrations which place a demand-to-start on this
-     * instance. If this value is >0, propagate a demand up to all parent
-     * dependents. If this value is >0 and mode is ON_DEMAND, we should start.
+     * The controller status, which packs the substate, the mode, and the counters which are updated by notifications
+     * from dependencies and dependents.  A notification which takes none of these counters to or from zero cannot
+     * change the transition to take, so it is applied with a compare-and-set, without taking the controller lock.
+     * The substate and the mode, and counter updates to or from zero, are only made under the controller lock.
+     * <p>
+     * The counters are:
+     * <ul>
+     *   <li>the demanded-by count: the number of registrations which place a demand-to-start on this instance. If this
+     *   value is >0, propagate a demand up to all parent dependents. If this value is >0 and mode is ON_DEMAND, we
+     *   should start.</li>
+     *   <li>the stopping dependencies: count for dependencies that are trying to stop.  If this count is greater than
+     *   zero then dependents will be notified that a stop is necessary.</li>
+     *   <li>the running dependents: the number of dependents that are currently running. The deployment will not
+     *   execute the {@code stop()} method (and subsequently leave the
+     *   {@link org.jboss.msc.service.ServiceController.State#STOPPING} state) until all running dependents (and
+     *   listeners) are stopped.</li>
+     * </ul>
      */
-    private int demandedByCount;
+    private volatile long status;
     /**
      * The number of dependencies which are not yet started.  This service cannot start until
      * this count reaches zero.
      */
     private int unstartedDependencies;
-    /**
-     * Count for dependencies that are trying to stop.  If this count is greater than zero then
-     * dependents will be notified that a stop is necessary.
-     */
-    private int stoppingDependencies;
-    /**
-     * The number of dependents that are currently running. The deployment will
-     * not execute the {@code stop()} method (and subsequently leave the
-     * {@link org.jboss.msc.service.ServiceController.State#STOPPING} state)
-     * until all running dependents (and listeners) are stopped.
-     */
-    private int runningDependents;
     /**
      * Count for failure notification. It indicates how many services have
      * failed to start and are not recovered so far. This count monitors
@@ -175,14 +203,50 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      */
     @SuppressWarnings("VolatileLongOrDoubleField")
     private volatile long lifecycleTime;
+    /**
+     * The start rank of this service, or {@code null} if it was not computed since the dependents of this service or
+     * of one of its transitive dependents last changed.
+     */
+    private volatile StartRank startRank;
+    /**
+     * The id of this service in the container's {@link DependencyOrder}, or {@code -1} if it is not in the order.
+     * Guarded by the dependency order.
+     */
+    private int dependencyOrderId = -1;
+    /**
+     * The neighbours of this service in its stripe of the container's {@link ServiceStateIndex} group of its substate.
+     * Guarded by the stripe.
+     */
+    private ServiceControllerImpl<?> previousInState, nextInState;
 
-    private static final Dependent[] NO_DEPENDENTS = new Dependent[0];
     private static final ServiceControllerImpl<?>[] NO_CONTROLLERS = new ServiceControllerImpl<?>[0];
     private static final String[] NO_STRINGS = new String[0];
 
     static final int MAX_DEPENDENCIES = (1 << 14) - 1;
 
-    ServiceControllerImpl(final Value<? extends Service<S>> serviceValue, final Dependency[] dependencies, final ValueInjection<?>[] injections, final ValueInjection<?>[] outInjections, final ServiceRegistrationImpl primaryRegistration, final ServiceRegistrationImpl[] aliasRegistrations, final Set<StabilityMonitor> monitors, final Set<? extends ServiceListener<? super S>> listeners, final ServiceControllerImpl<?> parent) {
+    /**
+     * The maximum number of services visited when computing a start rank.
+     */
+    private static final int MAX_RANK_VISITS = 1024;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<ServiceControllerImpl> statusUpdater = AtomicLongFieldUpdater.newUpdater(ServiceControllerImpl.class, "status");
+
+    private static final Substate[] SUBSTATES = Substate.values();
+    private static final Mode[] MODES = Mode.values();
+
+    // status layout, from the lowest bit: substate (4 bits), mode (3 bits), stopping dependencies (15 bits),
+    // running dependents (21 bits), demanded-by count (21 bits); the counters are identified by their shift
+    private static final long SUBSTATE_MASK = 0xfL;
+    private static final int MODE_SHIFT = 4;
+    private static final long MODE_MASK = 0x7L << MODE_SHIFT;
+    private static final int STOPPING_DEPENDENCIES = 7;
+    private static final int RUNNING_DEPENDENTS = 22;
+    private static final int DEMANDED_BY_COUNT = 43;
+    private static final long STOPPING_DEPENDENCIES_MASK = (1L << 15) - 1L;
+    private static final long DEPENDENTS_MASK = (1L << 21) - 1L;
+
+    ServiceControllerImpl(final Value<? extends Service<S>> serviceValue, final Dependency[] dependencies, final ValueInjection<?>[] injections, final ValueInjection<?>[] outInjections, final ServiceRegistrationImpl primaryRegistration, final ServiceRegistrationImpl[] aliasRegistrations, final Set<StabilityMonitor> monitors, final Set<? extends ServiceListener<? super S>> listeners, final ServiceControllerImpl<?> parent, final ServiceContainerImpl.Bulkhead bulkhead, final long startTimeout, final long stopTimeout) {
         assert dependencies.length <= MAX_DEPENDENCIES;
         this.serviceValue = serviceValue;
         this.dependencies = dependencies;
@@ -190,8 +254,8 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         this.outInjections = outInjections;
         this.primaryRegistration = primaryRegistration;
         this.aliasRegistrations = aliasRegistrations;
-        this.listeners = new IdentityHashSet<ServiceListener<? super S>>(listeners);
-        this.monitors = new IdentityHashSet<StabilityMonitor>(monitors);
+        this.listeners = listeners.isEmpty() ? null : new IdentityHashSet<ServiceListener<? super S>>(listeners);
+        this.monitors = monitors.isEmpty() ? null : new IdentityHashSet<StabilityMonitor>(monitors);
         // We also need to register this controller with monitors explicitly.
         // This allows inherited monitors to have registered all child controllers
         // and later to remove them when inherited stability monitor is cleared.
@@ -199,15 +263,104 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             monitor.addControllerNoCallback(this);
         }
         this.parent = parent;
+        this.bulkhead = bulkhead;
+        this.startTimeout = startTimeout;
+        this.stopTimeout = stopTimeout;
         int depCount = dependencies.length;
         unstartedDependencies = 0;
-        stoppingDependencies = parent == null? depCount : depCount + 1;
-        children = new IdentityHashSet<ServiceControllerImpl<?>>();
-        immediateUnavailableDependencies = new IdentityHashSet<ServiceName>();
+        final long stoppingDependencies = parent == null? depCount : depCount + 1;
+        status = Substate.NEW.ordinal() | (long) Mode.NEVER.ordinal() << MODE_SHIFT | stoppingDependencies << STOPPING_DEPENDENCIES;
+    }
+
+    ServiceContainerImpl.Bulkhead getBulkhead() {
+        return bulkhead;
     }
 
     Substate getSubstateLocked() {
-        return state;
+        return substateOf(status);
+    }
+
+    private static Substate substateOf(final long status) {
+        return SUBSTATES[(int) (status & SUBSTATE_MASK)];
+    }
+
+    private static Mode modeOf(final long status) {
+        return MODES[(int) ((status & MODE_MASK) >>> MODE_SHIFT)];
+    }
+
+    private static int countOf(final long status, final int counter) {
+        return (int) ((status >>> counter) & maskOf(counter));
+    }
+
+    private static long maskOf(final int counter) {
+        return counter == STOPPING_DEPENDENCIES ? STOPPING_DEPENDENCIES_MASK : DEPENDENTS_MASK;
+    }
+
+    private void setSubstate(final Substate newState) {
+        assert holdsLock(this);
+        long oldVal, newVal;
+        do {
+            oldVal = status;
+            newVal = oldVal & ~SUBSTATE_MASK | newState.ordinal();
+        } while (! statusUpdater.compareAndSet(this, oldVal, newVal));
+        primaryRegistration.getContainer().getServiceStateIndex().move(this, substateOf(oldVal), newState);
+    }
+
+    private void setModeLocked(final Mode newMode) {
+        assert holdsLock(this);
+        long oldVal, newVal;
+        do {
+            oldVal = status;
+            newVal = oldVal & ~MODE_MASK | (long) newMode.ordinal() << MODE_SHIFT;
+        } while (! statusUpdater.compareAndSet(this, oldVal, newVal));
+    }
+
+    /**
+     * Add to a counter.  Call under lock.
+     *
+     * @param counter the counter
+     * @param delta the amount to add
+     * @return the new value of the counter
+     */
+    private int addToCount(final int counter, final int delta) {
+        assert holdsLock(this);
+        long oldVal;
+        int count;
+        do {
+            oldVal = status;
+            count = countOf(oldVal, counter) + delta;
+            checkCount(counter, count);
+        } while (! statusUpdater.compareAndSet(this, oldVal, oldVal + ((long) delta << counter)));
+        return count;
+    }
+
+    /**
+     * Add to a counter without taking the lock, unless the counter would go from or to zero.
+     *
+     * @param counter the counter
+     * @param delta the amount to add
+     * @return {@code true} if the counter was updated, {@code false} if the update must be made under lock
+     */
+    private boolean addToCountUnlocked(final int counter, final int delta) {
+        long oldVal;
+        int count;
+        do {
+            oldVal = status;
+            final int oldCount = countOf(oldVal, counter);
+            count = oldCount + delta;
+            if (oldCount == 0 || count <= 0) {
+                return false;
+            }
+            checkCount(counter, count);
+        } while (! statusUpdater.compareAndSet(this, oldVal, oldVal + ((long) delta << counter)));
+        return true;
+    }
+
+    private static void checkCount(final int counter, final int count) {
+        assert count >= 0;
+        if (count > maskOf(counter)) {
+            throw new IllegalStateException("Too many dependents");
+        }
     }
 
     void addAsyncTasks(final int size) {
@@ -226,6 +379,9 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      * installation is {@link #commitInstallation(org.jboss.msc.service.ServiceController.Mode) committed}.
      */
     void startInstallation() {
+        synchronized (this) {
+            primaryRegistration.getContainer().getServiceStateIndex().add(this, getSubstateLocked());
+        }
         for (Dependency dependency : dependencies) {
             dependency.addDependent(this);
         }
@@ -245,7 +401,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      * @param initialMode the initial service mode
      */
     void commitInstallation(Mode initialMode) {
-        assert (state == Substate.NEW);
+        assert (getSubstateLocked() == Substate.NEW);
         assert initialMode != null;
         assert !holdsLock(this);
         final ArrayList<Runnable> listenerAddedTasks = new ArrayList<Runnable>(16);
@@ -266,14 +422,17 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         }
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            for (Map.Entry<ServiceName, Dependent[]> dependentEntry : getDependentsByDependencyName().entrySet()) {
-                ServiceName serviceName = dependentEntry.getKey();
-                for (Dependent dependent : dependentEntry.getValue()) {
-                    if (dependent != null) dependent.immediateDependencyAvailable(serviceName);
+            // children are not notified here
+            for (Dependent dependent : primaryRegistration.getDependentsSnapshot()) {
+                dependent.immediateDependencyAvailable(primaryRegistration.getName());
+            }
+            for (ServiceRegistrationImpl aliasRegistration : aliasRegistrations) {
+                for (Dependent dependent : aliasRegistration.getDependentsSnapshot()) {
+                    dependent.immediateDependencyAvailable(aliasRegistration.getName());
                 }
             }
             Dependent[][] dependents = getDependents();
-            if (!immediateUnavailableDependencies.isEmpty() || transitiveUnavailableDepCount > 0) {
+            if (immediateUnavailableDependencies != null || transitiveUnavailableDepCount > 0) {
                 for (Dependent[] dependentArray : dependents) {
                     for (Dependent dependent : dependentArray) {
                         if (dependent != null) {
@@ -285,7 +444,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             if (failCount > 0) {
                 tasks.add(new DependencyFailedTask(dependents, false));
             }
-            state = Substate.DOWN;
+            setSubstate(Substate.DOWN);
             // subtract one to compensate for +1 above
             asyncTasks--;
             transition(tasks);
@@ -301,9 +460,9 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     void rollbackInstallation() {
         synchronized(this) {
             final boolean leavingRestState = isStableRestState();
-            mode = Mode.REMOVE;
+            setModeLocked(Mode.REMOVE);
             asyncTasks ++;
-            state = Substate.CANCELLED;
+            setSubstate(Substate.CANCELLED);
             updateStabilityState(leavingRestState);
         }
         (new RemoveTask()).run();
@@ -317,7 +476,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     boolean isInstallationCommitted() {
         assert holdsLock(this);
         // should not be NEW nor CANCELLED
-        return state.compareTo(Substate.CANCELLED) > 0;
+        return getSubstateLocked().compareTo(Substate.CANCELLED) > 0;
     }
 
     /**
@@ -327,6 +486,9 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      */
     private boolean shouldStart() {
         assert holdsLock(this);
+        final long status = this.status;
+        final Mode mode = modeOf(status);
+        final int demandedByCount = countOf(status, DEMANDED_BY_COUNT);
         return unstartedDependencies == 0 && (mode == Mode.ACTIVE || mode == Mode.PASSIVE || demandedByCount > 0 && (mode == Mode.ON_DEMAND || mode == Mode.LAZY));
     }
 
@@ -337,6 +499,9 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      */
     private boolean shouldStop() {
         assert holdsLock(this);
+        final long status = this.status;
+        final Mode mode = modeOf(status);
+        final int demandedByCount = countOf(status, DEMANDED_BY_COUNT);
         return unstartedDependencies > 0 || (mode == Mode.NEVER || mode == Mode.REMOVE || demandedByCount == 0 && mode == Mode.ON_DEMAND);
     }
 
@@ -346,24 +511,28 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      */
     boolean isStableRestState() {
         assert holdsLock(this);
-        return asyncTasks == 0 && state.isRestState();
+        return asyncTasks == 0 && (stopTimedOut || getSubstateLocked().isRestState());
     }
 
     void updateStabilityState(final boolean leavingStableRestState) {
         assert holdsLock(this);
-        final boolean enteringStableRestState = state.isRestState() && asyncTasks == 0;
+        final boolean enteringStableRestState = isStableRestState();
         if (leavingStableRestState) {
             if (!enteringStableRestState) {
                 primaryRegistration.getContainer().incrementUnstableServices();
-                for (StabilityMonitor monitor : monitors) {
-                    monitor.incrementUnstableServices();
+                if (monitors != null) {
+                    for (StabilityMonitor monitor : monitors) {
+                        monitor.incrementUnstableServices();
+                    }
                 }
             }
         } else {
             if (enteringStableRestState) {
                 primaryRegistration.getContainer().decrementUnstableServices();
-                for (StabilityMonitor monitor : monitors) {
-                    monitor.decrementUnstableServices();
+                if (monitors != null) {
+                    for (StabilityMonitor monitor : monitors) {
+                        monitor.decrementUnstableServices(primaryRegistration.getContainer());
+                    }
                 }
             }
         }
@@ -377,7 +546,12 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
      */
     private Transition getTransition() {
         assert holdsLock(this);
-        switch (state) {
+        final long status = this.status;
+        final Mode mode = modeOf(status);
+        final int demandedByCount = countOf(status, DEMANDED_BY_COUNT);
+        final int stoppingDependencies = countOf(status, STOPPING_DEPENDENCIES);
+        final int runningDependents = countOf(status, RUNNING_DEPENDENTS);
+        switch (substateOf(status)) {
             case DOWN: {
                 if (mode == ServiceController.Mode.REMOVE) {
                     return Transition.DOWN_to_REMOVING;
@@ -450,7 +624,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                     if (mode == Mode.PASSIVE && stoppingDependencies > 0) {
                         return Transition.START_REQUESTED_to_DOWN;
                     }
-                    if (!immediateUnavailableDependencies.isEmpty() || transitiveUnavailableDepCount > 0 || failCount > 0) {
+                    if (immediateUnavailableDependencies != null || transitiveUnavailableDepCount > 0 || failCount > 0) {
                         return Transition.START_REQUESTED_to_PROBLEM;
                     }
                     else if (stoppingDependencies == 0) {
@@ -462,7 +636,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 break;
             }
             case PROBLEM: {
-                if (! shouldStart() || (immediateUnavailableDependencies.isEmpty() && transitiveUnavailableDepCount == 0 && failCount == 0) || mode == Mode.PASSIVE) {
+                if (! shouldStart() || (immediateUnavailableDependencies == null && transitiveUnavailableDepCount == 0 && failCount == 0) || mode == Mode.PASSIVE) {
                     return Transition.PROBLEM_to_START_REQUESTED;
                 }
                 break;
@@ -495,10 +669,14 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         assert holdsLock(this);
         Transition transition;
         do {
-            if (asyncTasks != 0) {
+            if (asyncTasks != 0 || stopTimedOut) {
                 // no movement possible
                 return;
             }
+            final long status = this.status;
+            final Substate state = substateOf(status);
+            final Mode mode = modeOf(status);
+            final int demandedByCount = countOf(status, DEMANDED_BY_COUNT);
             // first of all, check if parents should be demanded/undemanded
             switch (mode) {
                 case NEVER:
@@ -575,10 +753,12 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 }
                 case START_REQUESTED_to_PROBLEM: {
                     getPrimaryRegistration().getContainer().addProblem(this);
-                    for (StabilityMonitor monitor : monitors) {
-                        monitor.addProblem(this);
+                    if (monitors != null) {
+                        for (StabilityMonitor monitor : monitors) {
+                            monitor.addProblem(this);
+                        }
                     }
-                    if (!immediateUnavailableDependencies.isEmpty()) {
+                    if (immediateUnavailableDependencies != null) {
                         getListenerTasks(ListenerNotification.IMMEDIATE_DEPENDENCY_UNAVAILABLE, tasks);
                     }
                     if (transitiveUnavailableDepCount > 0) {
@@ -608,8 +788,10 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 }
                 case STARTING_to_START_FAILED: {
                     getPrimaryRegistration().getContainer().addFailed(this);
-                    for (StabilityMonitor monitor : monitors) {
-                        monitor.addFailed(this);
+                    if (monitors != null) {
+                        for (StabilityMonitor monitor : monitors) {
+                            monitor.addFailed(this);
+                        }
                     }
                     ChildServiceTarget childTarget = this.childTarget;
                     if (childTarget != null) {
@@ -622,8 +804,10 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 }
                 case START_FAILED_to_STARTING: {
                     getPrimaryRegistration().getContainer().removeFailed(this);
-                    for (StabilityMonitor monitor : monitors) {
-                        monitor.removeFailed(this);
+                    if (monitors != null) {
+                        for (StabilityMonitor monitor : monitors) {
+                            monitor.removeFailed(this);
+                        }
                     }
                     getListenerTasks(transition, tasks);
                     tasks.add(new DependencyRetryingTask(getDependents()));
@@ -637,10 +821,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 }
                 case START_FAILED_to_DOWN: {
                     getPrimaryRegistration().getContainer().removeFailed(this);
-                    for (StabilityMonitor monitor : monitors) {
-                        monitor.removeFailed(this);
+                    if (monitors != null) {
+                        for (StabilityMonitor monitor : monitors) {
+                            monitor.removeFailed(this);
+                        }
                     }
                     startException = null;
+                    startTimedOut = false;
                     failCount--;
                     getListenerTasks(transition, tasks);
                     tasks.add(new DependencyRetryingTask(getDependents()));
@@ -667,7 +854,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                     tasks.add(new ServiceUnavailableTask());
                     Dependent[][] dependents = getDependents();
                     // Clear all dependency uninstalled flags from dependents
-                    if (!immediateUnavailableDependencies.isEmpty() || transitiveUnavailableDepCount > 0) {
+                    if (immediateUnavailableDependencies != null || transitiveUnavailableDepCount > 0) {
                         for (Dependent[] dependentArray : dependents) {
                             for (Dependent dependent : dependentArray) {
                                 if (dependent != null) dependent.transitiveDependencyAvailable();
@@ -683,9 +870,11 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 case CANCELLED_to_REMOVED:
                 case REMOVING_to_REMOVED: {
                     getListenerTasks(transition, tasks);
-                    listeners.clear();
-                    for (final StabilityMonitor monitor : monitors) {
-                        monitor.removeControllerNoCallback(this);
+                    listeners = null;
+                    if (monitors != null) {
+                        for (final StabilityMonitor monitor : monitors) {
+                            monitor.removeControllerNoCallback(this);
+                        }
                     }
                     break;
                 }
@@ -698,10 +887,12 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 }
                 case PROBLEM_to_START_REQUESTED: {
                     getPrimaryRegistration().getContainer().removeProblem(this);
-                    for (StabilityMonitor monitor : monitors) {
-                        monitor.removeProblem(this);
+                    if (monitors != null) {
+                        for (StabilityMonitor monitor : monitors) {
+                            monitor.removeProblem(this);
+                        }
                     }
-                    if (!immediateUnavailableDependencies.isEmpty()) {
+                    if (immediateUnavailableDependencies != null) {
                         getListenerTasks(ListenerNotification.IMMEDIATE_DEPENDENCY_AVAILABLE, tasks);
                     }
                     if (transitiveUnavailableDepCount > 0) {
@@ -718,34 +909,55 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                     throw new IllegalStateException();
                 }
             }
-            state = transition.getAfter();
+            setSubstate(transition.getAfter());
         } while (tasks.isEmpty());
         // Notify waiters that a transition occurred
         notifyAll();
     }
 
     private void getListenerTasks(final Transition transition, final ArrayList<Runnable> tasks) {
-        for (ServiceListener<? super S> listener : listeners) {
-            tasks.add(new ListenerTask(listener, transition));
+        if (listeners != null) {
+            for (ServiceListener<? super S> listener : listeners) {
+                tasks.add(new ListenerTask(listener, transition));
+            }
         }
     }
 
     private void getListenerTasks(final ListenerNotification notification, final ArrayList<Runnable> tasks) {
-        for (ServiceListener<? super S> listener : listeners) {
-            tasks.add(new ListenerTask(listener, notification));
+        if (listeners != null) {
+            for (ServiceListener<? super S> listener : listeners) {
+                tasks.add(new ListenerTask(listener, notification));
+            }
         }
     }
 
     void doExecute(final ArrayList<Runnable> tasks) {
         assert !holdsLock(this);
-        if (tasks == null) return;
-        final Executor executor = primaryRegistration.getContainer().getExecutor();
+        if (tasks == null || tasks.isEmpty()) return;
+        final ServiceContainerImpl container = primaryRegistration.getContainer();
+        final int inlineDepth = container.getInlineDepth();
+        final ServiceContainerImpl.Bulkhead bulkhead = this.bulkhead;
+        if (inlineDepth == 0 && bulkhead == null) {
+            container.executeTasks(tasks);
+            return;
+        }
+        final Continuations continuations = inlineDepth == 0 ? null : CONTINUATIONS.get();
+        final ArrayList<Runnable> submitted = new ArrayList<Runnable>(tasks.size());
         for (Runnable task : tasks) {
-            try {
-                executor.execute(task);
-            } catch (RejectedExecutionException e) {
-                task.run();
+            if (bulkhead != null && isLifecycleTask(task)) {
+                bulkhead.execute(task);
+                continue;
             }
+            if (inlineDepth > 0 && isInternalTask(task)) {
+                if (continuations != null && continuations.offer(task)) {
+                    continue;
+                }
+                task = new ContinuationRunner(task, inlineDepth);
+            }
+            submitted.add(task);
+        }
+        if (! submitted.isEmpty()) {
+            container.executeTasks(submitted);
         }
     }
 
@@ -764,7 +976,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks = new ArrayList<Runnable>(4);
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            final Mode oldMode = mode;
+            final Mode oldMode = getMode();
             if (expectedMode != null && expectedMode != oldMode) {
                 return false;
             }
@@ -785,9 +997,9 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     private void internalSetMode(final Mode newMode, final ArrayList<Runnable> taskList) {
         assert holdsLock(this);
-        final ServiceController.Mode oldMode = mode;
+        final ServiceController.Mode oldMode = getMode();
         if (oldMode == Mode.REMOVE) {
-            if (state.compareTo(Substate.REMOVING) >= 0) {
+            if (getSubstateLocked().compareTo(Substate.REMOVING) >= 0) {
                 throw new IllegalStateException("Service already removed");
             }
             getListenerTasks(ListenerNotification.REMOVE_REQUEST_CLEARED, taskList);
@@ -795,7 +1007,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         if (newMode == Mode.REMOVE) {
             getListenerTasks(ListenerNotification.REMOVE_REQUESTED, taskList);
         }
-        mode = newMode;
+        setModeLocked(newMode);
     }
 
     @Override
@@ -803,9 +1015,14 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            assert immediateUnavailableDependencies.contains(dependencyName);
-            immediateUnavailableDependencies.remove(dependencyName);
-            if (!immediateUnavailableDependencies.isEmpty() || state.compareTo(Substate.CANCELLED) <= 0 || state.compareTo(Substate.REMOVING) >= 0) {
+            final IdentityHashSet<ServiceName> unavailableDependencies = immediateUnavailableDependencies;
+            assert unavailableDependencies != null && unavailableDependencies.contains(dependencyName);
+            unavailableDependencies.remove(dependencyName);
+            if (unavailableDependencies.isEmpty()) {
+                immediateUnavailableDependencies = null;
+            }
+            final Substate state = getSubstateLocked();
+            if (immediateUnavailableDependencies != null || state.compareTo(Substate.CANCELLED) <= 0 || state.compareTo(Substate.REMOVING) >= 0) {
                 return;
             }
             // we dropped it to 0
@@ -829,7 +1046,11 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
+            if (immediateUnavailableDependencies == null) {
+                immediateUnavailableDependencies = new IdentityHashSet<ServiceName>();
+            }
             immediateUnavailableDependencies.add(dependencyName);
+            final Substate state = getSubstateLocked();
             if (immediateUnavailableDependencies.size() != 1 || state.compareTo(Substate.CANCELLED) <= 0 || state.compareTo(Substate.REMOVING) >= 0) {
                 return;
             }
@@ -872,6 +1093,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
+            final Substate state = getSubstateLocked();
             if (-- transitiveUnavailableDepCount != 0 || state.compareTo(Substate.CANCELLED) <= 0 || state.compareTo(Substate.REMOVING) >= 0) {
                 return;
             }
@@ -881,7 +1103,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 getListenerTasks(ListenerNotification.TRANSITIVE_DEPENDENCY_AVAILABLE, tasks);
             }
             // there are no immediate nor transitive unavailable dependencies
-            if (immediateUnavailableDependencies.isEmpty()) {
+            if (immediateUnavailableDependencies == null) {
                 transition(tasks);
                 propagateTransitiveAvailability();
             }
@@ -896,6 +1118,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
+            final Substate state = getSubstateLocked();
             if (++ transitiveUnavailableDepCount != 1 || state.compareTo(Substate.CANCELLED) <= 0 || state.compareTo(Substate.REMOVING) >= 0) {
                 return;
             }
@@ -906,7 +1129,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             }
             //if this is the first unavailable dependency, we need to notify dependents;
             // otherwise, they have already been notified
-            if (immediateUnavailableDependencies.isEmpty()) {
+            if (immediateUnavailableDependencies == null) {
                 transition(tasks);
                 propagateTransitiveUnavailability();
             }
@@ -923,10 +1146,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     @Override
     public void immediateDependencyUp() {
+        if (addToCountUnlocked(STOPPING_DEPENDENCIES, -1)) {
+            return;
+        }
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            if (--stoppingDependencies != 0) {
+            if (addToCount(STOPPING_DEPENDENCIES, -1) != 0) {
                 return;
             }
             // we dropped it to 0
@@ -940,10 +1166,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     @Override
     public void immediateDependencyDown() {
+        if (addToCountUnlocked(STOPPING_DEPENDENCIES, 1)) {
+            return;
+        }
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            if (++stoppingDependencies != 1) {
+            if (addToCount(STOPPING_DEPENDENCIES, 1) != 1) {
                 return;
             }
             // we dropped it below 0
@@ -960,6 +1189,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
+            final Substate state = getSubstateLocked();
             if (++failCount != 1 || state.compareTo(Substate.CANCELLED) <= 0) {
                 return;
             }
@@ -980,6 +1210,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
+            final Substate state = getSubstateLocked();
             if (--failCount != 0 || state == Substate.CANCELLED) {
                 return;
             }
@@ -997,17 +1228,23 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     void dependentStarted() {
         assert !holdsLock(this);
+        if (addToCountUnlocked(RUNNING_DEPENDENTS, 1)) {
+            return;
+        }
         synchronized (this) {
-            runningDependents++;
+            addToCount(RUNNING_DEPENDENTS, 1);
         }
     }
 
     void dependentStopped() {
         assert !holdsLock(this);
+        if (addToCountUnlocked(RUNNING_DEPENDENTS, -1)) {
+            return;
+        }
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            if (--runningDependents != 0) {
+            if (addToCount(RUNNING_DEPENDENTS, -1) != 0) {
                 return;
             }
             tasks = new ArrayList<Runnable>();
@@ -1020,12 +1257,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     void newDependent(final ServiceName dependencyName, final Dependent dependent) {
         assert holdsLock(this);
+        final Substate state = getSubstateLocked();
         if (failCount > 0 && state != Substate.STARTING) {
             // if starting and failCount is 1, dependents have not been notified yet...
             // hence, skip it to avoid duplicate notification
             dependent.dependencyFailed();
         }
-        if (!immediateUnavailableDependencies.isEmpty() || transitiveUnavailableDepCount > 0) {
+        if (immediateUnavailableDependencies != null || transitiveUnavailableDepCount > 0) {
             dependent.transitiveDependencyUnavailable();
         }
         if (state == Substate.WONT_START) {
@@ -1059,12 +1297,16 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     void addDemands(final int demandedByCount) {
         assert !holdsLock(this);
+        if (addToCountUnlocked(DEMANDED_BY_COUNT, demandedByCount)) {
+            return;
+        }
         final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
         final boolean propagate;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            final int cnt = this.demandedByCount;
-            this.demandedByCount += demandedByCount;
+            final int cnt = addToCount(DEMANDED_BY_COUNT, demandedByCount) - demandedByCount;
+            final Substate state = getSubstateLocked();
+            final Mode mode = getMode();
             boolean notStartedLazy = mode == Mode.LAZY && !(state.getState() == State.UP && state != Substate.STOP_REQUESTED);
             propagate = cnt == 0 && (mode == Mode.ON_DEMAND || notStartedLazy || mode == Mode.PASSIVE);
             if (propagate) {
@@ -1078,11 +1320,16 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     void removeDemand() {
         assert !holdsLock(this);
+        if (addToCountUnlocked(DEMANDED_BY_COUNT, -1)) {
+            return;
+        }
         final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
         final boolean propagate;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            final int cnt = --demandedByCount;
+            final int cnt = addToCount(DEMANDED_BY_COUNT, -1);
+            final Substate state = getSubstateLocked();
+            final Mode mode = getMode();
             boolean notStartedLazy = mode == Mode.LAZY && !(state.getState() == State.UP && state != Substate.STOP_REQUESTED);
             propagate = cnt == 0 && (mode == Mode.ON_DEMAND || notStartedLazy || mode == Mode.PASSIVE);
             if (propagate) {
@@ -1097,12 +1344,20 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     void addChild(ServiceControllerImpl<?> child) {
         assert !holdsLock(this);
         synchronized (this) {
+            final Substate state = getSubstateLocked();
             switch (state) {
                 case START_INITIATING:
                 case STARTING:
                 case UP:
                 case STOP_REQUESTED: {
-                    children.add(child);
+                    if (child.childIndex < 0) {
+                        if (childCount == children.length) {
+                            children = Arrays.copyOf(children, Math.max(4, childCount << 1));
+                        }
+                        children[childCount] = child;
+                        child.childIndex = childCount ++;
+                        childrenSnapshot = null;
+                    }
                     newDependent(primaryRegistration.getName(), child);
                     break;
                 }
@@ -1116,9 +1371,21 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            children.remove(child);
-            if (children.isEmpty()) {
-                switch (state) {
+            final int index = child.childIndex;
+            if (index >= 0) {
+                assert children[index] == child;
+                final ServiceControllerImpl<?> last = children[-- childCount];
+                children[index] = last;
+                last.childIndex = index;
+                children[childCount] = null;
+                child.childIndex = -1;
+                if (childCount == 0) {
+                    children = NO_CONTROLLERS;
+                }
+                childrenSnapshot = null;
+            }
+            if (childCount == 0) {
+                switch (getSubstateLocked()) {
                     case START_FAILED:
                     case STOPPING:
                         // last child was removed; drop async count
@@ -1137,9 +1404,43 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         doExecute(tasks);
     }
 
-    IdentityHashSet<ServiceControllerImpl<?>> getChildren() {
+    /**
+     * Returns the children of this service, copying them if they changed since the last call.  The returned array is
+     * shared and must not be modified.
+     *
+     * @return the children, as an array without {@code null} entries
+     */
+    private ServiceControllerImpl<?>[] getChildren() {
         assert holdsLock(this);
-        return children;
+        ServiceControllerImpl<?>[] snapshot = childrenSnapshot;
+        if (snapshot == null) {
+            childrenSnapshot = snapshot = childCount == 0 ? NO_CONTROLLERS : Arrays.copyOf(children, childCount);
+        }
+        return snapshot;
+    }
+
+    int getDependencyOrderId() {
+        return dependencyOrderId;
+    }
+
+    void setDependencyOrderId(final int dependencyOrderId) {
+        this.dependencyOrderId = dependencyOrderId;
+    }
+
+    ServiceControllerImpl<?> getPreviousInState() {
+        return previousInState;
+    }
+
+    void setPreviousInState(final ServiceControllerImpl<?> previousInState) {
+        this.previousInState = previousInState;
+    }
+
+    ServiceControllerImpl<?> getNextInState() {
+        return nextInState;
+    }
+
+    void setNextInState(final ServiceControllerImpl<?> nextInState) {
+        this.nextInState = nextInState;
     }
 
     public ServiceControllerImpl<?> getParent() {
@@ -1151,7 +1452,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     }
 
     public ServiceController.State getState() {
-        return state.getState();
+        return substateOf(status).getState();
     }
 
     public S getValue() throws IllegalStateException {
@@ -1161,7 +1462,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     public S awaitValue() throws IllegalStateException, InterruptedException {
         assert !holdsLock(this);
         synchronized (this) {
-            for (;;) switch (state.getState()) {
+            for (;;) switch (getSubstateLocked().getState()) {
                 case UP: {
                     return serviceValue.getValue().getValue();
                 }
@@ -1185,7 +1486,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         long remaining = unit.toNanos(time);
         synchronized (this) {
             do {
-                switch (state.getState()) {
+                switch (getSubstateLocked().getState()) {
                     case UP: {
                         return serviceValue.getValue().getValue();
                     }
@@ -1237,10 +1538,12 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         final Substate state;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            state = this.state;
+            state = getSubstateLocked();
             // Always run listener if removed.
             if (state != Substate.REMOVED) {
-                if (listeners.contains(listener)) {
+                if (listeners == null) {
+                    listeners = new IdentityHashSet<ServiceListener<? super S>>();
+                } else if (listeners.contains(listener)) {
                     // Duplicates not allowed
                     throw new IllegalArgumentException("Listener " + listener + " already present on controller for " + primaryRegistration.getName());
                 }
@@ -1259,7 +1562,9 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     public void removeListener(final ServiceListener<? super S> listener) {
         synchronized (this) {
-            listeners.remove(listener);
+            if (listeners != null) {
+                listeners.remove(listener);
+            }
         }
     }
 
@@ -1270,18 +1575,30 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         }
     }
 
+    /**
+     * Determine whether this service failed to start because its start timed out.
+     *
+     * @return {@code true} if the start timed out
+     */
+    boolean isStartTimedOut() {
+        synchronized (this) {
+            return startTimedOut;
+        }
+    }
+
     @Override
     public void retry() {
         assert !holdsLock(this);
         final ArrayList<Runnable> tasks;
         synchronized (this) {
             final boolean leavingRestState = isStableRestState();
-            if (state.getState() != ServiceController.State.START_FAILED) {
+            if (getSubstateLocked().getState() != ServiceController.State.START_FAILED) {
                 return;
             }
             failCount--;
             assert failCount == 0;
             startException = null;
+            startTimedOut = false;
             transition(tasks = new ArrayList<Runnable>());
             asyncTasks += tasks.size();
             updateStabilityState(leavingRestState);
@@ -1291,13 +1608,11 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     @Override
     public synchronized Set<ServiceName> getImmediateUnavailableDependencies() {
-        return immediateUnavailableDependencies.clone();
+        return immediateUnavailableDependencies == null ? new IdentityHashSet<ServiceName>() : immediateUnavailableDependencies.clone();
     }
 
     public ServiceController.Mode getMode() {
-        synchronized (this) {
-            return mode;
-        }
+        return modeOf(status);
     }
 
     public boolean compareAndSetMode(final Mode expectedMode, final Mode newMode) {
@@ -1342,18 +1657,20 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 }
             }
             StartException startException = this.startException;
+            final long status = this.status;
+            final Substate state = substateOf(status);
             return new ServiceStatus(
                     parentName,
                     name,
                     aliases,
                     serviceClass,
-                    mode.name(),
+                    modeOf(status).name(),
                     state.getState().name(),
                     state.name(),
                     dependencyNames,
                     failCount != 0,
                     startException != null ? startException.toString() : null,
-                    !immediateUnavailableDependencies.isEmpty() || transitiveUnavailableDepCount != 0
+                    immediateUnavailableDependencies != null || transitiveUnavailableDepCount != 0
             );
         }
     }
@@ -1371,7 +1688,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         for (Dependent dependent : dependents) {
             final ServiceControllerImpl<?> controller = dependent.getController();
             synchronized (controller) {
-                b.append("        ").append(controller.getName().toString()).append(" - State: ").append(controller.state.getState()).append(" (Substate: ").append(controller.state).append(")\n");
+                b.append("        ").append(controller.getName().toString()).append(" - State: ").append(controller.getState()).append(" (Substate: ").append(controller.getSubstate()).append(")\n");
             }
         }
         b.append("Service Aliases: ").append(aliasRegistrations.length).append('\n');
@@ -1385,22 +1702,23 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             b.append("    ").append(registration.getName().toString()).append(" - Dependents: ").append(dependents.size()).append('\n');
             for (Dependent dependent : dependents) {
                 final ServiceControllerImpl<?> controller = dependent.getController();
-                b.append("        ").append(controller.getName().toString()).append(" - State: ").append(controller.state.getState()).append(" (Substate: ").append(controller.state).append(")\n");
+                b.append("        ").append(controller.getName().toString()).append(" - State: ").append(controller.getState()).append(" (Substate: ").append(controller.getSubstate()).append(")\n");
             }
         }
         synchronized (this) {
-            b.append("Children: ").append(children.size()).append('\n');
-            for (ServiceControllerImpl<?> child : children) {
+            b.append("Children: ").append(childCount).append('\n');
+            for (ServiceControllerImpl<?> child : getChildren()) {
                 synchronized (child) {
-                    b.append("    ").append(child.getName().toString()).append(" - State: ").append(child.state.getState()).append(" (Substate: ").append(child.state).append(")\n");
+                    b.append("    ").append(child.getName().toString()).append(" - State: ").append(child.getState()).append(" (Substate: ").append(child.getSubstate()).append(")\n");
                 }
             }
-            final Substate state = this.state;
+            final long status = this.status;
+            final Substate state = substateOf(status);
             b.append("State: ").append(state.getState()).append(" (Substate: ").append(state).append(")\n");
             if (parent != null) {
                 b.append("Parent Name: ").append(parent.getPrimaryRegistration().getName().toString()).append('\n');
             }
-            b.append("Service Mode: ").append(mode).append('\n');
+            b.append("Service Mode: ").append(modeOf(status)).append('\n');
             if (startException != null) {
                 b.append("Start Exception: ").append(startException.getClass().getName()).append(" (Message: ").append(startException.getMessage()).append(")\n");
             }
@@ -1420,14 +1738,18 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             } catch (Throwable ignored) {}
             b.append("Service Object: ").append(serviceObjectString).append('\n');
             b.append("Service Object Class: ").append(serviceObjectClass).append('\n');
-            b.append("Demanded By: ").append(demandedByCount).append('\n');
+            b.append("Demanded By: ").append(countOf(status, DEMANDED_BY_COUNT)).append('\n');
             b.append("Unstarted Dependencies: ").append(unstartedDependencies).append('\n');
-            b.append("Stopping Dependencies: ").append(stoppingDependencies).append('\n');
-            b.append("Running Dependents: ").append(runningDependents).append('\n');
+            b.append("Stopping Dependencies: ").append(countOf(status, STOPPING_DEPENDENCIES)).append('\n');
+            b.append("Running Dependents: ").append(countOf(status, RUNNING_DEPENDENTS)).append('\n');
             b.append("Fail Count: ").append(failCount).append('\n');
-            b.append("Immediate Unavailable Dep Count: ").append(immediateUnavailableDependencies.size()).append('\n');
-            for (ServiceName name : immediateUnavailableDependencies) {
-                b.append("    ").append(name.toString()).append('\n');
+            if (immediateUnavailableDependencies == null) {
+                b.append("Immediate Unavailable Dep Count: 0\n");
+            } else {
+                b.append("Immediate Unavailable Dep Count: ").append(immediateUnavailableDependencies.size()).append('\n');
+                for (ServiceName name : immediateUnavailableDependencies) {
+                    b.append("    ").append(name.toString()).append('\n');
+                }
             }
             b.append("Transitive Unavailable Dep Count: ").append(transitiveUnavailableDepCount).append('\n');
             b.append("Dependencies Demanded: ").append(dependenciesDemanded ? "yes" : "no").append('\n');
@@ -1448,7 +1770,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 b.append(" (missing)\n");
             } else {
                 synchronized (controller) {
-                    b.append(" - State: ").append(controller.state.getState()).append(" (Substate: ").append(controller.state).append(")\n");
+                    b.append(" - State: ").append(controller.getState()).append(" (Substate: ").append(controller.getSubstate()).append(")\n");
                 }
             }
         }
@@ -1458,8 +1780,12 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     void addMonitor(final StabilityMonitor stabilityMonitor) {
         assert !holdsLock(this);
         synchronized (this) {
+            if (monitors == null) {
+                monitors = new IdentityHashSet<StabilityMonitor>();
+            }
             if (monitors.add(stabilityMonitor) && !isStableRestState()) {
                 stabilityMonitor.incrementUnstableServices();
+                final Substate state = getSubstateLocked();
                 if (state == Substate.START_FAILED) {
                     stabilityMonitor.addFailed(this);
                 } else if (state == Substate.PROBLEM) {
@@ -1472,10 +1798,10 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     void removeMonitor(final StabilityMonitor stabilityMonitor) {
         assert !holdsLock(this);
         synchronized (this) {
-            if (monitors.remove(stabilityMonitor) && !isStableRestState()) {
+            if (monitors != null && monitors.remove(stabilityMonitor) && !isStableRestState()) {
                 stabilityMonitor.removeProblem(this);
                 stabilityMonitor.removeFailed(this);
-                stabilityMonitor.decrementUnstableServices();
+                stabilityMonitor.decrementUnstableServices(primaryRegistration.getContainer());
             }
         }
     }
@@ -1483,13 +1809,15 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     void removeMonitorNoCallback(final StabilityMonitor stabilityMonitor) {
         assert !holdsLock(this);
         synchronized (this) {
-            monitors.remove(stabilityMonitor);
+            if (monitors != null) {
+                monitors.remove(stabilityMonitor);
+            }
         }
     }
 
     Set<StabilityMonitor> getMonitors() {
         assert holdsLock(this);
-        return monitors;
+        return monitors == null ? Collections.<StabilityMonitor>emptySet() : monitors;
     }
 
     private enum ListenerNotification {
@@ -1591,9 +1919,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
     }
 
     public Substate getSubstate() {
-        synchronized (this) {
-            return state;
-        }
+        return substateOf(status);
     }
 
     ServiceRegistrationImpl getPrimaryRegistration() {
@@ -1604,57 +1930,192 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         return aliasRegistrations;
     }
 
+    Dependency[] getDependencies() {
+        return dependencies;
+    }
+
     /**
-     * Returns a compiled array of all dependents of this service instance.
+     * Get the start rank of the given task.
      *
-     * @return an array of dependents, including children
+     * @param task the task
+     * @return the start rank, or {@code null} if the task is not a start task
      */
-    private Dependent[][] getDependents() {
-        IdentityHashSet<Dependent> dependentSet = primaryRegistration.getDependents();
-        if (aliasRegistrations.length == 0) {
-            synchronized (dependentSet) {
-                return new Dependent[][] { dependentSet.toScatteredArray(NO_DEPENDENTS),
-                        children.toScatteredArray(NO_DEPENDENTS)};
+    static StartRank getStartRank(Runnable task) {
+        task = unwrapTask(task);
+        return task instanceof ServiceControllerImpl.StartTask ? ((ServiceControllerImpl<?>.StartTask) task).getStartRank() : null;
+    }
+
+    /**
+     * Compute the start rank of this service, which estimates how much of the remaining work depends on this service
+     * being started.  Ranks are kept until {@link #invalidateStartRank()} is called, and at most
+     * {@link #MAX_RANK_VISITS} services are visited, so the rank of a service with a very large set of dependents is
+     * only a lower bound.
+     *
+     * @return the start rank
+     */
+    StartRank getStartRank() {
+        final ServiceContainerImpl container = primaryRegistration.getContainer();
+        final StartRank rank = startRank;
+        if (rank != null) {
+            return rank;
+        }
+        final IdentityHashSet<ServiceControllerImpl<?>> visited = new IdentityHashSet<ServiceControllerImpl<?>>();
+        final ArrayDeque<RankFrame> stack = new ArrayDeque<RankFrame>();
+        int budget = MAX_RANK_VISITS;
+        visited.add(this);
+        stack.push(new RankFrame(this));
+        for (;;) {
+            final RankFrame frame = stack.peek();
+            if (frame.next < frame.dependents.size()) {
+                final ServiceControllerImpl<?> dependent = frame.dependents.get(frame.next++);
+                final StartRank dependentRank = dependent.startRank;
+                if (dependentRank != null) {
+                    frame.add(dependentRank);
+                } else if (budget > 0 && visited.add(dependent)) {
+                    // dependents which are already being visited are part of a cycle, and are ignored
+                    budget --;
+                    stack.push(new RankFrame(dependent));
+                }
+            } else {
+                stack.pop();
+                final ServiceControllerImpl<?> controller = frame.controller;
+                final StartRank computed = new StartRank(frame.pathCost + container.getStartCost(controller.primaryRegistration.getName()), frame.dependentCount);
+                controller.startRank = computed;
+                final RankFrame parentFrame = stack.peek();
+                if (parentFrame == null) {
+                    return computed;
+                }
+                parentFrame.add(computed);
+            }
+        }
+    }
+
+    /**
+     * Forget the start rank of this service, and of the services it transitively depends on, whose ranks include it.
+     * Called after the dependents of this service changed.  The walk stops at services whose rank is already unknown,
+     * so it is short while the ranks are not computed yet, as during an installation.  A rank which is being computed
+     * concurrently may still be stored afterwards; ranks only order the starts, so that merely delays other starts.
+     */
+    void invalidateStartRank() {
+        if (startRank == null) {
+            return;
+        }
+        startRank = null;
+        final ArrayDeque<ServiceControllerImpl<?>> stack = new ArrayDeque<ServiceControllerImpl<?>>();
+        stack.push(this);
+        while (! stack.isEmpty()) {
+            for (Dependency dependency : stack.pop().dependencies) {
+                final ServiceControllerImpl<?> controller = dependency.getDependencyController();
+                if (controller != null && controller.startRank != null) {
+                    controller.startRank = null;
+                    stack.push(controller);
+                }
             }
         }
-        Dependent[][] dependents = new Dependent[aliasRegistrations.length + 2][];
-        synchronized (dependentSet) {
-            dependents[0] = dependentSet.toScatteredArray(NO_DEPENDENTS);
+    }
+
+    private ArrayList<ServiceControllerImpl<?>> getDependentControllers() {
+        final ArrayList<ServiceControllerImpl<?>> controllers = new ArrayList<ServiceControllerImpl<?>>();
+        addDependentControllers(primaryRegistration, controllers);
+        for (ServiceRegistrationImpl aliasRegistration : aliasRegistrations) {
+            addDependentControllers(aliasRegistration, controllers);
         }
-        dependents[1] = children.toScatteredArray(NO_DEPENDENTS);
-        for (int i = 0; i < aliasRegistrations.length; i++) {
-            final ServiceRegistrationImpl alias = aliasRegistrations[i];
-            final IdentityHashSet<Dependent> aliasDependentSet = alias.getDependents();
-            synchronized (aliasDependentSet) {
-                dependents[i + 2] = aliasDependentSet.toScatteredArray(NO_DEPENDENTS);
+        return controllers;
+    }
+
+    private static void addDependentControllers(final ServiceRegistrationImpl registration, final ArrayList<ServiceControllerImpl<?>> controllers) {
+        for (Dependent dependent : registration.getDependentsSnapshot()) {
+            if (dependent instanceof OptionalDependency) {
+                dependent = ((OptionalDependency) dependent).getDependent();
+            }
+            if (dependent instanceof ServiceControllerImpl) {
+                controllers.add((ServiceControllerImpl<?>) dependent);
             }
         }
-        return dependents;
     }
 
     /**
-     * Returns a compiled map of all dependents of this service mapped by the dependency name.
-     * This map can be used when it is necessary to perform notifications to these dependents that require
-     * the name of the dependency issuing notification.
-     * <br> The return result does not include children.
+     * The start rank of a service.  Services with a higher rank are started first.
+     */
+    static final class StartRank implements Comparable<StartRank> {
+        private final long pathCost;
+        private final long dependentCount;
+
+        StartRank(final long pathCost, final long dependentCount) {
+            this.pathCost = pathCost;
+            this.dependentCount = dependentCount;
+        }
+
+        /**
+         * Get the estimated cost, in nanoseconds, of the longest chain of starts beginning with this service.
+         *
+         * @return the path cost
+         */
+        long getPathCost() {
+            return pathCost;
+        }
+
+        /**
+         * Get the number of transitive dependents.  A dependent which is reached through several paths is counted
+         * once for each of them.
+         *
+         * @return the dependent count
+         */
+        long getDependentCount() {
+            return dependentCount;
+        }
+
+        public int compareTo(final StartRank other) {
+            if (pathCost != other.pathCost) {
+                return pathCost > other.pathCost ? 1 : -1;
+            }
+            return dependentCount == other.dependentCount ? 0 : dependentCount > other.dependentCount ? 1 : -1;
+        }
+    }
+
+    private static final class RankFrame {
+        private final ServiceControllerImpl<?> controller;
+        private final ArrayList<ServiceControllerImpl<?>> dependents;
+        private int next;
+        private long pathCost;
+        private long dependentCount;
+
+        RankFrame(final ServiceControllerImpl<?> controller) {
+            this.controller = controller;
+            dependents = controller.getDependentControllers();
+        }
+
+        void add(final StartRank dependentRank) {
+            pathCost = Math.max(pathCost, dependentRank.pathCost);
+            dependentCount += dependentRank.dependentCount + 1;
+        }
+    }
+
+    /**
+     * Returns the dependents of this service, including children.  The first array holds the dependents of the primary
+     * registration, the second one the children and the remaining ones the dependents of the alias registrations, in
+     * the order of {@link #aliasRegistrations}.  The arrays are shared snapshots and must not be modified.
      *
-     * @return an array of dependents, including children
+     * @return the dependents of this service
      */
-    // children are not included in this this result
-    private Map<ServiceName, Dependent[]> getDependentsByDependencyName() {
-        final Map<ServiceName, Dependent[]> dependents = new HashMap<ServiceName, Dependent[]>();
-        addDependentsByName(primaryRegistration, dependents);
-        for (ServiceRegistrationImpl aliasRegistration: aliasRegistrations) {
-            addDependentsByName(aliasRegistration, dependents);
+    private Dependent[][] getDependents() {
+        final Dependent[][] dependents = new Dependent[aliasRegistrations.length + 2][];
+        dependents[0] = primaryRegistration.getDependentsSnapshot();
+        dependents[1] = getChildren();
+        for (int i = 0; i < aliasRegistrations.length; i++) {
+            dependents[i + 2] = aliasRegistrations[i].getDependentsSnapshot();
         }
         return dependents;
     }
 
-    private void addDependentsByName(ServiceRegistrationImpl registration, Map<ServiceName, Dependent[]> dependentsByName) {
-        IdentityHashSet<Dependent> registrationDependents = registration.getDependents();
-        synchronized(registrationDependents) {
-            dependentsByName.put(registration.getName(), registrationDependents.toScatteredArray(NO_DEPENDENTS));
-        }
+    /**
+     * Returns the name under which the dependents at the given index of {@link #getDependents()} depend on this service.
+     *
+     * @param index the index of the dependents array
+     * @return the dependency name
+     */
+    private ServiceName getDependencyName(final int index) {
+        return index < 2 ? primaryRegistration.getName() : aliasRegistrations[index - 2].getName();
     }
 
     enum ContextState {
@@ -1666,12 +2127,57 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         ASYNC,
         COMPLETE,
         FAILED,
+        TIMED_OUT,
     }
 
     private static <T> void doInject(final ValueInjection<T> injection) {
         injection.getTarget().inject(injection.getSource().getValue());
     }
 
+    /**
+     * Schedule the timeout of an asynchronous start or stop on the container timer.
+     *
+     * @param task the timeout task
+     * @param deadline the deadline, as a {@link System#nanoTime()} value
+     * @return the timeout, or {@code null} if the container timer is shut down
+     */
+    private TimerWheel.Timeout scheduleTimeout(final Runnable task, final long deadline) {
+        try {
+            return primaryRegistration.getContainer().getTimerWheel().schedule(task, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run a command submitted to a lifecycle context, with the class loader of the command as the TCCL.  The command
+     * runs on the executor of the bulkhead of this service or else the lifecycle executor of the container, if there
+     * is one, and on the current thread otherwise.
+     *
+     * @param command the command
+     */
+    private void doLifecycleExecute(final Runnable command) {
+        final Runnable task = new Runnable() {
+            public void run() {
+                final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
+                try {
+                    command.run();
+                } finally {
+                    setTCCL(contextClassLoader);
+                }
+            }
+        };
+        final Executor bulkheadExecutor = bulkhead == null ? null : bulkhead.getExecutor();
+        final Executor lifecycleExecutor = bulkheadExecutor != null ? bulkheadExecutor : primaryRegistration.getContainer().getLifecycleExecutor();
+        if (lifecycleExecutor != null) try {
+            lifecycleExecutor.execute(task);
+            return;
+        } catch (RejectedExecutionException e) {
+            // the container is shut down; run it here instead
+        }
+        task.run();
+    }
+
     private static ClassLoader setTCCL(ClassLoader newTCCL) {
         final SecurityManager sm = System.getSecurityManager();
         final SetTCCLAction setTCCLAction = new SetTCCLAction(newTCCL);
@@ -1687,6 +2193,121 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         return String.format("Controller for %s@%x", getName(), Integer.valueOf(hashCode()));
     }
 
+    /**
+     * Determine whether a task only does internal bookkeeping.  Such tasks never run user code and never block, so they
+     * can be run as continuations of the task which produced them.
+     *
+     * @param task the task
+     * @return {@code true} if the task is internal
+     */
+    private static boolean isInternalTask(final Runnable task) {
+        return ! (task instanceof ServiceControllerImpl.StartTask || task instanceof ServiceControllerImpl.StopTask || task instanceof ServiceControllerImpl.ListenerTask);
+    }
+
+    /**
+     * Determine whether a task runs the start or stop method of a service.
+     *
+     * @param task the task
+     * @return {@code true} if the task is a start or stop task
+     */
+    static boolean isLifecycleTask(Runnable task) {
+        task = unwrapTask(task);
+        return task instanceof ServiceControllerImpl.StartTask || task instanceof ServiceControllerImpl.StopTask;
+    }
+
+    /**
+     * Run a start or stop task which holds a permit of a bulkhead.  If the service completes its start or stop
+     * asynchronously, its lifecycle context takes over the permit, and releases it once the start or stop is done.
+     *
+     * @param task the task
+     * @param bulkhead the bulkhead which gave the permit
+     * @return {@code true} if the permit was taken over, {@code false} if the caller must release it
+     */
+    static boolean runLifecycleTask(final Runnable task, final ServiceContainerImpl.Bulkhead bulkhead) {
+        if (task instanceof ServiceControllerImpl.StartTask) {
+            return ((ServiceControllerImpl<?>.StartTask) task).run(bulkhead);
+        }
+        if (task instanceof ServiceControllerImpl.StopTask) {
+            return ((ServiceControllerImpl<?>.StopTask) task).run(bulkhead);
+        }
+        task.run();
+        return false;
+    }
+
+    /**
+     * Get the task which a bulkhead submitted on behalf of the given task.
+     *
+     * @param task the task
+     * @return the task wrapped by the bulkhead, or {@code task} itself if it is not wrapped
+     */
+    private static Runnable unwrapTask(final Runnable task) {
+        return task instanceof ServiceContainerImpl.Bulkhead.LimitedTask ? ((ServiceContainerImpl.Bulkhead.LimitedTask) task).getTask() : task;
+    }
+
+    private static final ThreadLocal<Continuations> CONTINUATIONS = new ThreadLocal<Continuations>();
+
+    /**
+     * The internal tasks deferred by the internal task currently running on this thread.
+     */
+    private static final class Continuations {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        private int remaining;
+
+        Continuations(final int depth) {
+            remaining = depth;
+        }
+
+        boolean offer(final Runnable task) {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining --;
+            tasks.addLast(task);
+            return true;
+        }
+
+        Runnable poll() {
+            return tasks.pollFirst();
+        }
+    }
+
+    /**
+     * Runs an internal task, then the internal tasks produced by it and by its continuations, up to the given depth,
+     * on the same thread.  Continuations are run one after the other rather than recursively, so that they never run
+     * while a lock is held or grow the stack.
+     */
+    private static final class ContinuationRunner implements Runnable {
+        private final Runnable task;
+        private final int depth;
+
+        ContinuationRunner(final Runnable task, final int depth) {
+            this.task = task;
+            this.depth = depth;
+        }
+
+        public void run() {
+            if (CONTINUATIONS.get() != null) {
+                // already running continuations on this thread
+                task.run();
+                return;
+            }
+            final Continuations continuations = new Continuations(depth);
+            CONTINUATIONS.set(continuations);
+            try {
+                Runnable next = task;
+                do {
+                    try {
+                        next.run();
+                    } catch (Throwable t) {
+                        ServiceLogger.ROOT.uncaughtException(t, Thread.currentThread());
+                    }
+                } while ((next = continuations.poll()) != null);
+            } finally {
+                CONTINUATIONS.remove();
+            }
+        }
+    }
+
     private class DemandDependenciesTask implements Runnable {
 
         public void run() {
@@ -1785,26 +2406,20 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     private class ServiceUnavailableTask implements Runnable {
 
-        private final Map<ServiceName, Dependent[]> dependents;
-        private final Dependent[] children;
+        private final Dependent[][] dependents;
 
         ServiceUnavailableTask() {
-            dependents = getDependentsByDependencyName();
-            children = ServiceControllerImpl.this.children.toScatteredArray(NO_DEPENDENTS);
+            dependents = getDependents();
         }
 
         public void run() {
             try {
-                for (Map.Entry<ServiceName, Dependent[]> dependentEntry: dependents.entrySet()) {
-                    ServiceName serviceName = dependentEntry.getKey();
-                    for (Dependent dependent: dependentEntry.getValue()) {
-                        if (dependent != null) dependent.immediateDependencyUnavailable(serviceName);
+                for (int i = 0; i < dependents.length; i++) {
+                    final ServiceName serviceName = getDependencyName(i);
+                    for (Dependent dependent: dependents[i]) {
+                        dependent.immediateDependencyUnavailable(serviceName);
                     }
                 }
-                final ServiceName primaryRegistrationName = primaryRegistration.getName();
-                for (Dependent child: children) {
-                    if (child != null) child.immediateDependencyUnavailable(primaryRegistrationName);
-                }
                 final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
                 synchronized (ServiceControllerImpl.this) {
                     final boolean leavingRestState = isStableRestState();
@@ -1823,26 +2438,20 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
     private class ServiceAvailableTask implements Runnable {
 
-        private final Map<ServiceName, Dependent[]> dependents;
-        private final Dependent[] children;
+        private final Dependent[][] dependents;
 
         ServiceAvailableTask() {
-            dependents = getDependentsByDependencyName();
-            children = ServiceControllerImpl.this.children.toScatteredArray(NO_DEPENDENTS);
+            dependents = getDependents();
         }
 
         public void run() {
             try {
-                for (Map.Entry<ServiceName, Dependent[]> dependentEntry: dependents.entrySet()) {
-                    ServiceName serviceName = dependentEntry.getKey();
-                    for (Dependent dependent: dependentEntry.getValue()) {
-                        if (dependent != null) dependent.immediateDependencyAvailable(serviceName);
+                for (int i = 0; i < dependents.length; i++) {
+                    final ServiceName serviceName = getDependencyName(i);
+                    for (Dependent dependent: dependents[i]) {
+                        dependent.immediateDependencyAvailable(serviceName);
                     }
                 }
-                final ServiceName primaryRegistrationName = primaryRegistration.getName();
-                for (Dependent child: children) {
-                    if (child != null) child.immediateDependencyAvailable(primaryRegistrationName);
-                }
                 final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
                 synchronized (ServiceControllerImpl.this) {
                     final boolean leavingRestState = isStableRestState();
@@ -1867,7 +2476,15 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             this.doInjection = doInjection;
         }
 
+        StartRank getStartRank() {
+            return ServiceControllerImpl.this.getStartRank();
+        }
+
         public void run() {
+            run(null);
+        }
+
+        boolean run(final ServiceContainerImpl.Bulkhead permit) {
             assert !holdsLock(ServiceControllerImpl.this);
             final ServiceName serviceName = primaryRegistration.getName();
             final long startNanos = System.nanoTime();
@@ -1883,7 +2500,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 synchronized (ServiceControllerImpl.this) {
                     final boolean leavingRestState = isStableRestState();
                     if (context.state != ContextState.SYNC) {
-                        return;
+                        return context.keepPermit(permit);
                     }
                     context.state = ContextState.COMPLETE;
                     if (ServiceContainerImpl.PROFILE_OUTPUT != null) {
@@ -1904,6 +2521,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 StartException e = new StartException("Failed to start service", t, serviceName);
                 startFailed(e, serviceName, context, startNanos);
             }
+            return false;
         }
 
         private void performInjections() {
@@ -1962,6 +2580,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                     return;
                 }
                 context.state = ContextState.FAILED;
+                context.cancelTimeout();
                 startException = e;
                 if (ServiceContainerImpl.PROFILE_OUTPUT != null) {
                     writeProfileInfo('F', startNanos, System.nanoTime());
@@ -1983,10 +2602,10 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
         StopTask(final boolean onlyUninject) {
             this.onlyUninject = onlyUninject;
-            if (!onlyUninject && !ServiceControllerImpl.this.children.isEmpty()) {
+            if (!onlyUninject && ServiceControllerImpl.this.childCount != 0) {
                 synchronized (ServiceControllerImpl.this) {
                     final boolean leavingRestState = isStableRestState();
-                    this.children = ServiceControllerImpl.this.children.toScatteredArray(NO_CONTROLLERS);
+                    this.children = getChildren();
                     // placeholder async task for child removal; last removed child will decrement this count
                     // see removeChild method to verify when this count is decremented
                     ServiceControllerImpl.this.asyncTasks ++;
@@ -1999,6 +2618,10 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         }
 
         public void run() {
+            run(null);
+        }
+
+        boolean run(final ServiceContainerImpl.Bulkhead permit) {
             assert !holdsLock(ServiceControllerImpl.this);
             final ServiceName serviceName = primaryRegistration.getName();
             final long startNanos = System.nanoTime();
@@ -2029,7 +2652,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                     if (ok && context.state != ContextState.SYNC) {
                         // We want to discard the exception anyway, if there was one.  Which there can't be.
                         //noinspection ReturnInsideFinallyBlock
-                        return;
+                        return context.keepPermit(permit);
                     }
                     context.state = ContextState.COMPLETE;
                 }
@@ -2048,6 +2671,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 }
                 doExecute(tasks);
             }
+            return false;
         }
 
         private void stopService(Service<? extends S> service, StopContext context) {
@@ -2170,10 +2794,10 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
         DependencyFailedTask(final Dependent[][] dependents, final boolean removeChildren) {
             this.dependents = dependents;
-            if (removeChildren && !ServiceControllerImpl.this.children.isEmpty()) {
+            if (removeChildren && ServiceControllerImpl.this.childCount != 0) {
                 synchronized (ServiceControllerImpl.this) {
                     final boolean leavingRestState = isStableRestState();
-                    this.children = ServiceControllerImpl.this.children.toScatteredArray(NO_CONTROLLERS);
+                    this.children = getChildren();
                     // placeholder async task for child removal; last removed child will decrement this count
                     // see removeChild method to verify when this count is decremented
                     ServiceControllerImpl.this.asyncTasks ++;
@@ -2250,6 +2874,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             try {
                 assert getMode() == ServiceController.Mode.REMOVE;
                 assert getSubstate() == Substate.REMOVING || getSubstate() == Substate.CANCELLED;
+                primaryRegistration.getContainer().removeFromDependencyOrder(ServiceControllerImpl.this);
                 primaryRegistration.clearInstance(ServiceControllerImpl.this);
                 for (ServiceRegistrationImpl registration : aliasRegistrations) {
                     registration.clearInstance(ServiceControllerImpl.this);
@@ -2281,6 +2906,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
         private final long startNanos;
 
+        private TimerWheel.Timeout timeout;
+
+        /**
+         * The bulkhead permit which this context took over from the start task, if any.
+         */
+        private ServiceContainerImpl.Bulkhead permit;
+
         private StartContextImpl(final long startNanos) {
             this.startNanos = startNanos;
         }
@@ -2288,39 +2920,104 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         public void failed(StartException reason) throws IllegalStateException {
             final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             synchronized (ServiceControllerImpl.this) {
-                final boolean leavingRestState = isStableRestState();
                 if (reason == null) {
                     reason = new StartException("Start failed, and additionally, a null cause was supplied");
                 }
+                if (state == ContextState.TIMED_OUT) {
+                    ServiceLogger.FAIL.exceptionAfterComplete(reason, getName());
+                    return;
+                }
                 if (state == ContextState.COMPLETE || state == ContextState.FAILED || state == ContextState.SYNC_ASYNC_FAILED) {
                     throw new IllegalStateException(ILLEGAL_CONTROLLER_STATE);
                 }
                 if (state == ContextState.ASYNC) {
                     state = ContextState.FAILED;
+                    cancelTimeout();
                 }
                 if (state == ContextState.SYNC) {
                     state = ContextState.SYNC_ASYNC_FAILED;
                 }
-                final ServiceName serviceName = getName();
-                reason.setServiceName(serviceName);
-                ServiceLogger.FAIL.startFailed(reason, serviceName);
-                startException = reason;
-                failCount ++;
-                if (ServiceContainerImpl.PROFILE_OUTPUT != null) {
-                    writeProfileInfo('F', startNanos, System.nanoTime());
+                failedLocked(reason, tasks);
+            }
+            doExecute(tasks);
+            releasePermit();
+        }
+
+        /**
+         * Fail the start because it did not complete in time.  Run by the container timer.
+         */
+        private void timedOut() {
+            final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+            synchronized (ServiceControllerImpl.this) {
+                if (state != ContextState.ASYNC) {
+                    return;
                 }
-                // Subtract one for this task
-                asyncTasks --;
-                transition(tasks);
-                asyncTasks += tasks.size();
-                updateStabilityState(leavingRestState);
+                state = ContextState.TIMED_OUT;
+                startTimedOut = true;
+                failedLocked(new StartException(String.format("Start did not complete within %d ms", Long.valueOf(TimeUnit.NANOSECONDS.toMillis(startTimeout)))), tasks);
             }
             doExecute(tasks);
+            releasePermit();
+        }
+
+        private void failedLocked(final StartException reason, final ArrayList<Runnable> tasks) {
+            assert holdsLock(ServiceControllerImpl.this);
+            final boolean leavingRestState = isStableRestState();
+            final ServiceName serviceName = getName();
+            reason.setServiceName(serviceName);
+            ServiceLogger.FAIL.startFailed(reason, serviceName);
+            startException = reason;
+            failCount ++;
+            if (ServiceContainerImpl.PROFILE_OUTPUT != null) {
+                writeProfileInfo('F', startNanos, System.nanoTime());
+            }
+            // Subtract one for this task
+            asyncTasks --;
+            transition(tasks);
+            asyncTasks += tasks.size();
+            updateStabilityState(leavingRestState);
+        }
+
+        private void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+
+        /**
+         * Take over the bulkhead permit of the start task if the start is still running asynchronously.  Call under
+         * the controller lock.
+         *
+         * @param permit the bulkhead which gave the start task its permit, or {@code null} if it has none
+         * @return {@code true} if the permit was taken over
+         */
+        private boolean keepPermit(final ServiceContainerImpl.Bulkhead permit) {
+            assert holdsLock(ServiceControllerImpl.this);
+            if (permit == null || state != ContextState.ASYNC) {
+                return false;
+            }
+            this.permit = permit;
+            return true;
+        }
+
+        /**
+         * Release the bulkhead permit which this context took over, if any, now that the start is done.
+         */
+        private void releasePermit() {
+            final ServiceContainerImpl.Bulkhead permit;
+            synchronized (ServiceControllerImpl.this) {
+                permit = this.permit;
+                this.permit = null;
+            }
+            if (permit != null) {
+                permit.release();
+            }
         }
 
         public ServiceTarget getChildTarget() {
             synchronized (ServiceControllerImpl.this) {
-                if (state == ContextState.COMPLETE || state == ContextState.FAILED) {
+                if (state == ContextState.COMPLETE || state == ContextState.FAILED || state == ContextState.TIMED_OUT) {
                     throw new IllegalStateException("Lifecycle context is no longer valid");
                 }
                 if (childTarget == null) {
@@ -2334,6 +3031,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             synchronized (ServiceControllerImpl.this) {
                 if (state == ContextState.SYNC) {
                     state = ContextState.ASYNC;
+                    if (startTimeout > 0L) {
+                        timeout = scheduleTimeout(new Runnable() {
+                            public void run() {
+                                timedOut();
+                            }
+                        }, startNanos + startTimeout);
+                    }
                 } else if (state == ContextState.SYNC_ASYNC_COMPLETE) {
                     state = ContextState.COMPLETE;
                 } else if (state == ContextState.SYNC_ASYNC_FAILED) {
@@ -2348,11 +3052,16 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
             synchronized (ServiceControllerImpl.this) {
                 final boolean leavingRestState = isStableRestState();
+                if (state == ContextState.TIMED_OUT) {
+                    ServiceLogger.FAIL.completedAfterTimeout(getName());
+                    return;
+                }
                 if (state == ContextState.COMPLETE || state == ContextState.FAILED || state == ContextState.SYNC_ASYNC_COMPLETE) {
                     throw new IllegalStateException(ILLEGAL_CONTROLLER_STATE);
                 }
                 if (state == ContextState.ASYNC) {
                     state = ContextState.COMPLETE;
+                    cancelTimeout();
                 }
                 if (state == ContextState.SYNC) {
                     state = ContextState.SYNC_ASYNC_COMPLETE;
@@ -2367,6 +3076,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 updateStabilityState(leavingRestState);
             }
             doExecute(tasks);
+            releasePermit();
         }
 
         public long getElapsedTime() {
@@ -2378,12 +3088,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         }
 
         public void execute(final Runnable command) {
-            final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
-            try {
-                command.run();
-            } finally {
-                setTCCL(contextClassLoader);
-            }
+            doLifecycleExecute(command);
         }
     }
 
@@ -2401,6 +3106,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             return super.install(serviceBuilder);
         }
 
+        List<ServiceController<?>> installAll(final List<ServiceBuilderImpl<?>> serviceBuilders) throws ServiceRegistryException {
+            if (! valid) {
+                throw new IllegalStateException("Service target is no longer valid");
+            }
+            return super.installAll(serviceBuilders);
+        }
+
         protected <T> ServiceBuilder<T> createServiceBuilder(final ServiceName name, final Value<? extends Service<T>> value, final ServiceControllerImpl<?> parent) throws IllegalArgumentException {
             return super.createServiceBuilder(name, value, ServiceControllerImpl.this);
         }
@@ -2435,6 +3147,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
         private final long startNanos;
 
+        private TimerWheel.Timeout timeout;
+
+        /**
+         * The bulkhead permit which this context took over from the stop task, if any.
+         */
+        private ServiceContainerImpl.Bulkhead permit;
+
         private StopContextImpl(final long startNanos) {
             this.startNanos = startNanos;
         }
@@ -2443,6 +3162,18 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
             synchronized (ServiceControllerImpl.this) {
                 if (state == ContextState.SYNC) {
                     state = ContextState.ASYNC;
+                    if (stopTimeout > 0L) {
+                        timeout = scheduleTimeout(new Runnable() {
+                            public void run() {
+                                // keep the shared timer thread free
+                                primaryRegistration.getContainer().executeTasks(Collections.<Runnable>singletonList(new Runnable() {
+                                    public void run() {
+                                        timedOut();
+                                    }
+                                }));
+                            }
+                        }, startNanos + stopTimeout);
+                    }
                 } else if (state == ContextState.SYNC_ASYNC_COMPLETE) {
                     state = ContextState.COMPLETE;
                 } else if (state == ContextState.SYNC_ASYNC_FAILED) {
@@ -2455,16 +3186,77 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
 
         public void complete() throws IllegalStateException {
             synchronized (ServiceControllerImpl.this) {
-                if (state == ContextState.COMPLETE || state == ContextState.SYNC_ASYNC_COMPLETE) {
+                if (state == ContextState.TIMED_OUT) {
+                    ServiceLogger.FAIL.completedAfterTimeout(getName());
+                    state = ContextState.COMPLETE;
+                } else if (state == ContextState.COMPLETE || state == ContextState.SYNC_ASYNC_COMPLETE) {
                     throw new IllegalStateException(ILLEGAL_CONTROLLER_STATE);
                 }
                 if (state == ContextState.ASYNC) {
                     state = ContextState.COMPLETE;
+                    if (timeout != null) {
+                        timeout.cancel();
+                        timeout = null;
+                    }
                 }
                 if (state == ContextState.SYNC) {
                     state = ContextState.SYNC_ASYNC_COMPLETE;
                 }
             }
+            stopped();
+            releasePermit();
+        }
+
+        /**
+         * Stop counting the stop as unstable because it did not complete in time.  The controller stays in
+         * {@code STOPPING}, so the service cannot be started again before its stop completes.
+         */
+        private void timedOut() {
+            synchronized (ServiceControllerImpl.this) {
+                if (state != ContextState.ASYNC) {
+                    return;
+                }
+                state = ContextState.TIMED_OUT;
+                final boolean leavingRestState = isStableRestState();
+                // Subtract one for this task until the stop completes
+                asyncTasks --;
+                stopTimedOut = true;
+                updateStabilityState(leavingRestState);
+            }
+            ServiceLogger.FAIL.stopTimedOut(getName(), TimeUnit.NANOSECONDS.toMillis(stopTimeout));
+        }
+
+        /**
+         * Take over the bulkhead permit of the stop task if the stop is still running asynchronously, even if it timed
+         * out already.  Call under the controller lock.
+         *
+         * @param permit the bulkhead which gave the stop task its permit, or {@code null} if it has none
+         * @return {@code true} if the permit was taken over
+         */
+        private boolean keepPermit(final ServiceContainerImpl.Bulkhead permit) {
+            assert holdsLock(ServiceControllerImpl.this);
+            if (permit == null || state != ContextState.ASYNC && state != ContextState.TIMED_OUT) {
+                return false;
+            }
+            this.permit = permit;
+            return true;
+        }
+
+        /**
+         * Release the bulkhead permit which this context took over, if any, now that the stop is done.
+         */
+        private void releasePermit() {
+            final ServiceContainerImpl.Bulkhead permit;
+            synchronized (ServiceControllerImpl.this) {
+                permit = this.permit;
+                this.permit = null;
+            }
+            if (permit != null) {
+                permit.release();
+            }
+        }
+
+        private void stopped() {
             for (ValueInjection<?> injection : injections) {
                 injection.getTarget().uninject();
             }
@@ -2474,8 +3266,13 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
                 if (ServiceContainerImpl.PROFILE_OUTPUT != null) {
                     writeProfileInfo('X', startNanos, System.nanoTime());
                 }
-                // Subtract one for this task
-                asyncTasks --;
+                if (stopTimedOut) {
+                    // already subtracted when the stop timed out
+                    stopTimedOut = false;
+                } else {
+                    // Subtract one for this task
+                    asyncTasks --;
+                }
                 transition(tasks);
                 asyncTasks += tasks.size();
                 updateStabilityState(leavingRestState);
@@ -2488,12 +3285,7 @@ final class ServiceControllerImpl<S> implements ServiceController<S>, Dependent
         }
 
         public void execute(final Runnable command) {
-            final ClassLoader contextClassLoader = setTCCL(command.getClass().getClassLoader());
-            try {
-                command.run();
-            } finally {
-                setTCCL(contextClassLoader);
-            }
+            doLifecycleExecute(command);
         }
 
         public long getElapsedTime() {
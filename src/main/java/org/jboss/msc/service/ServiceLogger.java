@@ -102,4 +102,24 @@ interface ServiceLogger {
 
     @Message(id = 11, value = "Service not started")
     IllegalStateException serviceNotStarted();
+
+    @LogMessage(level = WARN)
+    @Message(id = 12, value = "Virtual threads are not supported by this JVM; services of container %s are started and stopped on its thread pool")
+    void virtualThreadsUnsupported(String containerName);
+
+    @LogMessage(level = WARN)
+    @Message(id = 13, value = "Lifecycle context of %s was completed after it had already timed out")
+    void completedAfterTimeout(ServiceName serviceName);
+
+    @LogMessage(level = WARN)
+    @Message(id = 14, value = "Stop of %s did not complete within %d ms; the service stays stopping until it does")
+    void stopTimedOut(ServiceName serviceName, long timeoutMillis);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 15, value = "Stability listener %s threw an exception")
+    void stabilityListenerFailed(@Cause Throwable cause, StabilityListener listener);
+
+    @LogMessage(level = WARN)
+    @Message(id = 16, value = "Unknown service start order \"%s\"; services are started in FIFO order")
+    void unknownStartOrder(String startOrder);
 }
@@ -52,13 +52,23 @@ public final class ServiceName implements Comparable<ServiceName>, Serializable
     private volatile String canonicalName;
     private final ServiceName parent;
     private final transient int hashCode;
+    /**
+     * Indicates whether this is the canonical instance of its name, as returned by {@link #intern()}.  It is set before
+     * the name is published in the intern table, and never cleared; a thread which sees {@code false} for a canonical
+     * name only misses a shortcut.
+     */
+    private transient boolean interned;
 
     private static final AtomicReferenceFieldUpdater<ServiceName, String> canonicalNameUpdater = AtomicReferenceFieldUpdater.newUpdater(ServiceName.class, String.class, "canonicalName");
 
+    private static final ServiceNameTable internTable = new ServiceNameTable();
+
+    private static final ServiceNameCache parseCache = new ServiceNameCache(1024);
+
     /**
      * The root name "jboss".
      */
-    public static final ServiceName JBOSS = new ServiceName(null, "jboss");
+    public static final ServiceName JBOSS = new ServiceName(null, "jboss").intern();
 
     /**
      * Create a ServiceName from a series of String parts.
@@ -131,6 +141,33 @@ public final class ServiceName implements Comparable<ServiceName>, Serializable
         }
     }
 
+    /**
+     * Get the canonical instance of this service name.  All names which are equal to each other have the same
+     * canonical instance, whose parent is canonical as well, so comparing canonical names is a matter of comparing
+     * references.  Canonical names are only weakly held, so interning names which are dropped later does not leak
+     * memory.
+     *
+     * @return the canonical service name equal to this one
+     */
+    public ServiceName intern() {
+        if (interned) {
+            return this;
+        }
+        final ServiceName parent = this.parent == null ? null : this.parent.intern();
+        final ServiceName canonical = internTable.get(parent, name, hashCode);
+        if (canonical != null) {
+            return canonical;
+        }
+        return internTable.putIfAbsent(parent == this.parent ? this : new ServiceName(parent, name));
+    }
+
+    /**
+     * Mark this name as canonical.  Called by the intern table before it publishes this name.
+     */
+    void setInterned() {
+        interned = true;
+    }
+
     /**
      * Get the length (in segments) of this service name.
      *
@@ -226,7 +263,7 @@ public final class ServiceName implements Comparable<ServiceName>, Serializable
         if (o == this) {
             return true;
         }
-        if (o == null || hashCode != o.hashCode || ! name.equals(o.name)) {
+        if (o == null || hashCode != o.hashCode || interned && o.interned || ! name.equals(o.name)) {
             return false;
         }
 
@@ -296,6 +333,50 @@ public final class ServiceName implements Comparable<ServiceName>, Serializable
      * @throws IllegalArgumentException if the original is not valid
      */
     public static ServiceName parse(String original) throws IllegalArgumentException {
+        // names are parsed again and again by management clients, so recently parsed names are kept
+        ServiceName name = parseCache.get(original);
+        if (name == null) {
+            name = parseSimple(original);
+            if (name == null) {
+                name = parseQuoted(original);
+            }
+            parseCache.put(original, name);
+        }
+        return name;
+    }
+
+    /**
+     * Parse a string-form service name made of printable ASCII characters without quoted sections, which is the
+     * form of most names.  Such a string is also the canonical name of the service name.
+     *
+     * @param original the string form of a service name
+     * @return a {@code ServiceName} instance, or {@code null} if the original is not of this form or is not valid
+     */
+    private static ServiceName parseSimple(final String original) {
+        final int originalLength = original.length();
+        char previous = '.';
+        for (int i = 0; i < originalLength; i++) {
+            final char c = original.charAt(i);
+            if (c <= ' ' || c >= 0x7f || c == '"' || c == '\\' || c == '.' && previous == '.') {
+                return null;
+            }
+            previous = c;
+        }
+        if (previous == '.') {
+            // empty, or an empty last segment
+            return null;
+        }
+        ServiceName current = null;
+        int start = 0;
+        for (int end; (end = original.indexOf('.', start)) != -1; start = end + 1) {
+            current = new ServiceName(current, original.substring(start, end));
+        }
+        current = new ServiceName(current, original.substring(start));
+        current.canonicalName = original;
+        return current;
+    }
+
+    private static ServiceName parseQuoted(final String original) {
         final int originalLength = original.length();
         final List<String> segments = new ArrayList<String>();
         final StringBuilder builder = new StringBuilder();
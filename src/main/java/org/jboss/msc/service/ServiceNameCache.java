@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of parsed service names, keyed by their string form.  The cache is split into small sets of
+ * {@link #WAYS} entries, selected by the hash code of the string.  When a set is full, a new entry replaces the first
+ * one found which was not used since the replacement hand of the set last passed it, as in a clock cache.
+ * <p>
+ * The string and name of an entry never change, and an entry is replaced with a single write, so neither lookups nor
+ * additions lock.  Only the used flag of an entry is written after it is added: a lookup sets it if it is clear, so that
+ * hits on hot entries do not keep writing to shared memory, and the replacement hand clears it.  Races on the flag only
+ * affect which entry is replaced.  Two threads adding to the same set at once may replace the same entry; that only
+ * costs a later miss.
+ */
+final class ServiceNameCache {
+
+    private static final int WAYS = 4;
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final byte[] hands;
+    private final int setMask;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param capacity the maximum number of names, rounded up to a power of two of at least {@link #WAYS}
+     */
+    ServiceNameCache(final int capacity) {
+        int sets = 1;
+        while (sets * WAYS < capacity) {
+            sets <<= 1;
+        }
+        entries = new AtomicReferenceArray<Entry>(sets * WAYS);
+        hands = new byte[sets];
+        setMask = sets - 1;
+    }
+
+    /**
+     * Get the cached name for a string.
+     *
+     * @param string the string form of the name
+     * @return the name, or {@code null} if it is not cached
+     */
+    ServiceName get(final String string) {
+        final int hash = string.hashCode();
+        final int base = setOf(hash) * WAYS;
+        for (int i = base; i < base + WAYS; i++) {
+            final Entry entry = entries.get(i);
+            if (entry != null && entry.hash == hash && entry.string.equals(string)) {
+                if (! entry.used) {
+                    entry.used = true;
+                }
+                return entry.name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a name to the cache, replacing an entry which was not used lately if there is no free one.
+     *
+     * @param string the string form of the name
+     * @param name the name
+     */
+    void put(final String string, final ServiceName name) {
+        final int hash = string.hashCode();
+        final int set = setOf(hash);
+        final int base = set * WAYS;
+        final Entry entry = new Entry(string, hash, name);
+        for (int i = base; i < base + WAYS; i++) {
+            if (entries.get(i) == null) {
+                entries.set(i, entry);
+                return;
+            }
+        }
+        // every entry gets a second chance, so this takes at most two rounds
+        int hand = hands[set];
+        for (;;) {
+            final Entry victim = entries.get(base + hand);
+            hand = (hand + 1) & (WAYS - 1);
+            if (victim.used) {
+                victim.used = false;
+            } else {
+                hands[set] = (byte) hand;
+                entries.set(base + ((hand - 1) & (WAYS - 1)), entry);
+                return;
+            }
+        }
+    }
+
+    private int setOf(final int hash) {
+        return (hash ^ (hash >>> 16)) & setMask;
+    }
+
+    private static final class Entry {
+        private final String string;
+        private final int hash;
+        private final ServiceName name;
+        // only a hint for the replacement, so races are harmless
+        private boolean used;
+
+        Entry(final String string, final int hash, final ServiceName name) {
+            this.string = string;
+            this.hash = hash;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The names of the installed services of a container, as a tree of name segments.  Each node of the tree counts the
+ * installed names below it, so that the names under a given name are listed in time proportional to their number.  A
+ * node is removed once no installed name is left below it.
+ * <p>
+ * No method locks, so that installations and removals do not serialize on the index, and listing the names never blocks
+ * them.  An addition counts itself on every node of its path from the root down, and a removal uncounts itself from the
+ * leaf up; a node whose count drops to zero is marked dead before it is unlinked, and an addition which meets a dead
+ * node replaces it.  The root is never marked dead.  Listing is weakly consistent: it sees the names which were
+ * installed before it started and not removed before it finished, and may or may not see the others.  Additions and
+ * removals of one name must not run concurrently, which the registration lock ensures.
+ */
+final class ServiceNameIndex {
+
+    private final Node root = new Node(null);
+
+    /**
+     * Add an installed name.
+     *
+     * @param name the name, which must not be in the index
+     */
+    void add(final ServiceName name) {
+        final String[] segments = segments(name);
+        final boolean counted = root.enter();
+        assert counted;
+        Node node = root;
+        for (String segment : segments) {
+            final ConcurrentMap<String, Node> children = node.getOrCreateChildren();
+            for (;;) {
+                Node child = children.get(segment);
+                if (child == null) {
+                    final Node newChild = new Node(segment);
+                    child = children.putIfAbsent(segment, newChild);
+                    if (child == null) {
+                        child = newChild;
+                    }
+                }
+                if (child.enter()) {
+                    node = child;
+                    break;
+                }
+                // the node was emptied and is being unlinked; replace it
+                children.remove(segment, child);
+            }
+        }
+        assert node.name == null;
+        node.name = name;
+    }
+
+    /**
+     * Remove a name which is no longer installed.
+     *
+     * @param name the name, which must be in the index
+     */
+    void remove(final ServiceName name) {
+        final String[] segments = segments(name);
+        final Node[] path = new Node[segments.length + 1];
+        Node node = path[0] = root;
+        for (int i = 0; i < segments.length; i ++) {
+            node = path[i + 1] = node.children.get(segments[i]);
+        }
+        assert node.name == name;
+        node.name = null;
+        for (int i = path.length - 1; i > 0; i --) {
+            if (path[i].leave()) {
+                path[i - 1].children.remove(path[i].segment, path[i]);
+            }
+        }
+        // the root is never unlinked, so it must never die either
+        root.leaveAlive();
+    }
+
+    /**
+     * Get the installed names under the given name, including the name itself, in no particular order.
+     *
+     * @param name the name, or {@code null} for all installed names
+     * @return the names
+     */
+    List<ServiceName> names(final ServiceName name) {
+        Node start = root;
+        if (name != null) {
+            for (String segment : segments(name)) {
+                final ConcurrentMap<String, Node> children = start.children;
+                start = children == null ? null : children.get(segment);
+                if (start == null) {
+                    return new ArrayList<ServiceName>(0);
+                }
+            }
+        }
+        final List<ServiceName> result = new ArrayList<ServiceName>(Math.max(0, start.count));
+        final ArrayList<Node> stack = new ArrayList<Node>();
+        stack.add(start);
+        while (! stack.isEmpty()) {
+            final Node node = stack.remove(stack.size() - 1);
+            final ServiceName nodeName = node.name;
+            if (nodeName != null) {
+                result.add(nodeName);
+            }
+            final ConcurrentMap<String, Node> children = node.children;
+            if (children != null) {
+                stack.addAll(children.values());
+            }
+        }
+        return result;
+    }
+
+    private static String[] segments(final ServiceName name) {
+        int depth = 0;
+        for (ServiceName current = name; current != null; current = current.getParent()) {
+            depth ++;
+        }
+        final String[] segments = new String[depth];
+        for (ServiceName current = name; current != null; current = current.getParent()) {
+            segments[-- depth] = current.getSimpleName();
+        }
+        return segments;
+    }
+
+    private static final class Node {
+        private static final int DEAD = -1;
+
+        private static final AtomicIntegerFieldUpdater<Node> countUpdater = AtomicIntegerFieldUpdater.newUpdater(Node.class, "count");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, ConcurrentMap> childrenUpdater = AtomicReferenceFieldUpdater.newUpdater(Node.class, ConcurrentMap.class, "children");
+
+        private final String segment;
+        /**
+         * The installed name of this node, or {@code null} if there is none.
+         */
+        private volatile ServiceName name;
+        /**
+         * The number of installed names at or below this node, including those being added, or {@link #DEAD} once it
+         * dropped to zero.  A dead node is never used again.
+         */
+        private volatile int count;
+        private volatile ConcurrentMap<String, Node> children;
+
+        Node(final String segment) {
+            this.segment = segment;
+        }
+
+        /**
+         * Count a name being added below this node.
+         *
+         * @return {@code true} if it was counted, or {@code false} if this node is dead
+         */
+        boolean enter() {
+            int current;
+            do {
+                current = count;
+                if (current == DEAD) {
+                    return false;
+                }
+            } while (! countUpdater.compareAndSet(this, current, current + 1));
+            return true;
+        }
+
+        /**
+         * Uncount a name removed from below this node.
+         *
+         * @return {@code true} if this node is now empty and dead, and must be unlinked from its parent
+         */
+        boolean leave() {
+            return countUpdater.decrementAndGet(this) == 0 && countUpdater.compareAndSet(this, 0, DEAD);
+        }
+
+        /**
+         * Uncount a name removed from below this node, without ever marking it dead.
+         */
+        void leaveAlive() {
+            countUpdater.decrementAndGet(this);
+        }
+
+        ConcurrentMap<String, Node> getOrCreateChildren() {
+            final ConcurrentMap<String, Node> children = this.children;
+            if (children != null) {
+                return children;
+            }
+            childrenUpdater.compareAndSet(this, null, new ConcurrentHashMap<String, Node>(4, 0.75f, 1));
+            return this.children;
+        }
+    }
+}
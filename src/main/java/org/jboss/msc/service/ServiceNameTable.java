@@ -0,0 +1,210 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The table of canonical service names used by {@link ServiceName#intern()}.  A canonical name is identified by its
+ * canonical parent, compared by identity, and its simple name.  Names are only weakly referenced, so a canonical name
+ * which is no longer used elsewhere is dropped from the table.
+ * <p>
+ * The table is split into segments.  Lookups take no lock; additions lock the segment of the name, and remove the
+ * entries of collected names from it first.
+ */
+final class ServiceNameTable {
+
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment[] segments;
+
+    ServiceNameTable() {
+        segments = new Segment[1 << SEGMENT_SHIFT];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Get the canonical name with the given parent and simple name.
+     *
+     * @param parent the canonical parent, or {@code null}
+     * @param name the simple name
+     * @param hashCode the hash code of the name
+     * @return the canonical name, or {@code null} if there is none
+     */
+    ServiceName get(final ServiceName parent, final String name, final int hashCode) {
+        final int hash = spread(hashCode);
+        return segmentFor(hash).get(parent, name, hash);
+    }
+
+    /**
+     * Make the given name canonical, unless there is a canonical name equal to it already.  Only the name which is
+     * added to the table is marked as interned.
+     *
+     * @param candidate the name, whose parent must be canonical
+     * @return the canonical name equal to {@code candidate}
+     */
+    ServiceName putIfAbsent(final ServiceName candidate) {
+        final int hash = spread(candidate.hashCode());
+        return segmentFor(hash).putIfAbsent(candidate, hash);
+    }
+
+    /**
+     * Get the number of canonical names, including the names which were collected but not yet removed.
+     *
+     * @return the number of names
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(final int hash) {
+        return segments[hash >>> (32 - SEGMENT_SHIFT)];
+    }
+
+    private static int spread(final int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    private static boolean matches(final ServiceName serviceName, final ServiceName parent, final String name) {
+        return serviceName != null && serviceName.getParent() == parent && serviceName.getSimpleName().equals(name);
+    }
+
+    private static final class Entry extends WeakReference<ServiceName> {
+        private final int hash;
+        private final Entry next;
+
+        Entry(final ServiceName referent, final int hash, final Entry next, final ReferenceQueue<ServiceName> queue) {
+            super(referent, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    private static final class Segment {
+        private final ReferenceQueue<ServiceName> queue = new ReferenceQueue<ServiceName>();
+        // chains are never modified once published, so they can be read without the lock
+        private volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<Entry>(INITIAL_CAPACITY);
+        private int size;
+        private int threshold = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+
+        ServiceName get(final ServiceName parent, final String name, final int hash) {
+            final AtomicReferenceArray<Entry> table = this.table;
+            for (Entry e = table.get(hash & (table.length() - 1)); e != null; e = e.next) {
+                if (e.hash == hash) {
+                    final ServiceName serviceName = e.get();
+                    if (matches(serviceName, parent, name)) {
+                        return serviceName;
+                    }
+                }
+            }
+            return null;
+        }
+
+        synchronized ServiceName putIfAbsent(final ServiceName candidate, final int hash) {
+            expungeStaleEntries();
+            final ServiceName parent = candidate.getParent();
+            final String name = candidate.getSimpleName();
+            final AtomicReferenceArray<Entry> table = this.table;
+            final int index = hash & (table.length() - 1);
+            final Entry head = table.get(index);
+            for (Entry e = head; e != null; e = e.next) {
+                if (e.hash == hash) {
+                    final ServiceName serviceName = e.get();
+                    if (matches(serviceName, parent, name)) {
+                        return serviceName;
+                    }
+                }
+            }
+            candidate.setInterned();
+            table.set(index, new Entry(candidate, hash, head, queue));
+            if (++size > threshold) {
+                resize();
+            }
+            return candidate;
+        }
+
+        private void expungeStaleEntries() {
+            Reference<? extends ServiceName> reference;
+            while ((reference = queue.poll()) != null) {
+                final Entry stale = (Entry) reference;
+                final AtomicReferenceArray<Entry> table = this.table;
+                final int index = stale.hash & (table.length() - 1);
+                final Entry head = table.get(index);
+                // entries copied by a resize are queued as well, so an entry may no longer be in the table
+                for (Entry e = head; e != null; e = e.next) {
+                    if (e == stale) {
+                        table.set(index, without(head, stale));
+                        size--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private Entry without(final Entry head, final Entry removed) {
+            Entry result = removed.next;
+            for (Entry e = head; e != removed; e = e.next) {
+                final ServiceName serviceName = e.get();
+                if (serviceName != null) {
+                    result = new Entry(serviceName, e.hash, result, queue);
+                } else {
+                    size--;
+                }
+            }
+            return result;
+        }
+
+        private void resize() {
+            final AtomicReferenceArray<Entry> table = this.table;
+            final int length = table.length() << 1;
+            final AtomicReferenceArray<Entry> newTable = new AtomicReferenceArray<Entry>(length);
+            int size = 0;
+            for (int i = 0; i < table.length(); i++) {
+                for (Entry e = table.get(i); e != null; e = e.next) {
+                    final ServiceName serviceName = e.get();
+                    if (serviceName != null) {
+                        final int index = e.hash & (length - 1);
+                        newTable.set(index, new Entry(serviceName, e.hash, newTable.get(index), queue));
+                        size++;
+                    }
+                }
+            }
+            this.size = size;
+            threshold = (int) (length * LOAD_FACTOR);
+            this.table = newTable;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import static java.lang.Thread.holdsLock;
  */
 final class ServiceRegistrationImpl implements Dependency {
 
+    private static final Dependent[] NO_DEPENDENTS = new Dependent[0];
 
     /**
      * The service container which contains this registration.
@@ -46,18 +47,35 @@ final class ServiceRegistrationImpl implements Dependency {
      * The set of dependents on this registration.
      */
     private final IdentityHashSet<Dependent> dependents = new IdentityHashSet<Dependent>(0);
+    /**
+     * An immutable copy of {@link #dependents}, without {@code null} entries, or {@code null} if a dependent was added
+     * or removed since it was made.  It is made on demand under the dependents lock, so that the controller
+     * transitions can share it without copying, while adding many dependents in a row copies nothing.
+     */
+    private volatile Dependent[] dependentsSnapshot = NO_DEPENDENTS;
 
     // Mutable properties
 
     /**
-     * The current instance.
+     * The current instance.  It is only changed under the lock of this registration, but it is volatile so that
+     * lookups can read it without taking the lock.
      */
-    private ServiceControllerImpl<?> instance;
+    private volatile ServiceControllerImpl<?> instance;
     /**
      * The number of dependent instances which place a demand-to-start on this registration.  If this value is >0,
      * propagate a demand to the instance, if any.
      */
     private int demandedByCount;
+    /**
+     * The number of installations which are about to use this registration.  While it is >0, this registration is not
+     * reclaimed, even if it is unused.
+     */
+    private int pinCount;
+    /**
+     * Indicates whether this registration was removed from the registry, because it had no instance, no dependents and
+     * no demand.  A reclaimed registration is never used again: a new one is created for its name instead.
+     */
+    private boolean reclaimed;
 
     ServiceRegistrationImpl(final ServiceContainerImpl container, final ServiceName name) {
         this.container = container;
@@ -73,6 +91,31 @@ final class ServiceRegistrationImpl implements Dependency {
         return dependents;
     }
 
+    /**
+     * Returns the current dependents snapshot, copying the dependents if they changed since the last call.  The
+     * returned array must not be modified.
+     *
+     * @return the dependents, as an array without {@code null} entries
+     */
+    Dependent[] getDependentsSnapshot() {
+        Dependent[] snapshot = dependentsSnapshot;
+        if (snapshot == null) {
+            synchronized (dependents) {
+                snapshot = dependentsSnapshot;
+                if (snapshot == null) {
+                    final int size = dependents.size();
+                    dependentsSnapshot = snapshot = size == 0 ? NO_DEPENDENTS : dependents.toArray(new Dependent[size]);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    private void invalidateDependentsSnapshot() {
+        assert holdsLock(dependents);
+        dependentsSnapshot = null;
+    }
+
     /**
      * Add a dependent to this controller.
      *
@@ -85,6 +128,7 @@ final class ServiceRegistrationImpl implements Dependency {
         final ServiceControllerImpl<?> instance;
         final ArrayList<Runnable> tasks = new ArrayList<Runnable>();
         synchronized (this) {
+            assert ! reclaimed;
             synchronized (dependents) {
                 if (dependents.contains(dependent)) {
                     throw new IllegalStateException("Dependent already exists on this registration");
@@ -95,6 +139,7 @@ final class ServiceRegistrationImpl implements Dependency {
                 dependent.immediateDependencyUnavailable(name);
                 synchronized (dependents) {
                     dependents.add(dependent);
+                    invalidateDependentsSnapshot();
                 }
                 return;
             }
@@ -102,7 +147,9 @@ final class ServiceRegistrationImpl implements Dependency {
                 final boolean leavingRestState = instance.isStableRestState();
                 synchronized (dependents) {
                     dependents.add(dependent);
+                    invalidateDependentsSnapshot();
                 }
+                instance.invalidateStartRank();
                 // if instance is not fully installed yet, we need to be on a synchronized(instance) block to avoid
                 // creation and execution of ServiceAvailableTask before immediateDependencyUnavailable is invoked on
                 // new dependent
@@ -139,8 +186,15 @@ final class ServiceRegistrationImpl implements Dependency {
         assert ! holdsLock(this);
         assert ! holdsLock(dependent);
         synchronized (dependents) {
-            dependents.remove(dependent);
+            if (dependents.remove(dependent)) {
+                invalidateDependentsSnapshot();
+            }
         }
+        final ServiceControllerImpl<?> instance = this.instance;
+        if (instance != null) {
+            instance.invalidateStartRank();
+        }
+        reclaimIfUnused();
     }
 
     /**
@@ -154,10 +208,12 @@ final class ServiceRegistrationImpl implements Dependency {
         assert ! holdsLock(this);
         assert ! holdsLock(instance);
         synchronized (this) {
+            assert ! reclaimed;
             if (this.instance != null) {
                 throw new DuplicateServiceException(String.format("Service %s is already registered", name.getCanonicalName()));
             }
             this.instance = instance;
+            container.getServiceNameIndex().add(name);
             if (demandedByCount > 0) instance.addDemands(demandedByCount);
         }
     }
@@ -170,7 +226,52 @@ final class ServiceRegistrationImpl implements Dependency {
                 return;
             }
             this.instance = null;
+            container.getServiceNameIndex().remove(name);
+        }
+        reclaimIfUnused();
+    }
+
+    /**
+     * Keep this registration from being reclaimed until {@link #unpin()} is called, so that an installation can use it.
+     *
+     * @return {@code true} if this registration is pinned, {@code false} if it was already reclaimed
+     */
+    synchronized boolean pin() {
+        if (reclaimed) {
+            return false;
+        }
+        pinCount++;
+        return true;
+    }
+
+    /**
+     * Release a pin of an installation which is done with this registration.
+     */
+    void unpin() {
+        assert ! holdsLock(this);
+        synchronized (this) {
+            pinCount--;
+        }
+        reclaimIfUnused();
+    }
+
+    /**
+     * Remove this registration from the registry if it has no instance, no dependents, no demand and no pin.
+     */
+    private void reclaimIfUnused() {
+        assert ! holdsLock(this);
+        synchronized (this) {
+            if (reclaimed || instance != null || demandedByCount > 0 || pinCount > 0) {
+                return;
+            }
+            synchronized (dependents) {
+                if (! dependents.isEmpty()) {
+                    return;
+                }
+            }
+            reclaimed = true;
         }
+        container.removeRegistration(this);
     }
 
     ServiceContainerImpl getContainer() {
@@ -180,10 +281,7 @@ final class ServiceRegistrationImpl implements Dependency {
     @Override
     public void dependentStopped() {
         assert ! holdsLock(this);
-        final ServiceControllerImpl<?> instance;
-        synchronized (this) {
-            instance = this.instance;
-        }
+        final ServiceControllerImpl<?> instance = this.instance;
         if (instance != null) {
             instance.dependentStopped();
         }
@@ -191,13 +289,11 @@ final class ServiceRegistrationImpl implements Dependency {
 
     @Override
     public Object getValue() throws IllegalStateException {
-        synchronized (this) {
-            final ServiceControllerImpl<?> instance = this.instance;
-            if (instance == null) {
-                throw new IllegalStateException("Service is not installed");
-            } else {
-                return instance.getValue();
-            }
+        final ServiceControllerImpl<?> instance = this.instance;
+        if (instance == null) {
+            throw new IllegalStateException("Service is not installed");
+        } else {
+            return instance.getValue();
         }
     }
 
@@ -243,12 +339,12 @@ final class ServiceRegistrationImpl implements Dependency {
         }
         if (instance != null) {
             instance.removeDemand();
+        } else {
+            reclaimIfUnused();
         }
     }
 
     ServiceControllerImpl<?> getInstance() {
-        synchronized (this) {
-            return instance;
-        }
+        return instance;
     }
 }
@@ -55,4 +55,14 @@ public interface ServiceRegistry {
      * @return the list
      */
     List<ServiceName> getServiceNames();
+
+    /**
+     * Get a list of the names of the services installed in this registry which are the given name or start with it,
+     * such as the services of a deployment unit.  The time taken is proportional to the number of names found, not
+     * to the number of services in the registry.
+     *
+     * @param name the name, which need not belong to a service itself
+     * @return the list, in no particular order
+     */
+    List<ServiceName> getServiceNames(ServiceName name);
 }
@@ -0,0 +1,210 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceController.Substate;
+
+/**
+ * The installed services of a container, grouped by their substate.  Each group is split into stripes, which are
+ * doubly linked lists threaded through the controllers themselves, so that a transition moves a controller between
+ * groups without allocating or searching, and the services in a state can be listed in time proportional to their
+ * number.  A service joins the index when its installation starts and leaves it when it reaches
+ * {@link Substate#REMOVED REMOVED}.
+ * <p>
+ * A controller always uses the stripe selected by its identity hash code, in whichever group it is, so that transitions
+ * of different services on different threads rarely contend for the same stripe, even when they move between the
+ * same substates, as they do while a large number of services boots.  Each stripe synchronizes on itself.
+ * Controllers are moved while their own lock is held, so the stripe locks are taken after controller locks, and
+ * nothing is called out while holding them.
+ */
+final class ServiceStateIndex {
+
+    private static final Substate[] SUBSTATES = Substate.values();
+    private static final int STRIPES;
+
+    static {
+        // enough stripes that the threads of a container seldom meet on one
+        int stripes = 4;
+        final int processors = Runtime.getRuntime().availableProcessors();
+        while (stripes < processors * 4 && stripes < 256) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    /**
+     * The stripes of each substate, in order of the substates.
+     */
+    private final Stripe[] stripes;
+
+    ServiceStateIndex() {
+        stripes = new Stripe[SUBSTATES.length * STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Add a service which is being installed.
+     *
+     * @param controller the service
+     * @param substate its current substate
+     */
+    void add(final ServiceControllerImpl<?> controller, final Substate substate) {
+        if (substate != Substate.REMOVED) {
+            stripeOf(controller, substate).add(controller);
+        }
+    }
+
+    /**
+     * Move a service to the group of its new substate, removing it if the new substate is
+     * {@link Substate#REMOVED REMOVED}.
+     *
+     * @param controller the service
+     * @param before its previous substate
+     * @param after its new substate
+     */
+    void move(final ServiceControllerImpl<?> controller, final Substate before, final Substate after) {
+        if (before == after) {
+            return;
+        }
+        stripeOf(controller, before).remove(controller);
+        add(controller, after);
+    }
+
+    /**
+     * Count the installed services in a substate.
+     *
+     * @param substate the substate
+     * @return the number of services
+     */
+    int count(final Substate substate) {
+        final int base = substate.ordinal() * STRIPES;
+        int count = 0;
+        for (int i = base; i < base + STRIPES; i++) {
+            count += stripes[i].size;
+        }
+        return count;
+    }
+
+    /**
+     * Count the installed services in a state.
+     *
+     * @param state the state
+     * @return the number of services
+     */
+    int count(final State state) {
+        int count = 0;
+        for (Substate substate : SUBSTATES) {
+            if (substate.getState() == state) {
+                count += count(substate);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the installed services in a state.  The services may have left the state by the time this method returns.
+     *
+     * @param state the state
+     * @return the services
+     */
+    List<ServiceControllerImpl<?>> getControllers(final State state) {
+        final List<ServiceControllerImpl<?>> result = new ArrayList<ServiceControllerImpl<?>>(count(state));
+        for (Substate substate : SUBSTATES) {
+            if (substate.getState() == state) {
+                addTo(substate, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the installed services in a substate.  The services may have left the substate by the time this method
+     * returns.
+     *
+     * @param substate the substate
+     * @return the services
+     */
+    List<ServiceControllerImpl<?>> getControllers(final Substate substate) {
+        final List<ServiceControllerImpl<?>> result = new ArrayList<ServiceControllerImpl<?>>(count(substate));
+        addTo(substate, result);
+        return result;
+    }
+
+    private void addTo(final Substate substate, final List<ServiceControllerImpl<?>> result) {
+        final int base = substate.ordinal() * STRIPES;
+        for (int i = base; i < base + STRIPES; i++) {
+            stripes[i].addTo(result);
+        }
+    }
+
+    private Stripe stripeOf(final ServiceControllerImpl<?> controller, final Substate substate) {
+        final int hash = System.identityHashCode(controller);
+        return stripes[substate.ordinal() * STRIPES + ((hash ^ (hash >>> 16)) & (STRIPES - 1))];
+    }
+
+    private static final class Stripe {
+        private ServiceControllerImpl<?> head;
+        // read without the lock for counting
+        private volatile int size;
+
+        synchronized void add(final ServiceControllerImpl<?> controller) {
+            assert controller.getPreviousInState() == null && controller.getNextInState() == null && head != controller;
+            final ServiceControllerImpl<?> head = this.head;
+            if (head != null) {
+                head.setPreviousInState(controller);
+            }
+            controller.setNextInState(head);
+            this.head = controller;
+            size ++;
+        }
+
+        synchronized void remove(final ServiceControllerImpl<?> controller) {
+            final ServiceControllerImpl<?> previous = controller.getPreviousInState();
+            final ServiceControllerImpl<?> next = controller.getNextInState();
+            if (previous == null) {
+                assert head == controller;
+                head = next;
+            } else {
+                previous.setNextInState(next);
+            }
+            if (next != null) {
+                next.setPreviousInState(previous);
+            }
+            controller.setPreviousInState(null);
+            controller.setNextInState(null);
+            size --;
+        }
+
+        synchronized void addTo(final List<ServiceControllerImpl<?>> result) {
+            for (ServiceControllerImpl<?> controller = head; controller != null; controller = controller.getNextInState()) {
+                result.add(controller);
+            }
+        }
+    }
+}
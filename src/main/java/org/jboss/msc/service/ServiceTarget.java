@@ -23,7 +23,10 @@
 package org.jboss.msc.service;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.msc.value.Value;
 
@@ -56,6 +59,23 @@ public interface ServiceTarget {
      * @return the builder for the service
      */
     <T> ServiceBuilder<T> addService(ServiceName name, Service<T> service);
+
+    /**
+     * Install several services at once.  This is equivalent to calling {@link ServiceBuilder#install()} on each of the
+     * builders, except that the installation is all or nothing: the registrations of all builders are created
+     * together, duplicate names and dependency cycles are checked for the whole set before any service is committed,
+     * and if one of the services cannot be installed, none of them is.  Dependencies among the given services may be
+     * given in any order.
+     *
+     * @param builders the builders of the services to install, which must have been obtained from this target and not
+     * be installed yet
+     * @return the installed service controllers, in the iteration order of {@code builders}
+     * @throws IllegalArgumentException if a builder was not obtained from this target, or is given more than once
+     * @throws IllegalStateException if a builder is already installed
+     * @throws ServiceRegistryException if the services cannot be installed, e.g. due to a duplicate name or a
+     * dependency cycle
+     */
+    List<ServiceController<?>> install(Collection<? extends ServiceBuilder<?>> builders) throws ServiceRegistryException;
     
     /**
      * Add a stability monitor that will be added to all the ServiceBuilders installed in this target.
@@ -166,6 +186,55 @@ public interface ServiceTarget {
      */
     Set<ServiceName> getDependencies();
 
+    /**
+     * Set the executor on which the services installed in this target are started and stopped.  The container keeps
+     * running its own bookkeeping tasks, but the start and stop methods of these services, including any tasks they
+     * submit to their lifecycle context, run on the given executor, isolating them from services in other
+     * targets.  The executor and concurrency limit of a target apply to its sub-targets and to the child targets of
+     * the services installed in it, unless these set an executor or concurrency limit of their own.  The executor is
+     * not shut down by the container.
+     *
+     * @param executor the executor to use, or {@code null} to remove the executor of this target
+     * @return this target
+     * @throws IllegalStateException if the container is shut down
+     */
+    ServiceTarget setExecutor(Executor executor) throws IllegalStateException;
+
+    /**
+     * Set the maximum number of starts and stops of the services installed in this target which may be in progress at
+     * the same time.  An {@linkplain StartContext#asynchronous() asynchronous} start or stop counts until it completes
+     * or fails, or, for a start, times out.  Once the limit is reached, further starts and stops of these services are
+     * queued until a running one is done.  The limit is inherited in the same way as the
+     * {@linkplain #setExecutor(Executor) executor}.
+     *
+     * @param limit the concurrency limit, or {@code 0} for no limit
+     * @return this target
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    ServiceTarget setConcurrencyLimit(int limit) throws IllegalArgumentException;
+
+    /**
+     * Set the start timeout of the services installed in this target and its sub-targets which do not set one of their
+     * own.
+     *
+     * @param timeout the timeout, or {@code 0} for no timeout
+     * @param unit the unit of the timeout
+     * @return this target
+     * @see ServiceBuilder#setStartTimeout(long, TimeUnit)
+     */
+    ServiceTarget setStartTimeout(long timeout, TimeUnit unit);
+
+    /**
+     * Set the stop timeout of the services installed in this target and its sub-targets which do not set one of their
+     * own.
+     *
+     * @param timeout the timeout, or {@code 0} for no timeout
+     * @param unit the unit of the timeout
+     * @return this target
+     * @see ServiceBuilder#setStopTimeout(long, TimeUnit)
+     */
+    ServiceTarget setStopTimeout(long timeout, TimeUnit unit);
+
     /**
      * Create a sub-target using this as the parent target.
      *
@@ -22,11 +22,15 @@
 
 package org.jboss.msc.service;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.msc.value.ImmediateValue;
 import org.jboss.msc.value.Value;
@@ -45,6 +49,11 @@ class ServiceTargetImpl implements ServiceTarget {
     private final Set<ServiceListener<Object>> listeners = Collections.synchronizedSet(new IdentityHashSet<ServiceListener<Object>>());
     private final Set<ServiceName> dependencies = Collections.synchronizedSet(new HashSet<ServiceName>());
     private final Set<StabilityMonitor> monitors = Collections.synchronizedSet(new IdentityHashSet<StabilityMonitor>());
+    private Executor executor;
+    private int concurrencyLimit;
+    private volatile ServiceContainerImpl.Bulkhead bulkhead;
+    private volatile long startTimeout = -1L;
+    private volatile long stopTimeout = -1L;
 
     ServiceTargetImpl(final ServiceTargetImpl parent) {
         if (parent == null) {
@@ -77,6 +86,32 @@ class ServiceTargetImpl implements ServiceTarget {
         return createServiceBuilder(name, new ImmediateValue<Service<T>>(service), null);
     }
 
+    @Override
+    public List<ServiceController<?>> install(final Collection<? extends ServiceBuilder<?>> builders) throws ServiceRegistryException {
+        if (builders == null) {
+            throw new IllegalArgumentException("builders is null");
+        }
+        final List<ServiceBuilderImpl<?>> serviceBuilders = new ArrayList<ServiceBuilderImpl<?>>(builders.size());
+        final Set<ServiceBuilderImpl<?>> seen = new IdentityHashSet<ServiceBuilderImpl<?>>(builders.size());
+        for (ServiceBuilder<?> builder : builders) {
+            if (! (builder instanceof ServiceBuilderImpl) || ((ServiceBuilderImpl<?>) builder).getTarget() != this) {
+                throw new IllegalArgumentException("Service builder was not obtained from this target");
+            }
+            final ServiceBuilderImpl<?> serviceBuilder = (ServiceBuilderImpl<?>) builder;
+            if (serviceBuilder.isInstalled()) {
+                throw new IllegalStateException("ServiceBuilder is already installed");
+            }
+            if (! seen.add(serviceBuilder)) {
+                throw new IllegalArgumentException("Service builder for " + serviceBuilder.getName() + " is given more than once");
+            }
+            serviceBuilders.add(serviceBuilder);
+        }
+        for (ServiceBuilderImpl<?> serviceBuilder : serviceBuilders) {
+            serviceBuilder.markInstalled();
+        }
+        return installAll(serviceBuilders);
+    }
+
     public ServiceTarget addListener(final ServiceListener<Object> listener) {
         if (listener != null) {
             listeners.add(listener);
@@ -192,6 +227,54 @@ class ServiceTargetImpl implements ServiceTarget {
         return Collections.unmodifiableSet(dependencies);
     }
 
+    @Override
+    public ServiceTarget setExecutor(final Executor executor) throws IllegalStateException {
+        synchronized (this) {
+            this.executor = executor;
+            updateBulkhead();
+        }
+        return this;
+    }
+
+    @Override
+    public ServiceTarget setConcurrencyLimit(final int limit) throws IllegalArgumentException {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit is negative");
+        }
+        synchronized (this) {
+            concurrencyLimit = limit;
+            updateBulkhead();
+        }
+        return this;
+    }
+
+    @Override
+    public ServiceTarget setStartTimeout(final long timeout, final TimeUnit unit) {
+        startTimeout = ServiceBuilderImpl.toTimeoutNanos(timeout, unit);
+        return this;
+    }
+
+    @Override
+    public ServiceTarget setStopTimeout(final long timeout, final TimeUnit unit) {
+        stopTimeout = ServiceBuilderImpl.toTimeoutNanos(timeout, unit);
+        return this;
+    }
+
+    private void updateBulkhead() {
+        assert Thread.holdsLock(this);
+        ServiceContainerImpl.Bulkhead bulkhead = this.bulkhead;
+        if (bulkhead == null) {
+            if (executor == null && concurrencyLimit == 0) {
+                return;
+            }
+            bulkhead = getContainer().createBulkhead();
+            bulkhead.update(executor, concurrencyLimit);
+            this.bulkhead = bulkhead;
+        } else {
+            bulkhead.update(executor, concurrencyLimit);
+        }
+    }
+
     /**
      * Apply listeners and dependencies to {@code serviceBuilder}.
      * 
@@ -207,6 +290,8 @@ class ServiceTargetImpl implements ServiceTarget {
         synchronized (dependencies) {
             serviceBuilder.addDependenciesNoCheck(dependencies);
         }
+        serviceBuilder.setBulkheadIfAbsent(bulkhead);
+        serviceBuilder.setTimeoutsIfAbsent(startTimeout, stopTimeout);
     }
 
     /**
@@ -223,6 +308,22 @@ class ServiceTargetImpl implements ServiceTarget {
         return parent.install(serviceBuilder);
     }
 
+    /**
+     * Install {@code serviceBuilders} in this target, all or nothing.
+     *
+     * @param serviceBuilders serviceBuilders created by this ServiceTarget
+     *
+     * @return the installed service controllers, in the order of {@code serviceBuilders}
+     *
+     * @throws ServiceRegistryException if a service registry issue occurred during installation
+     */
+    List<ServiceController<?>> installAll(List<ServiceBuilderImpl<?>> serviceBuilders) throws ServiceRegistryException {
+        for (ServiceBuilderImpl<?> serviceBuilder : serviceBuilders) {
+            apply(serviceBuilder);
+        }
+        return parent.installAll(serviceBuilders);
+    }
+
     /**
      * Returns the serviceRegistry that contains all services installed by this target.
      * 
@@ -232,6 +333,15 @@ class ServiceTargetImpl implements ServiceTarget {
         return parent.getServiceRegistry();
     }
 
+    /**
+     * Returns the container in which services installed by this target are installed.
+     *
+     * @return the container
+     */
+    ServiceContainerImpl getContainer() {
+        return parent.getContainer();
+    }
+
     @Override
     public ServiceTarget subTarget() {
         return new ServiceTargetImpl(this);
@@ -65,23 +65,29 @@ public final class ServiceUtils {
     }
 
     /**
-     * Determine whether the given thread is a service thread.
+     * Determine whether the given thread is a service thread.  A thread of an executor supplied to
+     * {@link ServiceContainer.Factory#create(String, java.util.concurrent.Executor)} is a service thread only while it
+     * runs a container task, and can only be recognized as such if it is the current thread.
      *
      * @param thread the thread to test
      * @return {@code true} if it is a service thread, {@code false} otherwise
      */
     public static boolean isServiceThread(Thread thread) {
-        return thread instanceof ServiceContainerImpl.ServiceThread;
+        return ServiceContainerImpl.getContainer(thread) != null;
     }
 
     /**
-     * Determine whether the given thread is a service thread which is associated with the given container.
+     * Determine whether the given thread is a service thread which is associated with the given container.  A thread
+     * of an executor supplied to {@link ServiceContainer.Factory#create(String, java.util.concurrent.Executor)} is a
+     * service thread only while it runs a container task, and can only be recognized as such if it is the current
+     * thread.
      *
      * @param thread the thread to test
      * @param container the container to compare to
      * @return {@code true} if it is a service thread, {@code false} otherwise
      */
     public static boolean isServiceThread(Thread thread, ServiceContainer container) {
-        return thread instanceof ServiceContainerImpl.ServiceThread && ((ServiceContainerImpl.ServiceThread) thread).getContainer() == container;
+        final ServiceContainerImpl threadContainer = ServiceContainerImpl.getContainer(thread);
+        return threadContainer != null && threadContainer == container;
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import java.util.Set;
+
+/**
+ * A listener for notification of stability, which is the non-blocking counterpart of {@code awaitStability()}.  A
+ * listener is invoked once, as soon as the container or monitor it was added to is stable, and is then discarded; add
+ * it again to be notified of the next stability.  No thread waits in the meantime: the listener is invoked by a
+ * container thread once the last outstanding transition completes.  A listener added to a container which is stable
+ * already is invoked by a container thread too, while one added to a monitor which is stable already is invoked by the
+ * thread which adds it.  Listeners should not block.
+ *
+ * Sample usage:
+ * <pre>
+ * StabilityMonitor monitor = ...
+ * monitor.<b>addStabilityListener</b>(new StabilityListener() {
+ *     public void handleStability(Set&lt;ServiceController&lt;?&gt;&gt; failed, Set&lt;ServiceController&lt;?&gt;&gt; problems, StabilityStatistics statistics) {
+ *         // do something with the results
+ *     }
+ * });
+ * </pre>
+ *
+ * @see ServiceContainer#addStabilityListener(StabilityListener)
+ * @see StabilityMonitor#addStabilityListener(StabilityListener)
+ */
+public interface StabilityListener {
+
+    /**
+     * Notifies this listener of stability.
+     *
+     * @param failed the services which failed to start, as an unmodifiable set
+     * @param problems the services which have missing dependencies, as an unmodifiable set
+     * @param statistics the statistics of the services at the time of the notification
+     */
+    void handleStability(Set<ServiceController<?>> failed, Set<ServiceController<?>> problems, StabilityStatistics statistics);
+}
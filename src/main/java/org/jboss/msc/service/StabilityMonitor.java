@@ -23,14 +23,10 @@
 package org.jboss.msc.service;
 
 import static java.lang.Thread.holdsLock;
-import static org.jboss.msc.service.ServiceController.Mode.ACTIVE;
-import static org.jboss.msc.service.ServiceController.Mode.LAZY;
-import static org.jboss.msc.service.ServiceController.Mode.NEVER;
-import static org.jboss.msc.service.ServiceController.Mode.ON_DEMAND;
-import static org.jboss.msc.service.ServiceController.Mode.PASSIVE;
-import static org.jboss.msc.service.ServiceController.Mode.REMOVE;
-import static org.jboss.msc.service.ServiceController.State.UP;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -95,6 +91,7 @@ public final class StabilityMonitor {
     private final AtomicBoolean cleanupInProgress = new AtomicBoolean();
     private IdentityHashSet<ServiceControllerImpl<?>> controllers = new IdentityHashSet<ServiceControllerImpl<?>>();
     private int unstableServices;
+    private List<StabilityListener> stabilityListeners;
 
     /**
      * Register controller with this monitor.
@@ -158,6 +155,7 @@ public final class StabilityMonitor {
      */
     public void clear() {
         if (cleanupInProgress.compareAndSet(false, true)) {
+            final List<StabilityListener> listeners;
             synchronized (controllersLock) {
                 final Set<ServiceControllerImpl<?>> controllers;
                 synchronized (stabilityLock) {
@@ -166,6 +164,8 @@ public final class StabilityMonitor {
                     failed.clear();
                     problems.clear();
                     unstableServices = 0;
+                    listeners = stabilityListeners;
+                    stabilityListeners = null;
                 }
                 // We cannot call removeMonitorNoCallback under stabilityLock
                 // because of deadlock possibility. In order for removing controllers
@@ -176,6 +176,11 @@ public final class StabilityMonitor {
                 }
             }
             cleanupInProgress.set(false);
+            if (listeners != null) {
+                // the monitor is empty, hence stable
+                final Set<ServiceController<?>> none = Collections.emptySet();
+                notifyStabilityListeners(listeners, none, none);
+            }
         }
     }
 
@@ -330,6 +335,35 @@ public final class StabilityMonitor {
         return true;
     }
 
+    /**
+     * Add a listener which is notified once this monitor is stable.  This is the non-blocking counterpart of
+     * {@link #awaitStability(Set, Set, StabilityStatistics)}: if the monitor is stable, the listener is invoked
+     * immediately by the calling thread, otherwise it is invoked by a container thread as soon as the last registered
+     * controller reaches its rest state.  The listener is notified only once; clearing the monitor notifies all the
+     * pending listeners.
+     *
+     * @param listener the listener
+     */
+    public void addStabilityListener(final StabilityListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is null");
+        }
+        final Set<ServiceController<?>> failed;
+        final Set<ServiceController<?>> problems;
+        synchronized (stabilityLock) {
+            if (unstableServices != 0) {
+                if (stabilityListeners == null) {
+                    stabilityListeners = new ArrayList<StabilityListener>(1);
+                }
+                stabilityListeners.add(listener);
+                return;
+            }
+            failed = snapshot(this.failed);
+            problems = snapshot(this.problems);
+        }
+        notifyStabilityListeners(Collections.singletonList(listener), failed, problems);
+    }
+
     void addProblem(final ServiceController<?> controller) {
         assert holdsLock(controller);
         if (cleanupInProgress.get()) return;
@@ -369,13 +403,45 @@ public final class StabilityMonitor {
         }
     }
 
-    void decrementUnstableServices() {
+    void decrementUnstableServices(final ServiceContainerImpl container) {
         if (cleanupInProgress.get()) return;
+        final List<StabilityListener> listeners;
+        final Set<ServiceController<?>> failed;
+        final Set<ServiceController<?>> problems;
         synchronized (stabilityLock) {
-            if (--unstableServices == 0) {
-                stabilityLock.notifyAll();
+            assert unstableServices > 0;
+            if (--unstableServices != 0) return;
+            stabilityLock.notifyAll();
+            if (stabilityListeners == null) return;
+            listeners = stabilityListeners;
+            stabilityListeners = null;
+            failed = snapshot(this.failed);
+            problems = snapshot(this.problems);
+        }
+        // We are called under the controller lock, so the listeners are notified by another thread
+        container.executeNotification(new Runnable() {
+            public void run() {
+                notifyStabilityListeners(listeners, failed, problems);
+            }
+        });
+    }
+
+    private static Set<ServiceController<?>> snapshot(final Set<ServiceController<?>> controllers) {
+        if (controllers.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new IdentityHashSet<ServiceController<?>>(controllers));
+    }
+
+    private void notifyStabilityListeners(final List<StabilityListener> listeners, final Set<ServiceController<?>> failed, final Set<ServiceController<?>> problems) {
+        final StabilityStatistics statistics = new StabilityStatistics();
+        provideStatistics(failed.size(), problems.size(), statistics);
+        for (StabilityListener listener : listeners) {
+            try {
+                listener.handleStability(failed, problems, statistics);
+            } catch (Throwable t) {
+                ServiceLogger.ROOT.stabilityListenerFailed(t, listener);
             }
-            assert unstableServices >= 0;
         }
     }
 
@@ -392,23 +458,6 @@ public final class StabilityMonitor {
             controllers = this.controllers.clone(); 
         }
         // collect statistics
-        int active = 0, lazy = 0, onDemand = 0, never = 0, passive = 0, started = 0;
-        for (final ServiceController<?> controller : controllers) {
-            if (controller.getState() == UP) started++;
-            if (controller.getMode() == ACTIVE) active++;
-            else if (controller.getMode() == PASSIVE) passive++;
-            else if (controller.getMode() == ON_DEMAND) onDemand++;
-            else if (controller.getMode() == NEVER) never++;
-            else if (controller.getMode() == LAZY) lazy++;
-        }
-        // report statistics
-        statistics.setActiveCount(active);
-        statistics.setFailedCount(failedCount);
-        statistics.setLazyCount(lazy);
-        statistics.setOnDemandCount(onDemand);
-        statistics.setNeverCount(never);
-        statistics.setPassiveCount(passive);
-        statistics.setProblemsCount(problemsCount);
-        statistics.setStartedCount(started);
+        statistics.collect(controllers, failedCount, problemsCount);
     }
 }
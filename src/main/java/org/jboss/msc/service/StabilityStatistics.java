@@ -22,6 +22,15 @@
 
 package org.jboss.msc.service;
 
+import static org.jboss.msc.service.ServiceController.Mode.ACTIVE;
+import static org.jboss.msc.service.ServiceController.Mode.LAZY;
+import static org.jboss.msc.service.ServiceController.Mode.NEVER;
+import static org.jboss.msc.service.ServiceController.Mode.ON_DEMAND;
+import static org.jboss.msc.service.ServiceController.Mode.PASSIVE;
+import static org.jboss.msc.service.ServiceController.State.UP;
+
+import java.util.Collection;
+
 /**
  * A stability monitor statistics. Allows to collect statistics data
  * about {@link ServiceController}s registered with {@link StabilityMonitor} object.
@@ -58,6 +67,7 @@ public final class StabilityStatistics {
     private int passive;
     private int problems;
     private int started;
+    private int timedOut;
 
     /**
      * Returns count of controllers registered with {@link StabilityMonitor} that are in
@@ -130,6 +140,16 @@ public final class StabilityStatistics {
     public int getStartedCount() {
         return started;
     }
+
+    /**
+     * Returns count of controllers registered with {@link StabilityMonitor} that failed to start
+     * because their start did not complete within the start timeout.  These are included in the
+     * {@link #getFailedCount() failed} count.
+     * @return count of <b>TIMED OUT</b> controllers
+     */
+    public int getTimedOutCount() {
+        return timedOut;
+    }
     
     void setActiveCount(final int count) {
         active = count;
@@ -162,4 +182,38 @@ public final class StabilityStatistics {
     void setStartedCount(final int count) {
         started = count;
     }
+
+    void setTimedOutCount(final int count) {
+        timedOut = count;
+    }
+
+    /**
+     * Fill in these statistics from the given controllers.  The mode and state of the controllers may change while
+     * they are being counted, so the result is not necessarily a consistent snapshot.
+     *
+     * @param controllers the controllers to count
+     * @param failedCount the count of failed controllers
+     * @param problemsCount the count of controllers with problems
+     */
+    void collect(final Collection<? extends ServiceControllerImpl<?>> controllers, final int failedCount, final int problemsCount) {
+        int active = 0, lazy = 0, onDemand = 0, never = 0, passive = 0, started = 0, timedOut = 0;
+        for (final ServiceControllerImpl<?> controller : controllers) {
+            if (controller.getState() == UP) started++;
+            if (controller.isStartTimedOut()) timedOut++;
+            if (controller.getMode() == ACTIVE) active++;
+            else if (controller.getMode() == PASSIVE) passive++;
+            else if (controller.getMode() == ON_DEMAND) onDemand++;
+            else if (controller.getMode() == NEVER) never++;
+            else if (controller.getMode() == LAZY) lazy++;
+        }
+        this.active = active;
+        this.failed = failedCount;
+        this.lazy = lazy;
+        this.onDemand = onDemand;
+        this.never = never;
+        this.passive = passive;
+        this.problems = problemsCount;
+        this.started = started;
+        this.timedOut = timedOut;
+    }
 }
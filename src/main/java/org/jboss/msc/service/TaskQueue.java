@@ -0,0 +1,331 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.msc.service;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An unbounded FIFO task queue for the container thread pool.  Like {@link java.util.concurrent.LinkedBlockingQueue},
+ * it uses separate locks for producers and consumers; in addition, a whole list of tasks can be added with
+ * {@link #offerAll(List)} while taking the producer lock once and waking at most one waiting consumer.  A consumer
+ * which takes a task while more remain wakes up the next waiting consumer, so the tasks of a batch are still spread
+ * over all idle threads.
+ */
+final class TaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Condition notEmpty = takeLock.newCondition();
+    private final ReentrantLock putLock = new ReentrantLock();
+    /**
+     * The sentinel node before the first task; guarded by {@code takeLock}.
+     */
+    private Node head;
+    /**
+     * The last node; guarded by {@code putLock}.
+     */
+    private Node last;
+
+    TaskQueue() {
+        last = head = new Node(null);
+    }
+
+    public boolean offer(final Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        final Node node = new Node(task);
+        final int c;
+        putLock.lock();
+        try {
+            last = last.next = node;
+            c = count.getAndIncrement();
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0) {
+            signalNotEmpty();
+        }
+        return true;
+    }
+
+    /**
+     * Add all the given tasks, in order.
+     *
+     * @param tasks the tasks to add
+     */
+    void offerAll(final List<Runnable> tasks) {
+        final int size = tasks.size();
+        if (size == 0) {
+            return;
+        }
+        // link the new nodes before taking the lock
+        Node first = null;
+        Node chainLast = null;
+        for (int i = 0; i < size; i ++) {
+            final Runnable task = tasks.get(i);
+            if (task == null) {
+                throw new NullPointerException();
+            }
+            final Node node = new Node(task);
+            if (first == null) {
+                first = chainLast = node;
+            } else {
+                chainLast = chainLast.next = node;
+            }
+        }
+        final int c;
+        putLock.lock();
+        try {
+            last.next = first;
+            last = chainLast;
+            c = count.getAndAdd(size);
+        } finally {
+            putLock.unlock();
+        }
+        if (c == 0) {
+            signalNotEmpty();
+        }
+    }
+
+    public void put(final Runnable task) {
+        offer(task);
+    }
+
+    public boolean offer(final Runnable task, final long timeout, final TimeUnit unit) {
+        return offer(task);
+    }
+
+    public Runnable take() throws InterruptedException {
+        final Runnable task;
+        final int c;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                notEmpty.await();
+            }
+            task = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return task;
+    }
+
+    public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final Runnable task;
+        final int c;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            task = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1) {
+                notEmpty.signal();
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return task;
+    }
+
+    public Runnable poll() {
+        if (count.get() == 0) {
+            return null;
+        }
+        Runnable task = null;
+        takeLock.lock();
+        try {
+            if (count.get() > 0) {
+                task = dequeue();
+                if (count.getAndDecrement() > 1) {
+                    notEmpty.signal();
+                }
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        return task;
+    }
+
+    public Runnable peek() {
+        if (count.get() == 0) {
+            return null;
+        }
+        takeLock.lock();
+        try {
+            final Node first = head.next;
+            return first == null ? null : first.item;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    public boolean remove(final Object o) {
+        if (o == null) {
+            return false;
+        }
+        fullyLock();
+        try {
+            for (Node trail = head, p = trail.next; p != null; trail = p, p = p.next) {
+                if (o.equals(p.item)) {
+                    p.item = null;
+                    trail.next = p.next;
+                    if (last == p) {
+                        last = trail;
+                    }
+                    count.getAndDecrement();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            fullyUnlock();
+        }
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    public int drainTo(final Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(final Collection<? super Runnable> c, final int maxElements) {
+        if (c == null) {
+            throw new NullPointerException();
+        }
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        takeLock.lock();
+        try {
+            final int n = Math.min(maxElements, count.get());
+            for (int i = 0; i < n; i ++) {
+                c.add(dequeue());
+            }
+            count.getAndAdd(-n);
+            return n;
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * Get an iterator over a snapshot of the queued tasks.
+     *
+     * @return the iterator
+     */
+    public Iterator<Runnable> iterator() {
+        final ArrayList<Runnable> snapshot = new ArrayList<Runnable>(count.get());
+        fullyLock();
+        try {
+            for (Node p = head.next; p != null; p = p.next) {
+                snapshot.add(p.item);
+            }
+        } finally {
+            fullyUnlock();
+        }
+        final Iterator<Runnable> iterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable current;
+
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public Runnable next() {
+                return current = iterator.next();
+            }
+
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                TaskQueue.this.remove(current);
+                current = null;
+            }
+        };
+    }
+
+    private Runnable dequeue() {
+        final Node h = head;
+        final Node first = h.next;
+        // help GC
+        h.next = h;
+        head = first;
+        final Runnable task = first.item;
+        first.item = null;
+        return task;
+    }
+
+    private void signalNotEmpty() {
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    private void fullyLock() {
+        putLock.lock();
+        takeLock.lock();
+    }
+
+    private void fullyUnlock() {
+        takeLock.unlock();
+        putLock.unlock();
+    }
+
+    static final class Node {
+        Runnable item;
+        Node next;
+
+        Node(final Runnable item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.msc.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel.  Timeouts are hashed by their deadline tick into a fixed number of buckets; a single timer
+ * thread advances one bucket per tick and expires the timeouts of the current bucket which are due in this rotation of
+ * the wheel.  Scheduling and cancelling a timeout are constant time operations which never block: new and cancelled
+ * timeouts are handed over to the timer thread through lock-free queues.  The timer thread is started on first use,
+ * and parks without ticking while there are no timeouts.
+ * <p>
+ * Expiry tasks are run on the timer thread, so they must be short.
+ */
+final class TimerWheel {
+
+    private static final int ST_NEW = 0;
+    private static final int ST_STARTED = 1;
+    private static final int ST_SHUTDOWN = 2;
+
+    private final String name;
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger status = new AtomicInteger(ST_NEW);
+    private final long startTime = System.nanoTime();
+    private volatile Thread thread;
+    private volatile boolean idle;
+
+    // the remaining fields are only accessed by the timer thread
+
+    /**
+     * The next tick to process.
+     */
+    private long tick;
+    /**
+     * The number of timeouts in the buckets.
+     */
+    private int size;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the name of the timer thread
+     * @param tickDuration the duration of a tick
+     * @param unit the unit of the tick duration
+     * @param bucketCount the number of buckets, which is rounded up to a power of two
+     */
+    TimerWheel(final String name, final long tickDuration, final TimeUnit unit, final int bucketCount) {
+        if (tickDuration <= 0L) {
+            throw new IllegalArgumentException("tickDuration must be greater than zero");
+        }
+        if (bucketCount <= 0 || bucketCount > 1 << 30) {
+            throw new IllegalArgumentException("bucketCount is out of range");
+        }
+        this.name = name;
+        tickNanos = unit.toNanos(tickDuration);
+        final int length = Integer.highestOneBit(bucketCount) == bucketCount ? bucketCount : Integer.highestOneBit(bucketCount) << 1;
+        buckets = new Timeout[length];
+        mask = length - 1;
+    }
+
+    /**
+     * Schedule a task to run once the given delay has elapsed.  The task runs on the timer thread, no earlier than the
+     * delay and typically within one tick after it.
+     *
+     * @param task the task to run
+     * @param delay the delay
+     * @param unit the unit of the delay
+     * @return the timeout, which can be used to cancel the task
+     * @throws IllegalStateException if the wheel is shut down
+     */
+    Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) throws IllegalStateException {
+        if (task == null) {
+            throw new IllegalArgumentException("task is null");
+        }
+        start();
+        final Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0L, unit.toNanos(delay)));
+        scheduled.add(timeout);
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return timeout;
+    }
+
+    /**
+     * Shut down this wheel.  Timeouts which have not expired yet are discarded.
+     */
+    void shutdown() {
+        if (status.getAndSet(ST_SHUTDOWN) == ST_STARTED) {
+            final Thread thread = this.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private void start() {
+        switch (status.get()) {
+            case ST_STARTED: {
+                return;
+            }
+            case ST_NEW: {
+                if (status.compareAndSet(ST_NEW, ST_STARTED)) {
+                    final Thread thread = new Thread(new Worker(), name);
+                    thread.setDaemon(true);
+                    this.thread = thread;
+                    thread.start();
+                    return;
+                }
+                if (status.get() == ST_STARTED) {
+                    return;
+                }
+                throw new IllegalStateException("Timer is shut down");
+            }
+            default: {
+                throw new IllegalStateException("Timer is shut down");
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        public void run() {
+            while (status.get() == ST_STARTED) {
+                if (size == 0 && scheduled.isEmpty()) {
+                    park();
+                    continue;
+                }
+                final long deadline = startTime + (tick + 1) * tickNanos;
+                final long now = System.nanoTime();
+                if (now - deadline < 0L) {
+                    LockSupport.parkNanos(TimerWheel.this, deadline - now);
+                    continue;
+                }
+                removeCancelled();
+                transferScheduled();
+                expire(buckets[(int) (tick & mask)], now);
+                tick ++;
+            }
+        }
+
+        private void park() {
+            idle = true;
+            try {
+                // recheck after publishing the idle flag, to avoid missing a wakeup
+                if (scheduled.isEmpty() && status.get() == ST_STARTED) {
+                    LockSupport.park(TimerWheel.this);
+                }
+            } finally {
+                idle = false;
+            }
+            cancelled.clear();
+            // the wheel is empty, so the clock can jump ahead to the current tick
+            tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+        }
+
+        private void transferScheduled() {
+            Timeout timeout;
+            while ((timeout = scheduled.poll()) != null) {
+                if (timeout.state.get() != Timeout.ST_PENDING) {
+                    continue;
+                }
+                // tick n is processed once its end, startTime + (n + 1) * tickNanos, has passed
+                final long dueTick = Math.max(tick, (timeout.deadline - startTime) / tickNanos);
+                timeout.rounds = (dueTick - tick) >> Integer.numberOfTrailingZeros(buckets.length);
+                final int index = (int) (dueTick & mask);
+                final Timeout head = buckets[index];
+                timeout.next = head;
+                if (head != null) {
+                    head.prev = timeout;
+                }
+                timeout.bucket = index;
+                buckets[index] = timeout;
+                size ++;
+            }
+        }
+
+        private void removeCancelled() {
+            Timeout timeout;
+            while ((timeout = cancelled.poll()) != null) {
+                if (timeout.bucket >= 0) {
+                    unlink(timeout);
+                }
+            }
+        }
+
+        private void expire(Timeout timeout, final long now) {
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.rounds <= 0L && now - timeout.deadline >= 0L) {
+                    unlink(timeout);
+                    if (timeout.state.compareAndSet(Timeout.ST_PENDING, Timeout.ST_EXPIRED)) {
+                        try {
+                            timeout.task.run();
+                        } catch (Throwable t) {
+                            ServiceLogger.ROOT.uncaughtException(t, Thread.currentThread());
+                        }
+                    }
+                } else {
+                    timeout.rounds --;
+                }
+                timeout = next;
+            }
+        }
+
+        private void unlink(final Timeout timeout) {
+            final Timeout prev = timeout.prev;
+            final Timeout next = timeout.next;
+            if (prev == null) {
+                buckets[timeout.bucket] = next;
+            } else {
+                prev.next = next;
+            }
+            if (next != null) {
+                next.prev = prev;
+            }
+            timeout.prev = timeout.next = null;
+            timeout.bucket = -1;
+            size --;
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    final class Timeout {
+        static final int ST_PENDING = 0;
+        static final int ST_CANCELLED = 1;
+        static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_PENDING);
+
+        // the remaining fields are only accessed by the timer thread
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;
+        private long rounds;
+
+        Timeout(final Runnable task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel this timeout.
+         *
+         * @return {@code true} if the timeout was cancelled, {@code false} if it already expired or was cancelled
+         */
+        boolean cancel() {
+            if (state.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+                cancelled.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Determine whether this timeout has expired, i.e. whether its task was run or is running.
+         *
+         * @return {@code true} if the timeout expired
+         */
+        boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+    }
+}
@@ -24,15 +24,28 @@ package org.jboss.msc.service;
 
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A hash map that supports non-blocking, lockless read access.
+ * <p>
+ * Each row of the table is an immutable array of items which is replaced as a whole, so readers never lock.  Writers
+ * do not lock either: they replace a row with a compare-and-set, so that writers of different rows never contend.
+ * When the table grows, its rows are moved to a table twice as large incrementally: each writer which comes along
+ * moves one chunk of rows, so that no write pays for the whole table, and several writers move chunks in parallel.
+ * Each moved row is replaced by a marker which sends readers and writers to the new table, so they are never blocked
+ * by a table which is still growing.  Once the table is only a quarter as full as it may be, it shrinks back the same
+ * way, down to its initial capacity, so that a map whose keys come and go does not keep the table of its peak size.
  *
  * @param <K> the key type
  * @param <V> the value type
@@ -43,18 +56,25 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
     private static final int DEFAULT_INITIAL_CAPACITY = 128;
     private static final int MAXIMUM_CAPACITY = 1 << 30;
     private static final float DEFAULT_LOAD_FACTOR = 0.60f;
+    /** The number of rows a writer moves while the table is resized, which bounds the cost of a single write. */
+    private static final int TRANSFER_STRIDE = 16;
+    /** The marker of a row which was moved to the next table. */
+    @SuppressWarnings("rawtypes")
+    private static final Item[] MOVED = new Item[0];
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<UnlockedReadHashMap> sizeUpdater = AtomicIntegerFieldUpdater.newUpdater(UnlockedReadHashMap.class, "size");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<UnlockedReadHashMap, Table> tableUpdater = AtomicReferenceFieldUpdater.newUpdater(UnlockedReadHashMap.class, Table.class, "table");
 
     // Final fields (thread-safe)
-    private final Object writeLock = new Object();
     private final Set<Entry<K, V>> entrySet = new EntrySet();
     private final float loadFactor;
+    private final int minimumCapacity;
 
-    // Volatile fields (writes protected by {@link #writeLock})
+    // Volatile fields (updated atomically)
     private volatile int size;
-    private volatile AtomicReferenceArray<Item<K,V>[]> table;
-
-    // Raw fields (reads and writes protected by {@link #writeLock}
-    private int threshold;
+    private volatile Table<K, V> table;
 
     public UnlockedReadHashMap(int initialCapacity, final float loadFactor) {
         if (initialCapacity < 0) {
@@ -74,10 +94,8 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
         }
 
         this.loadFactor = loadFactor;
-        synchronized (writeLock) {
-            threshold = (int)(capacity * loadFactor);
-            table = new AtomicReferenceArray<Item<K, V>[]>(capacity);
-        }
+        minimumCapacity = capacity;
+        table = new Table<K, V>(capacity, loadFactor);
     }
 
     public UnlockedReadHashMap(final float loadFactor) {
@@ -92,95 +110,346 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
         this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
     }
 
-    @SuppressWarnings( { "unchecked" })
-    private void resize() {
-        assert Thread.holdsLock(writeLock);
-        final AtomicReferenceArray<Item<K, V>[]> oldTable = table;
-        final int oldCapacity = oldTable.length();
-        if (oldCapacity == MAXIMUM_CAPACITY) {
+    /**
+     * Called after an item was added or removed: start resizing the current table if it holds too many or too few
+     * items, and move a chunk of its rows if it is already being resized.
+     *
+     * @param added {@code true} if an item was added, {@code false} if one was removed
+     */
+    private void resize(final boolean added) {
+        final Table<K, V> table = this.table;
+        Table<K, V> next = table.next;
+        if (next == null) {
+            final int capacity = table.rows.length();
+            final int newCapacity;
+            if (added) {
+                if (size <= table.threshold || capacity == MAXIMUM_CAPACITY) {
+                    return;
+                }
+                newCapacity = capacity << 1;
+            } else {
+                if (size >= table.threshold >> 2 || capacity <= minimumCapacity) {
+                    return;
+                }
+                newCapacity = capacity >> 1;
+            }
+            table.casNext(new Table<K, V>(newCapacity, loadFactor));
+            next = table.next;
+        }
+        transfer(table, next);
+    }
+
+    /**
+     * Move the next chunk of rows of the given table to the next table, if any chunk is left to claim.  The thread
+     * which moves the last row makes the next table current.
+     *
+     * @param table the table being resized
+     * @param next the next table
+     */
+    private void transfer(final Table<K, V> table, final Table<K, V> next) {
+        final AtomicReferenceArray<Item<K, V>[]> rows = table.rows;
+        final AtomicReferenceArray<Item<K, V>[]> nextRows = next.rows;
+        final int capacity = rows.length();
+        final int nextCapacity = nextRows.length();
+        // when shrinking, row i is moved together with row i + nextCapacity
+        final int span = Math.min(capacity, nextCapacity);
+        if (table.transferIndex.get() >= span) {
             return;
         }
-        final int newCapacity = oldCapacity << 1;
-        final AtomicReferenceArray<Item<K, V>[]> newTable = new AtomicReferenceArray<Item<K, V>[]>(newCapacity);
-        final int newThreshold = (int)(newCapacity * loadFactor);
-        for (int i = 0; i < oldCapacity; i ++) {
-            final Item<K, V>[] items = oldTable.get(i);
-            if (items != null) {
-                final int length = items.length;
-                for (int j = 0; j < length; j++) {
-                    Item<K, V> item = items[j];
-                    final int hc = item.hashCode() & (newCapacity - 1);
-                    final Item<K, V>[] old = newTable.get(hc);
-                    if (old == null) {
-                        newTable.lazySet(hc, new Item[] { item });
+        final int start = table.transferIndex.getAndAdd(TRANSFER_STRIDE);
+        if (start >= span) {
+            return;
+        }
+        final int end = Math.min(start + TRANSFER_STRIDE, span);
+        for (int i = start; i < end; i ++) {
+            if (nextCapacity > capacity) {
+                split(rows, nextRows, i);
+            } else {
+                merge(rows, nextRows, i, i + nextCapacity);
+            }
+        }
+        if (table.transferred.addAndGet(end - start) == span) {
+            tableUpdater.compareAndSet(this, table, next);
+        }
+    }
+
+    /**
+     * Create an empty row of the given length.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Item<K, V>[] newRow(final int length) {
+        return (Item<K, V>[]) new Item<?, ?>[length];
+    }
+
+    /**
+     * Spread the higher bits of the hash code of the given key to the lower ones, which select the row.
+     */
+    private static int hash(final Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Move a row to the two rows of a table twice as large which take its items.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> void split(final AtomicReferenceArray<Item<K, V>[]> rows, final AtomicReferenceArray<Item<K, V>[]> nextRows, final int idx) {
+        final int capacity = rows.length();
+        for (;;) {
+            // nobody else writes the two target rows until this row is marked as moved
+            final Item<K, V>[] row = rows.get(idx);
+            Item<K, V>[] low = null, high = null;
+            if (row != null) {
+                int highCount = 0;
+                for (Item<K, V> item : row) {
+                    if ((item.hash & capacity) != 0) {
+                        highCount ++;
+                    }
+                }
+                low = highCount == row.length ? null : UnlockedReadHashMap.<K, V>newRow(row.length - highCount);
+                high = highCount == 0 ? null : UnlockedReadHashMap.<K, V>newRow(highCount);
+                int l = 0, h = 0;
+                for (Item<K, V> item : row) {
+                    if ((item.hash & capacity) != 0) {
+                        high[h++] = item;
                     } else {
-                        final int oldLen = old.length;
-                        final Item<K, V>[] copy = Arrays.copyOf(old, oldLen + 1);
-                        copy[oldLen] = item;
-                        newTable.lazySet(hc, copy);
+                        low[l++] = item;
                     }
                 }
             }
+            // a failed attempt may have filled the target rows already
+            nextRows.set(idx, low);
+            nextRows.set(idx + capacity, high);
+            if (rows.compareAndSet(idx, row, MOVED)) {
+                return;
+            }
         }
-        table = newTable;
-        threshold = newThreshold;
     }
 
-    private static <K, V> Item<K, V> doGet(final AtomicReferenceArray<Item<K, V>[]> table, final Object key) {
-        Item<K, V>[] row = doGetRow(table, key);
-        return row == null ? null : doGet(row, key);
+    /**
+     * Move two rows to the row of a table half as large which takes the items of both.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> void merge(final AtomicReferenceArray<Item<K, V>[]> rows, final AtomicReferenceArray<Item<K, V>[]> nextRows, final int idx, final int otherIdx) {
+        for (;;) {
+            // nobody else writes the target row until one of the two rows is marked as moved
+            final Item<K, V>[] row = rows.get(idx);
+            nextRows.set(idx, row);
+            if (rows.compareAndSet(idx, row, MOVED)) {
+                break;
+            }
+        }
+        final int mask = rows.length() - 1;
+        for (;;) {
+            // writers of the first row now share the target row, which may hold a stale copy of the other row
+            final Item<K, V>[] row = rows.get(otherIdx);
+            final Item<K, V>[] target = nextRows.get(idx);
+            final Item<K, V>[] merged = concat(without(target, mask, otherIdx), row);
+            if (merged != target && ! nextRows.compareAndSet(idx, target, merged)) {
+                continue;
+            }
+            if (rows.compareAndSet(otherIdx, row, MOVED)) {
+                return;
+            }
+        }
     }
 
-    private static <K, V> Item<K, V>[] doGetRow(final AtomicReferenceArray<Item<K, V>[]> table, final Object key) {
-        final int hc = getIndex(table, key);
-        return doGetRow(table, hc);
+    /**
+     * Get the given row without the items whose hash is {@code value} in the bits of {@code mask}.
+     *
+     * @return the row itself if it has no such item, or {@code null} if it has no other item
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Item<K, V>[] without(final Item<K, V>[] row, final int mask, final int value) {
+        if (row == null) {
+            return null;
+        }
+        int count = 0;
+        for (Item<K, V> item : row) {
+            if ((item.hash & mask) != value) {
+                count ++;
+            }
+        }
+        if (count == row.length) {
+            return row;
+        }
+        if (count == 0) {
+            return null;
+        }
+        final Item<K, V>[] rest = newRow(count);
+        int i = 0;
+        for (Item<K, V> item : row) {
+            if ((item.hash & mask) != value) {
+                rest[i++] = item;
+            }
+        }
+        return rest;
+    }
+
+    private static <K, V> Item<K, V>[] concat(final Item<K, V>[] row, final Item<K, V>[] other) {
+        if (row == null || other == null) {
+            return row == null ? other : row;
+        }
+        final Item<K, V>[] both = Arrays.copyOf(row, row.length + other.length);
+        System.arraycopy(other, 0, both, row.length, other.length);
+        return both;
     }
 
-    private static <K, V> int getIndex(final AtomicReferenceArray<Item<K, V>[]> table, final Object key) {
-        return key.hashCode() & (table.length() - 1);
+    /**
+     * Help to move the rows of a table being resized, and return the next table.
+     */
+    private Table<K, V> helpTransfer(final Table<K, V> table) {
+        final Table<K, V> next = table.next;
+        transfer(table, next);
+        return next;
     }
 
-    private static <K, V> Item<K, V>[] doGetRow(final AtomicReferenceArray<Item<K, V>[]> table, final int hc) {
-        return table.get(hc);
+    private static <K, V> Item<K, V> doGet(Table<K, V> table, final Object key) {
+        final int hashCode = hash(key);
+        for (;;) {
+            final AtomicReferenceArray<Item<K, V>[]> rows = table.rows;
+            final Item<K, V>[] row = rows.get(hashCode & (rows.length() - 1));
+            if (row == null) {
+                return null;
+            }
+            if (row != MOVED) {
+                return doGet(row, hashCode, key);
+            }
+            table = table.next;
+        }
     }
 
-    private static <K, V> Item<K, V> doGet(Item<K, V>[] row, Object key) {
+    private static <K, V> Item<K, V> doGet(Item<K, V>[] row, int hashCode, Object key) {
         for (Item<K, V> item : row) {
-            if (item.key.equals(key)) {
+            if (item.hash == hashCode && item.key.equals(key)) {
                 return item;
             }
         }
         return null;
     }
 
-    private V doPut(AtomicReferenceArray<Item<K, V>[]> table, K key, V value, boolean ifAbsent) {
-        final int hc = getIndex(table, key);
-        final Item<K, V>[] old = doGetRow(table, hc);
-        if (old == null) {
-            @SuppressWarnings( { "unchecked" })
-            final Item<K, V>[] newRow = new Item[] { new Item<K, V>(key, value) };
-            table.set(hc, newRow);
-            if (size++ == threshold) {
-                resize();
+    private static <K, V> int indexOf(Item<K, V>[] row, int hashCode, Object key) {
+        final int len = row.length;
+        for (int i = 0; i < len; i ++) {
+            final Item<K, V> item = row[i];
+            if (item.hash == hashCode && item.key.equals(key)) {
+                return i;
             }
-            return null;
-        } else {
-            final Item<K, V> item = doGet(old, key);
-            if (item != null) {
-                try {
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V doPut(final K key, final V value, final boolean ifAbsent) {
+        final int hashCode = hash(key);
+        Table<K, V> table = this.table;
+        for (;;) {
+            final AtomicReferenceArray<Item<K, V>[]> rows = table.rows;
+            final int hc = hashCode & (rows.length() - 1);
+            final Item<K, V>[] old = rows.get(hc);
+            if (old == MOVED) {
+                table = helpTransfer(table);
+                continue;
+            }
+            final Item<K, V>[] newRow;
+            final int idx = old == null ? -1 : indexOf(old, hashCode, key);
+            if (idx >= 0) {
+                final Item<K, V> item = old[idx];
+                if (ifAbsent) {
+                    return item.value;
+                }
+                newRow = old.clone();
+                newRow[idx] = new Item<K, V>(key, hashCode, value);
+                if (rows.compareAndSet(hc, old, newRow)) {
                     return item.value;
-                } finally {
-                    if (! ifAbsent) item.value = value;
+                }
+            } else {
+                if (old == null) {
+                    newRow = new Item[] { new Item<K, V>(key, hashCode, value) };
+                } else {
+                    final int oldLen = old.length;
+                    newRow = Arrays.copyOf(old, oldLen + 1);
+                    newRow[oldLen] = new Item<K, V>(key, hashCode, value);
+                }
+                if (rows.compareAndSet(hc, old, newRow)) {
+                    sizeUpdater.incrementAndGet(this);
+                    resize(true);
+                    return null;
                 }
             }
-            final int oldLen = old.length;
-            final Item<K, V>[] newRow = Arrays.copyOf(old, oldLen + 1);
-            newRow[oldLen] = new Item<K, V>(key, value);
-            table.set(hc, newRow);
-            if (size++ == threshold) {
-                resize();
+        }
+    }
+
+    /**
+     * Remove the item of the given key if it has the given value, or any value if {@code value} is {@code null}.
+     *
+     * @return the removed item, or {@code null} if none was removed
+     */
+    @SuppressWarnings("unchecked")
+    private Item<K, V> doRemove(final Object key, final Object value) {
+        final int hashCode = hash(key);
+        Table<K, V> table = this.table;
+        for (;;) {
+            final AtomicReferenceArray<Item<K, V>[]> rows = table.rows;
+            final int hc = hashCode & (rows.length() - 1);
+            final Item<K, V>[] row = rows.get(hc);
+            if (row == null) {
+                return null;
+            }
+            if (row == MOVED) {
+                table = helpTransfer(table);
+                continue;
+            }
+            final int idx = indexOf(row, hashCode, key);
+            if (idx < 0) {
+                return null;
+            }
+            final Item<K, V> item = row[idx];
+            if (value != null && ! value.equals(item.value)) {
+                return null;
+            }
+            if (rows.compareAndSet(hc, row, remove(row, idx))) {
+                sizeUpdater.decrementAndGet(this);
+                resize(false);
+                return item;
+            }
+        }
+    }
+
+    /**
+     * Replace the value of the given key if it is present and has the given value, or any value if {@code oldValue}
+     * is {@code null}.
+     *
+     * @return the replaced item, or {@code null} if none was replaced
+     */
+    @SuppressWarnings("unchecked")
+    private Item<K, V> doReplace(final K key, final V oldValue, final V newValue) {
+        final int hashCode = hash(key);
+        Table<K, V> table = this.table;
+        for (;;) {
+            final AtomicReferenceArray<Item<K, V>[]> rows = table.rows;
+            final int hc = hashCode & (rows.length() - 1);
+            final Item<K, V>[] row = rows.get(hc);
+            if (row == null) {
+                return null;
+            }
+            if (row == MOVED) {
+                table = helpTransfer(table);
+                continue;
+            }
+            final int idx = indexOf(row, hashCode, key);
+            if (idx < 0) {
+                return null;
+            }
+            final Item<K, V> item = row[idx];
+            if (oldValue != null && ! oldValue.equals(item.value)) {
+                return null;
+            }
+            final Item<K, V>[] newRow = row.clone();
+            newRow[idx] = new Item<K, V>(key, hashCode, newValue);
+            if (rows.compareAndSet(hc, row, newRow)) {
+                return item;
             }
-            return null;
         }
     }
 
@@ -229,38 +498,58 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
         if (key == null) {
             throw new IllegalArgumentException("key is null");
         }
-        synchronized (writeLock) {
-            return doPut(table, key, value, false);
-        }
+        return doPut(key, value, false);
     }
 
     public V remove(final Object key) {
         if (key == null) {
             return null;
         }
-        synchronized (writeLock) {
-            final int hc = getIndex(table, key);
-            final Item<K, V>[] row = doGetRow(table, hc);
+        final Item<K, V> item = doRemove(key, null);
+        return item == null ? null : item.value;
+    }
+
+    public void clear() {
+        final Table<K, V> table = this.table;
+        final int capacity = table.rows.length();
+        for (int i = 0; i < capacity; i ++) {
+            clear(table, i, capacity - 1, i);
+        }
+    }
+
+    /**
+     * Remove the items of the given row of the given table whose hash is {@code value} in the bits of {@code mask},
+     * following moved rows to the next tables.
+     */
+    private void clear(final Table<K, V> table, final int idx, int mask, int value) {
+        final AtomicReferenceArray<Item<K, V>[]> rows = table.rows;
+        final int rowMask = rows.length() - 1;
+        for (;;) {
+            final Item<K, V>[] row = rows.get(idx);
             if (row == null) {
-                return null;
+                return;
             }
-            final int rowLen = row.length;
-            for (int i = 0; i < rowLen; i++) {
-                final Item<K, V> item = row[i];
-                if (item.key.equals(key)) {
-                    table.set(hc, remove(row, i));
-                    size --;
-                    return item.value;
+            if (row == MOVED) {
+                if (rowMask > mask) {
+                    mask = rowMask;
+                    value = idx;
                 }
+                final Table<K, V> next = table.next;
+                final int nextCapacity = next.rows.length();
+                for (int i = value & (nextCapacity - 1); i < nextCapacity; i += mask + 1) {
+                    clear(next, i, mask, value);
+                }
+                return;
+            }
+            // a row of a smaller table may also hold items of other rows
+            final Item<K, V>[] rest = rowMask >= mask ? null : without(row, mask, value);
+            if (rest == row) {
+                return;
+            }
+            if (rows.compareAndSet(idx, row, rest)) {
+                sizeUpdater.addAndGet(this, (rest == null ? 0 : rest.length) - row.length);
+                return;
             }
-            return null;
-        }
-    }
-
-    public void clear() {
-        synchronized (writeLock) {
-            table = new AtomicReferenceArray<Item<K, V>[]>(table.length());
-            size = 0;
         }
     }
 
@@ -268,62 +557,85 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
         if (key == null) {
             throw new IllegalArgumentException("key is null");
         }
-        synchronized (writeLock) {
-            return doPut(table, key, value, true);
-        }
+        return doPut(key, value, true);
     }
 
-    public boolean remove(final Object key, final Object value) {
-        if (key == null) {
-            return false;
+    /**
+     * Map each of the given keys which is absent to the corresponding value.  On return, each element of
+     * {@code values} is the value which is mapped to the corresponding key, which is the existing value if the key was
+     * already present.
+     *
+     * @param keys the keys
+     * @param values the values for the absent keys, replaced by the mapped values
+     */
+    void putAllIfAbsent(final K[] keys, final V[] values) {
+        assert keys.length == values.length;
+        for (K key : keys) {
+            if (key == null) {
+                throw new IllegalArgumentException("key is null");
+            }
         }
-        synchronized (writeLock) {
-            final int hc = getIndex(table, key);
-            final Item<K, V>[] row = doGetRow(table, hc);
-            if (row == null) {
-                return false;
-            }
-            final int rowLen = row.length;
-            for (int i = 0; i < rowLen; i++) {
-                final Item<K, V> item = row[i];
-                if (item.key.equals(key) && (value == null ? item.value == null : value.equals(item.value))) {
-                    table.set(hc, remove(row, i));
-                    size --;
-                    return true;
-                }
+        for (int i = 0; i < keys.length; i ++) {
+            final V existing = doPut(keys[i], values[i], true);
+            if (existing != null) {
+                values[i] = existing;
             }
-            return false;
         }
     }
 
-    public boolean replace(final K key, final V oldValue, final V newValue) {
-        if (key == null) {
+    public boolean remove(final Object key, final Object value) {
+        if (key == null || value == null) {
             return false;
         }
-        synchronized (writeLock) {
-            final Item<K, V> item = doGet(table, key);
-            if (item != null) {
-                if (oldValue == null ? item.value == null : oldValue.equals(item.value)) {
-                    item.value = newValue;
-                    return true;
-                }
-            }
+        return doRemove(key, value) != null;
+    }
+
+    public boolean replace(final K key, final V oldValue, final V newValue) {
+        if (key == null || oldValue == null) {
             return false;
         }
+        return doReplace(key, oldValue, newValue) != null;
+    }
+
+    /**
+     * Get the number of rows of the current table.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return table.rows.length();
     }
 
     public V replace(final K key, final V value) {
         if (key == null) {
             return null;
         }
-        synchronized (writeLock) {
-            final Item<K, V> item = doGet(table, key);
-            if (item != null) try {
-                return item.value;
-            } finally {
-                item.value = value;
-            }
-            return null;
+        final Item<K, V> item = doReplace(key, null, value);
+        return item == null ? null : item.value;
+    }
+
+    /**
+     * A table of rows, and the state of its transfer to the next table once it is resized.
+     */
+    private static final class Table<K, V> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Table, Table> nextUpdater = AtomicReferenceFieldUpdater.newUpdater(Table.class, Table.class, "next");
+
+        private final AtomicReferenceArray<Item<K, V>[]> rows;
+        private final int threshold;
+        /** The first row which was not claimed for the transfer yet. */
+        private final AtomicInteger transferIndex = new AtomicInteger();
+        /** The number of rows which were moved to the next table. */
+        private final AtomicInteger transferred = new AtomicInteger();
+        private volatile Table<K, V> next;
+
+        private Table(final int capacity, final float loadFactor) {
+            rows = new AtomicReferenceArray<Item<K, V>[]>(capacity);
+            threshold = (int)(capacity * loadFactor);
+        }
+
+        private void casNext(final Table<K, V> next) {
+            nextUpdater.compareAndSet(this, null, next);
         }
     }
 
@@ -339,30 +651,71 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
     }
 
     private final class EntryIterator implements Iterator<Entry<K, V>> {
-        private final AtomicReferenceArray<Item<K,V>[]> table = UnlockedReadHashMap.this.table;
+        private final Table<K, V> table = UnlockedReadHashMap.this.table;
         private int tableIdx;
+        private Item<K, V>[] items;
         private int itemIdx;
         private Item<K, V> next;
 
         public boolean hasNext() {
             while (next == null) {
-                if (table.length() == tableIdx) {
-                    return false;
+                if (items != null && itemIdx < items.length) {
+                    next = items[itemIdx++];
+                    return true;
                 }
-                final Item<K, V>[] items = table.get(tableIdx);
-                if (items != null) {
-                    final int len = items.length;
-                    if (itemIdx < len) {
-                        next = items[itemIdx++];
-                        return true;
-                    }
+                if (table.rows.length() == tableIdx) {
+                    return false;
                 }
+                items = getRow(table, tableIdx++);
                 itemIdx = 0;
-                tableIdx++;
             }
             return true;
         }
 
+        /**
+         * Get the items of the given row of the given table, following moved rows to the next tables.
+         */
+        @SuppressWarnings("unchecked")
+        private Item<K, V>[] getRow(final Table<K, V> table, final int idx) {
+            final Item<K, V>[] row = table.rows.get(idx);
+            if (row != MOVED) {
+                return row;
+            }
+            final List<Item<K, V>> items = new ArrayList<Item<K, V>>();
+            collect(table, idx, table.rows.length() - 1, idx, items);
+            return items.toArray(UnlockedReadHashMap.<K, V>newRow(items.size()));
+        }
+
+        /**
+         * Add the items of the given row of the given table whose hash is {@code value} in the bits of {@code mask} to
+         * the given list, following moved rows to the next tables.
+         */
+        private void collect(final Table<K, V> table, final int idx, int mask, int value, final List<Item<K, V>> items) {
+            final int rowMask = table.rows.length() - 1;
+            final Item<K, V>[] row = table.rows.get(idx);
+            if (row == null) {
+                return;
+            }
+            if (row == MOVED) {
+                if (rowMask > mask) {
+                    mask = rowMask;
+                    value = idx;
+                }
+                final Table<K, V> next = table.next;
+                final int nextCapacity = next.rows.length();
+                for (int i = value & (nextCapacity - 1); i < nextCapacity; i += mask + 1) {
+                    collect(next, i, mask, value, items);
+                }
+                return;
+            }
+            for (Item<K, V> item : row) {
+                // a row of a smaller table may also hold items of other rows
+                if (rowMask >= mask || (item.hash & mask) == value) {
+                    items.add(item);
+                }
+            }
+        }
+
         public Entry<K, V> next() {
             if (hasNext()) try {
                 return next;
@@ -379,10 +732,12 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
 
     private static final class Item<K, V> implements Entry<K, V> {
         private final K key;
-        private volatile V value;
+        private final int hash;
+        private final V value;
 
-        private Item(final K key, final V value) {
+        private Item(final K key, final int hash, final V value) {
             this.key = key;
+            this.hash = hash;
             this.value = value;
         }
 
@@ -395,11 +750,8 @@ final class UnlockedReadHashMap<K, V> extends AbstractMap<K, V> implements Concu
         }
 
         public V setValue(final V value) {
-            try {
-                return this.value;
-            } finally {
-                this.value = value;
-            }
+            // items are shared by immutable rows; use put or replace instead
+            throw new UnsupportedOperationException();
         }
 
         public int hashCode() {
@@ -104,4 +104,34 @@ public interface ServiceContainerMXBean {
      * @return Returns the string representation of the services whose status matches the passed <code>status</code>
      */
     String dumpServicesToStringByStatus(String status);
+
+    /**
+     * Get the number of services whose status matches the passed <code>status</code>, without examining them.
+     *
+     * @param status The status of the services that we are interested in
+     * @return the number of services whose status matches the passed <code>status</code>
+     */
+    int countServicesByStatus(String status);
+
+    /**
+     * Get the number of task lists which were submitted to the container executor.  The tasks produced by one
+     * service transition are submitted together as one list.
+     *
+     * @return the number of submitted task lists
+     */
+    long getSubmittedTaskBatchCount();
+
+    /**
+     * Get the number of tasks which were submitted to the container executor.
+     *
+     * @return the number of submitted tasks
+     */
+    long getSubmittedTaskCount();
+
+    /**
+     * Get the average number of tasks per submitted task list.
+     *
+     * @return the average task list size, or {@code 0} if no tasks were submitted yet
+     */
+    double getAverageTaskBatchSize();
 }
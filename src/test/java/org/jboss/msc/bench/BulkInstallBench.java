@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+
+/**
+ * Installs a deployment of services, each depending on a few services of the deployment which come after it, either
+ * one builder at a time or all builders at once, and measures the time of the installation and the time until the
+ * container is stable.
+ * <p>
+ * Usage: {@code BulkInstallBench <services> [dependencies per service] [rounds]}
+ */
+public class BulkInstallBench {
+
+    public static void main(String[] args) throws Exception {
+        final int serviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int dependencyCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        final ServiceName[] names = new ServiceName[serviceCount];
+        for (int i = 0; i < serviceCount; i ++) {
+            names[i] = ServiceName.of("deployment", "service" + i);
+        }
+        // builders are listed before their dependencies, as deployers often do
+        final int[][] dependencies = new int[serviceCount][];
+        final Random random = new Random(17L);
+        for (int i = 0; i < serviceCount; i ++) {
+            final int count = Math.min(dependencyCount, serviceCount - i - 1);
+            dependencies[i] = new int[count];
+            for (int j = 0; j < count; j ++) {
+                dependencies[i][j] = i + 1 + random.nextInt(serviceCount - i - 1);
+            }
+        }
+
+        for (int round = 0; round < rounds; round ++) {
+            for (boolean bulk : new boolean[] { false, true }) {
+                final ServiceContainer container = ServiceContainer.Factory.create("bulk", false);
+                final long start = System.nanoTime();
+                final List<ServiceBuilder<?>> builders = new ArrayList<ServiceBuilder<?>>(serviceCount);
+                for (int i = 0; i < serviceCount; i ++) {
+                    final ServiceBuilder<Void> builder = container.addService(names[i], Service.NULL);
+                    for (int dependency : dependencies[i]) {
+                        builder.addDependency(names[dependency]);
+                    }
+                    if (bulk) {
+                        builders.add(builder);
+                    } else {
+                        builder.install();
+                    }
+                }
+                if (bulk) {
+                    container.install(builders);
+                }
+                final long installed = System.nanoTime();
+                container.awaitStability();
+                final long end = System.nanoTime();
+                if (container.getRequiredService(names[0]).getState() != ServiceController.State.UP) {
+                    throw new IllegalStateException("Deployment did not start");
+                }
+                System.out.printf("round %d, %s: %d services installed in %.1f ms, stable after %.1f ms%n", Integer.valueOf(round),
+                        bulk ? "bulk      " : "one by one", Integer.valueOf(serviceCount), Double.valueOf((installed - start) / 1000000.0),
+                        Double.valueOf((end - start) / 1000000.0));
+                container.shutdown();
+                container.awaitTermination();
+            }
+        }
+    }
+}
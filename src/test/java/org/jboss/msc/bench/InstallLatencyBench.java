@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+
+/**
+ * Installs many services into an empty container from several threads, so that the registry grows from its initial
+ * size, and reports the latency percentiles of the single installations.  The services are never started, so the
+ * latency is that of the installation alone.
+ * <p>
+ * Usage: {@code InstallLatencyBench <services> [threads] [rounds]}
+ */
+public class InstallLatencyBench {
+
+    public static void main(String[] args) throws Exception {
+        final int serviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final int perThread = serviceCount / threadCount;
+
+        final ServiceName[][] names = new ServiceName[threadCount][perThread];
+        for (int t = 0; t < threadCount; t ++) {
+            for (int i = 0; i < perThread; i ++) {
+                names[t][i] = ServiceName.of("deployment" + t, "service" + i);
+            }
+        }
+
+        for (int round = 0; round < rounds; round ++) {
+            final ServiceContainer container = ServiceContainer.Factory.create("latency", false);
+            final long[][] latencies = new long[threadCount][perThread];
+            final CountDownLatch go = new CountDownLatch(1);
+            final Thread[] threads = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t ++) {
+                final ServiceName[] threadNames = names[t];
+                final long[] threadLatencies = latencies[t];
+                threads[t] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            go.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < threadNames.length; i ++) {
+                            final long start = System.nanoTime();
+                            container.addService(threadNames[i], Service.NULL).setInitialMode(ServiceController.Mode.NEVER).install();
+                            threadLatencies[i] = System.nanoTime() - start;
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            final long start = System.nanoTime();
+            go.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            final long elapsed = System.nanoTime() - start;
+            final long[] all = new long[threadCount * perThread];
+            for (int t = 0; t < threadCount; t ++) {
+                System.arraycopy(latencies[t], 0, all, t * perThread, perThread);
+            }
+            Arrays.sort(all);
+            System.out.printf("round %d: %d installs in %.1f ms, latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, p99.99 %.1f us, max %.1f us%n",
+                    Integer.valueOf(round), Integer.valueOf(all.length), Double.valueOf(elapsed / 1000000.0), micros(all, 0.5),
+                    micros(all, 0.99), micros(all, 0.999), micros(all, 0.9999), Double.valueOf(all[all.length - 1] / 1000.0));
+            container.shutdown();
+            container.awaitTermination();
+        }
+    }
+
+    private static Double micros(final long[] sorted, final double percentile) {
+        return Double.valueOf(sorted[(int) Math.min(sorted.length - 1, Math.round(sorted.length * percentile))] / 1000.0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ValueService;
+import org.jboss.msc.value.ImmediateValue;
+
+/**
+ * Measures the throughput of registry lookups, {@code getRequiredService(name).getValue()}, on a started container,
+ * for an increasing number of reader threads.  One extra thread keeps installing and removing services meanwhile,
+ * unless disabled, so that the readers contend with registry writers.
+ * <p>
+ * Usage: {@code RegistryLookupBench [services] [max reader threads] [seconds per run] [writer: true|false]}
+ */
+public class RegistryLookupBench {
+
+    public static void main(String[] args) throws Exception {
+        final int serviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        final long millis = (args.length > 2 ? Long.parseLong(args[2]) : 3L) * 1000L;
+        final boolean writer = args.length <= 3 || Boolean.parseBoolean(args[3]);
+
+        final ServiceContainer container = ServiceContainer.Factory.create("lookup");
+        final ServiceName[] names = new ServiceName[serviceCount];
+        for (int i = 0; i < serviceCount; i ++) {
+            names[i] = ServiceName.of("lookup", Integer.toString(i));
+            container.addService(names[i], new ValueService<Integer>(new ImmediateValue<Integer>(Integer.valueOf(i)))).install();
+        }
+        container.awaitStability();
+
+        // warm up
+        run(container, names, 1, millis, false);
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            final long ops = run(container, names, threads, millis, writer);
+            System.out.printf("%d reader threads: %.0f lookups/s%n", Integer.valueOf(threads), Double.valueOf(ops * 1000.0 / millis));
+        }
+        container.shutdown();
+        container.awaitTermination();
+    }
+
+    private static long run(final ServiceContainer container, final ServiceName[] names, final int threadCount, final long millis, final boolean withWriter) throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final CountDownLatch go = new CountDownLatch(1);
+        final long deadline = System.currentTimeMillis() + millis;
+        final Thread[] readers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t ++) {
+            final int seed = t;
+            readers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long ops = 0L;
+                    int i = seed * 7919;
+                    long sum = 0L;
+                    while (System.currentTimeMillis() < deadline) {
+                        for (int n = 0; n < 1024; n ++) {
+                            i = (i + 31) % names.length;
+                            sum += ((Integer) container.getRequiredService(names[i]).getValue()).intValue();
+                        }
+                        ops += 1024;
+                    }
+                    total.addAndGet(ops);
+                    if (sum == 42L) System.out.print("");
+                }
+            });
+            readers[t].start();
+        }
+        Thread writerThread = null;
+        if (withWriter) {
+            writerThread = new Thread(new Runnable() {
+                public void run() {
+                    int i = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        final ServiceController<?> controller = container.addService(ServiceName.of("churn", Integer.toString(i ++)), Service.NULL).install();
+                        controller.setMode(ServiceController.Mode.REMOVE);
+                    }
+                }
+            });
+            writerThread.start();
+        }
+        go.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (writerThread != null) {
+            writerThread.join();
+        }
+        return total.get();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.bench;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceBuilder;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+
+/**
+ * Installs a large deployment of started services, each depending on a few others, and reports the heap retained per
+ * service.  The service names are created before the first measurement, so that only the container is counted.
+ * <p>
+ * Usage: {@code ServiceFootprintBench <services> [dependencies per service]}
+ */
+public class ServiceFootprintBench {
+
+    public static void main(String[] args) throws Exception {
+        final int serviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int dependencyCount = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        final ServiceName[] names = new ServiceName[serviceCount];
+        for (int i = 0; i < serviceCount; i ++) {
+            names[i] = ServiceName.of("deployment", "service" + i);
+        }
+        final ServiceContainer container = ServiceContainer.Factory.create("footprint", false);
+        container.awaitStability();
+        final long before = usedHeap();
+        for (int i = 0; i < serviceCount; i ++) {
+            final ServiceBuilder<Void> builder = container.addService(names[i], Service.NULL);
+            for (int j = 1; j <= dependencyCount && j <= i; j ++) {
+                builder.addDependency(names[i - j]);
+            }
+            builder.install();
+        }
+        container.awaitStability();
+        if (container.getRequiredService(names[serviceCount - 1]).getState() != ServiceController.State.UP) {
+            throw new IllegalStateException("Deployment did not start");
+        }
+        final long after = usedHeap();
+        System.out.printf("%d services with %d dependencies each: %.1f MB retained, %.0f bytes per service%n",
+                Integer.valueOf(serviceCount), Integer.valueOf(dependencyCount), Double.valueOf((after - before) / 1048576.0),
+                Double.valueOf((after - before) / (double) serviceCount));
+        container.shutdown();
+        container.awaitTermination();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // collect until the used heap settles
+        for (int i = 0; i < 10; i ++) {
+            System.gc();
+            Thread.sleep(50L);
+            final long current = runtime.totalMemory() - runtime.freeMemory();
+            if (current >= used) {
+                return current;
+            }
+            used = current;
+        }
+        return used;
+    }
+}
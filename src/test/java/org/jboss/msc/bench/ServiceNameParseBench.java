@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.bench;
+
+import java.lang.management.ManagementFactory;
+
+import org.jboss.msc.service.ServiceName;
+
+/**
+ * Measures the throughput of {@link ServiceName#parse(String)}, and the bytes it allocates per call, as a management
+ * client uses it: for a few names which are looked up again and again, for more names than are kept parsed, and for
+ * names with quoted segments.
+ * <p>
+ * Usage: {@code ServiceNameParseBench [seconds] [rounds]}
+ */
+public class ServiceNameParseBench {
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        final String[] hot = names(256, false);
+        final String[] cold = names(100000, false);
+        final String[] quoted = names(256, true);
+        for (int round = 0; round < rounds; round ++) {
+            run("hot   ", hot, seconds);
+            run("cold  ", cold, seconds);
+            run("quoted", quoted, seconds);
+        }
+    }
+
+    private static String[] names(final int count, final boolean quoted) {
+        final String[] names = new String[count];
+        for (int i = 0; i < count; i ++) {
+            final String deployment = "app" + (i / 32) + ".war";
+            names[i] = "jboss.naming.context.java.module." + (quoted ? '"' + deployment + '"' : deployment.replace('.', '-')) + ".service" + i;
+        }
+        return names;
+    }
+
+    private static void run(final String label, final String[] names, final int seconds) {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        long count = 0;
+        int next = 0;
+        do {
+            for (int i = 0; i < 1024; i ++) {
+                sink = ServiceName.parse(names[next]);
+                if (++ next == names.length) {
+                    next = 0;
+                }
+            }
+            count += 1024;
+        } while (System.nanoTime() < deadline);
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%s %6d names: %,12.0f parses/s, %6.1f ns/parse, %6.0f bytes/parse%n", label, Integer.valueOf(names.length),
+                Double.valueOf(count / (elapsed / 1000000000.0)), Double.valueOf(elapsed / (double) count), Double.valueOf(allocated / (double) count));
+    }
+}
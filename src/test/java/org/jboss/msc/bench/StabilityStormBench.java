@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceContainer;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.ServiceTarget;
+
+/**
+ * Installs, starts and removes services from many threads at once, so that the controllers constantly enter and leave
+ * their rest states, and measures the time until the container is stable.
+ * <p>
+ * Usage: {@code StabilityStormBench <installer threads> <services per thread> [rounds]}
+ */
+public class StabilityStormBench {
+
+    public static void main(String[] args) throws Exception {
+        final int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        final int servicesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        for (int round = 0; round < rounds; round ++) {
+            final ServiceContainer container = ServiceContainer.Factory.create("storm");
+            final CountDownLatch ready = new CountDownLatch(threadCount);
+            final CountDownLatch go = new CountDownLatch(1);
+            final Thread[] installers = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t ++) {
+                final ServiceName prefix = ServiceName.of("storm", Integer.toString(t));
+                final ServiceTarget target = container.subTarget();
+                installers[t] = new Thread(new Runnable() {
+                    public void run() {
+                        ready.countDown();
+                        try {
+                            go.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        ServiceController<?> previous = null;
+                        for (int i = 0; i < servicesPerThread; i ++) {
+                            final ServiceController<?> controller = target.addService(prefix.append(Integer.toString(i)), Service.NULL).install();
+                            // keep the number of live services bounded, and make every controller leave its rest state twice
+                            if (previous != null) {
+                                previous.setMode(ServiceController.Mode.REMOVE);
+                            }
+                            previous = controller;
+                        }
+                    }
+                });
+                installers[t].start();
+            }
+            ready.await();
+            final long start = System.nanoTime();
+            go.countDown();
+            for (Thread installer : installers) {
+                installer.join();
+            }
+            container.awaitStability();
+            final long end = System.nanoTime();
+            final int total = threadCount * servicesPerThread;
+            System.out.printf("round %d: %d threads, %d services: %.1f ms (%.0f services/s)%n", Integer.valueOf(round), Integer.valueOf(threadCount),
+                    Integer.valueOf(total), Double.valueOf((end - start) / 1000000.0), Double.valueOf(total / ((end - start) / 1000000000.0)));
+            container.shutdown();
+            container.awaitTermination();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.bench;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.UnlockedReadHashMapAccess;
+
+/**
+ * Compares the registry map of the container, {@code UnlockedReadHashMap}, with {@link ConcurrentHashMap}: every thread
+ * keeps registering names with {@code putIfAbsent} and removing them again, while also looking up names.  The map
+ * starts small, so that it grows while the threads run.
+ * <p>
+ * Usage: {@code UnlockedReadHashMapBench <max threads> [seconds] [reads per write]}
+ */
+public class UnlockedReadHashMapBench {
+
+    /** The number of names each thread cycles through; half of them are registered at any time. */
+    private static final int NAMES_PER_THREAD = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final int readsPerWrite = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            run("UnlockedReadHashMap", UnlockedReadHashMapAccess.<ServiceName, Object>newMap(512), threads, seconds, readsPerWrite);
+            run("ConcurrentHashMap  ", new ConcurrentHashMap<ServiceName, Object>(512), threads, seconds, readsPerWrite);
+        }
+    }
+
+    private static void run(final String label, final ConcurrentMap<ServiceName, Object> map, final int threadCount, final int seconds, final int readsPerWrite) throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch ready = new CountDownLatch(threadCount);
+        final CountDownLatch go = new CountDownLatch(1);
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t ++) {
+            final ServiceName[] names = new ServiceName[NAMES_PER_THREAD];
+            for (int i = 0; i < NAMES_PER_THREAD; i ++) {
+                names[i] = ServiceName.of("deployment" + t, "service" + i);
+            }
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    final Object value = new Object();
+                    final int mask = NAMES_PER_THREAD - 1;
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long count = 0;
+                    int next = 0;
+                    while (! stop.get()) {
+                        map.putIfAbsent(names[next & mask], value);
+                        for (int i = 1; i <= readsPerWrite; i ++) {
+                            map.get(names[(next - i * 31) & mask]);
+                        }
+                        map.remove(names[(next - NAMES_PER_THREAD / 2) & mask]);
+                        next ++;
+                        count += readsPerWrite + 2;
+                    }
+                    operations.addAndGet(count);
+                }
+            });
+            threads[t].start();
+        }
+        ready.await();
+        final long start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+        System.out.printf("%s %2d threads: %,12.0f ops/s, %,d entries%n", label, Integer.valueOf(threadCount),
+                Double.valueOf(operations.get() / (elapsed / 1000000000.0)), Integer.valueOf(map.size()));
+    }
+}
@@ -141,6 +141,37 @@ public abstract class AbstractServiceRegistryTest extends AbstractServiceTest {
         assertTrue(serviceNames.contains(oneTwoFive));
     }
 
+    @Test
+    public void getServiceNamesUnderName() throws Exception {
+        final ServiceName oneTwo = ServiceName.of("one", "two");
+        final ServiceName oneTwoFiveSix = oneTwoFive.append("six");
+        final ServiceName oneSeven = ServiceName.of("one", "seven");
+        serviceContainer.addService(oneTwoFiveSix, Service.NULL).install();
+        serviceContainer.addService(oneSeven, Service.NULL).addAliases(oneTwo.append("alias")).install();
+        List<ServiceName> serviceNames = registry.getServiceNames(oneTwo);
+        assertEquals(4, serviceNames.size());
+        assertTrue(serviceNames.contains(oneTwoThree));
+        assertTrue(serviceNames.contains(oneTwoFive));
+        assertTrue(serviceNames.contains(oneTwoFiveSix));
+        assertTrue(serviceNames.contains(oneTwo.append("alias")));
+        serviceNames = registry.getServiceNames(oneTwoFive);
+        assertEquals(2, serviceNames.size());
+        assertTrue(serviceNames.contains(oneTwoFive));
+        assertTrue(serviceNames.contains(oneTwoFiveSix));
+        assertEquals(5, registry.getServiceNames(ServiceName.of("one")).size());
+        assertEquals(0, registry.getServiceNames(ServiceName.of("two")).size());
+        assertEquals(0, registry.getServiceNames(oneTwoThree.append("four")).size());
+        removeService(oneTwoFive);
+        serviceNames = registry.getServiceNames(oneTwoFive);
+        assertEquals(1, serviceNames.size());
+        assertTrue(serviceNames.contains(oneTwoFiveSix));
+        removeService(oneSeven);
+        serviceNames = registry.getServiceNames(oneTwo);
+        assertEquals(2, serviceNames.size());
+        assertTrue(serviceNames.contains(oneTwoThree));
+        assertTrue(serviceNames.contains(oneTwoFiveSix));
+    }
+
     /**
      * Remove {@code serviceName} from {@code serviceContainer}.
      */
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.Test;
+
+/**
+ * Tests the installation of several services at once with {@link ServiceTarget#install(java.util.Collection)}.
+ */
+public class BulkInstallTestCase extends AbstractServiceTest {
+
+    private static final ServiceName A = ServiceName.of("A");
+    private static final ServiceName B = ServiceName.of("B");
+    private static final ServiceName C = ServiceName.of("C");
+
+    @Test
+    public void installAll() throws Exception {
+        // dependents come first
+        final List<ServiceBuilder<?>> builders = new ArrayList<ServiceBuilder<?>>();
+        builders.add(serviceContainer.addService(A, Service.NULL).addDependency(B));
+        builders.add(serviceContainer.addService(B, Service.NULL).addDependency(C));
+        builders.add(serviceContainer.addService(C, Service.NULL).setInitialMode(Mode.ON_DEMAND));
+        final List<ServiceController<?>> controllers = serviceContainer.install(builders);
+        assertEquals(3, controllers.size());
+        assertSame(serviceContainer.getService(A), controllers.get(0));
+        assertSame(serviceContainer.getService(B), controllers.get(1));
+        assertSame(serviceContainer.getService(C), controllers.get(2));
+        serviceContainer.awaitStability();
+        for (ServiceController<?> controller : controllers) {
+            assertEquals(State.UP, controller.getState());
+        }
+        assertEquals(Mode.ON_DEMAND, controllers.get(2).getMode());
+    }
+
+    @Test
+    public void duplicateInSet() throws Exception {
+        final List<ServiceBuilder<?>> builders = new ArrayList<ServiceBuilder<?>>();
+        builders.add(serviceContainer.addService(A, Service.NULL));
+        builders.add(serviceContainer.addService(B, Service.NULL).addAliases(A));
+        try {
+            serviceContainer.install(builders);
+            fail("DuplicateServiceException expected");
+        } catch (DuplicateServiceException expected) {
+        }
+        assertNull(serviceContainer.getService(A));
+        assertNull(serviceContainer.getService(B));
+    }
+
+    @Test
+    public void duplicateOfInstalled() throws Exception {
+        serviceContainer.addService(C, Service.NULL).install();
+        final List<ServiceBuilder<?>> builders = new ArrayList<ServiceBuilder<?>>();
+        builders.add(serviceContainer.addService(A, Service.NULL));
+        builders.add(serviceContainer.addService(C, Service.NULL));
+        try {
+            serviceContainer.install(builders);
+            fail("DuplicateServiceException expected");
+        } catch (DuplicateServiceException expected) {
+        }
+        assertNull(serviceContainer.getService(A));
+    }
+
+    @Test
+    public void cycleInSet() throws Exception {
+        serviceContainer.addService(C, Service.NULL).addDependency(A).install();
+        final List<ServiceBuilder<?>> builders = new ArrayList<ServiceBuilder<?>>();
+        builders.add(serviceContainer.addService(A, Service.NULL).addDependency(B));
+        builders.add(serviceContainer.addService(B, Service.NULL).addDependency(C));
+        try {
+            serviceContainer.install(builders);
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            assertArrayEquals(new ServiceName[] {A, C, B}, e.getCycle());
+        }
+        serviceContainer.awaitStability();
+        assertNull(serviceContainer.getService(A));
+        assertNull(serviceContainer.getService(B));
+        // the set may be installed once the cycle is gone
+        serviceContainer.getRequiredService(C).setMode(Mode.REMOVE);
+        serviceContainer.awaitStability();
+        builders.clear();
+        builders.add(serviceContainer.addService(A, Service.NULL).addDependency(B));
+        builders.add(serviceContainer.addService(B, Service.NULL));
+        serviceContainer.install(builders);
+        serviceContainer.awaitStability();
+        assertEquals(State.UP, serviceContainer.getRequiredService(A).getState());
+    }
+
+    @Test
+    public void batchTarget() throws Exception {
+        final BatchServiceTarget batchTarget = serviceContainer.batchTarget();
+        final ServiceTarget subTarget = batchTarget.subTarget();
+        final List<ServiceController<?>> controllers = subTarget.install(Arrays.<ServiceBuilder<?>>asList(
+                subTarget.addService(A, Service.NULL), subTarget.addService(B, Service.NULL)));
+        serviceContainer.awaitStability();
+        assertEquals(State.UP, controllers.get(0).getState());
+        batchTarget.removeServices();
+        serviceContainer.awaitStability();
+        assertNull(serviceContainer.getService(A));
+        assertNull(serviceContainer.getService(B));
+    }
+
+    @Test
+    public void foreignBuilder() {
+        final ServiceBuilder<?> builder = serviceContainer.subTarget().addService(A, Service.NULL);
+        try {
+            serviceContainer.install(Collections.<ServiceBuilder<?>>singletonList(builder));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+        }
+        // the builder is left untouched
+        builder.install();
+        assertEquals(A, serviceContainer.getRequiredService(A).getName());
+    }
+
+    @Test
+    public void installedBuilder() {
+        final ServiceBuilder<?> builder = serviceContainer.addService(A, Service.NULL);
+        builder.install();
+        try {
+            serviceContainer.install(Collections.<ServiceBuilder<?>>singletonList(builder));
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the executors and concurrency limits of service targets.
+ */
+public class BulkheadTestCase {
+
+    private static final String THREAD_NAME = "bulkhead-thread";
+
+    private ServiceContainer container;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        container = ServiceContainer.Factory.create("bulkhead", false);
+        executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, THREAD_NAME);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.shutdown();
+        container.awaitTermination();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrencyLimit() throws Exception {
+        final ServiceTarget target = container.subTarget().setConcurrencyLimit(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ServiceController<?> blocking = target.addService(ServiceName.of("blocking"), new CountingService(running, maxRunning, blocked, release)).install();
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        final ServiceController<?>[] limited = new ServiceController<?>[4];
+        for (int i = 0; i < limited.length; i ++) {
+            limited[i] = target.addService(ServiceName.of("limited", Integer.toString(i)), new CountingService(running, maxRunning, null, null)).install();
+        }
+        // services of other targets are not held up
+        final CountDownLatch unrelatedStarted = new CountDownLatch(1);
+        final ServiceController<?> unrelated = container.addService(ServiceName.of("unrelated"), new CountingService(new AtomicInteger(), new AtomicInteger(), unrelatedStarted, null)).install();
+        assertTrue(unrelatedStarted.await(10, TimeUnit.SECONDS));
+        // but the services of this target wait for the blocking one
+        for (ServiceController<?> controller : limited) {
+            assertFalse(controller.getState() == State.UP);
+        }
+        release.countDown();
+        container.awaitStability();
+        assertEquals(State.UP, blocking.getState());
+        assertEquals(State.UP, unrelated.getState());
+        for (ServiceController<?> controller : limited) {
+            assertEquals(State.UP, controller.getState());
+        }
+        assertEquals(1, maxRunning.get());
+        // stops are limited too
+        for (ServiceController<?> controller : limited) {
+            controller.setMode(ServiceController.Mode.NEVER);
+        }
+        container.awaitStability();
+        for (ServiceController<?> controller : limited) {
+            assertEquals(State.DOWN, controller.getState());
+        }
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void limitChangeKeepsRunningTasksCounted() throws Exception {
+        final ServiceTarget target = container.subTarget().setConcurrencyLimit(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ServiceController<?> blocking = target.addService(ServiceName.of("blocking"), new CountingService(running, maxRunning, blocked, release)).install();
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        // the target keeps its bulkhead, so the blocking service still holds the only permit
+        target.setConcurrencyLimit(1);
+        final ServiceController<?> limited = target.addService(ServiceName.of("limited"), new CountingService(running, maxRunning, null, null)).install();
+        Thread.sleep(50L);
+        assertFalse(limited.getState() == State.UP);
+        release.countDown();
+        container.awaitStability();
+        assertEquals(State.UP, blocking.getState());
+        assertEquals(State.UP, limited.getState());
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void asynchronousStartHoldsPermit() throws Exception {
+        final ServiceTarget target = container.subTarget().setConcurrencyLimit(1);
+        final AsyncService first = new AsyncService();
+        final ServiceController<?> firstController = target.addService(ServiceName.of("first"), first).install();
+        final StartContext firstContext = first.awaitStartContext();
+        final AsyncService second = new AsyncService();
+        final ServiceController<?> secondController = target.addService(ServiceName.of("second"), second).install();
+        Thread.sleep(50L);
+        // the start of the first service is still in progress, so it keeps the only permit
+        assertNull(second.startContext);
+        firstContext.complete();
+        second.awaitStartContext().failed(new StartException("expected"));
+        container.awaitStability();
+        assertEquals(State.UP, firstController.getState());
+        assertEquals(State.START_FAILED, secondController.getState());
+        // a failed start gives its permit back too
+        final ServiceController<?> third = target.addService(ServiceName.of("third"), Service.NULL).install();
+        container.awaitStability();
+        assertEquals(State.UP, third.getState());
+    }
+
+    @Test
+    public void asynchronousStopHoldsPermit() throws Exception {
+        final ServiceTarget target = container.subTarget().setConcurrencyLimit(1);
+        final AsyncService first = new AsyncService();
+        first.asyncStop = true;
+        final ServiceController<?> firstController = target.addService(ServiceName.of("first"), first).install();
+        first.awaitStartContext().complete();
+        container.awaitStability();
+        firstController.setMode(ServiceController.Mode.NEVER);
+        final StopContext firstContext = first.awaitStopContext();
+        final AsyncService second = new AsyncService();
+        target.addService(ServiceName.of("second"), second).install();
+        Thread.sleep(50L);
+        assertNull(second.startContext);
+        firstContext.complete();
+        second.awaitStartContext().complete();
+        container.awaitStability();
+        assertEquals(State.DOWN, firstController.getState());
+    }
+
+    @Test
+    public void replacedExecutor() throws Exception {
+        final ExecutorService other = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, "other-thread");
+            }
+        });
+        try {
+            final ServiceTarget target = container.subTarget().setExecutor(executor);
+            final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+            target.addService(ServiceName.of("first"), new ThreadService(container, threads, false)).install();
+            container.awaitStability();
+            assertEquals(Collections.singleton(THREAD_NAME), threads);
+            for (int i = 0; i < 10; i ++) {
+                target.setExecutor(executor);
+                target.setExecutor(other);
+            }
+            threads.clear();
+            target.addService(ServiceName.of("second"), new ThreadService(container, threads, false)).install();
+            container.awaitStability();
+            assertEquals(Collections.singleton("other-thread"), threads);
+            // the replaced executors do not hold up the termination of the container
+            container.shutdown();
+            container.awaitTermination(10, TimeUnit.SECONDS);
+            assertTrue(container.isShutdownComplete());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void dedicatedExecutor() throws Exception {
+        final ServiceTarget target = container.subTarget().setExecutor(executor);
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final ThreadService parent = new ThreadService(container, threads, true);
+        final ServiceController<?> controller = target.addService(ServiceName.of("parent"), parent).install();
+        final ServiceController<?> subController = target.subTarget().addService(ServiceName.of("sub"), new ThreadService(container, threads, false)).install();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        assertEquals(State.UP, subController.getState());
+        assertEquals(State.UP, container.getRequiredService(ServiceName.of("parent", "child")).getState());
+        assertEquals(Collections.singleton(THREAD_NAME), threads);
+        assertEquals(0, parent.foreignThreads.get());
+    }
+
+    @Test
+    public void innermostTargetWins() throws Exception {
+        final ServiceTarget target = container.subTarget().setExecutor(executor);
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        target.subTarget().setConcurrencyLimit(1).addService(ServiceName.of("default"), new ThreadService(container, threads, false)).install();
+        container.awaitStability();
+        assertEquals(1, threads.size());
+        assertFalse(threads.contains(THREAD_NAME));
+    }
+
+    @Test
+    public void shutdownWithDedicatedExecutor() throws Exception {
+        final ServiceTarget target = container.subTarget().setExecutor(executor);
+        final ServiceController<?> controller = target.addService(ServiceName.of("service"), Service.NULL).install();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        container.shutdown();
+        container.awaitTermination();
+        assertTrue(container.isShutdownComplete());
+        assertEquals(State.REMOVED, controller.getState());
+        assertFalse(executor.isShutdown());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void executorAfterShutdown() throws Exception {
+        container.shutdown();
+        container.awaitTermination();
+        container.subTarget().setExecutor(executor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimit() {
+        container.subTarget().setConcurrencyLimit(-1);
+    }
+
+    private static final class CountingService implements Service<Void> {
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        CountingService(final AtomicInteger running, final AtomicInteger maxRunning, final CountDownLatch started, final CountDownLatch release) {
+            this.running = running;
+            this.maxRunning = maxRunning;
+            this.started = started;
+            this.release = release;
+        }
+
+        public void start(final StartContext context) throws StartException {
+            enter();
+            try {
+                if (started != null) {
+                    started.countDown();
+                }
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                } else {
+                    Thread.sleep(10L);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        public void stop(final StopContext context) {
+            enter();
+            try {
+                Thread.sleep(10L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        private void enter() {
+            final int current = running.incrementAndGet();
+            int max;
+            do {
+                max = maxRunning.get();
+            } while (current > max && ! maxRunning.compareAndSet(max, current));
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+
+    private static final class AsyncService implements Service<Void> {
+        volatile StartContext startContext;
+        volatile StopContext stopContext;
+        volatile boolean asyncStop;
+
+        public synchronized void start(final StartContext context) throws StartException {
+            context.asynchronous();
+            startContext = context;
+            notifyAll();
+        }
+
+        public synchronized void stop(final StopContext context) {
+            if (asyncStop) {
+                context.asynchronous();
+                stopContext = context;
+                notifyAll();
+            }
+        }
+
+        synchronized StartContext awaitStartContext() throws InterruptedException {
+            while (startContext == null) {
+                wait();
+            }
+            return startContext;
+        }
+
+        synchronized StopContext awaitStopContext() throws InterruptedException {
+            while (stopContext == null) {
+                wait();
+            }
+            return stopContext;
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+
+    private static final class ThreadService implements Service<Void> {
+        private final ServiceContainer container;
+        private final Set<String> threads;
+        private final boolean installChild;
+        private final AtomicInteger foreignThreads = new AtomicInteger();
+
+        ThreadService(final ServiceContainer container, final Set<String> threads, final boolean installChild) {
+            this.container = container;
+            this.threads = threads;
+            this.installChild = installChild;
+        }
+
+        public void start(final StartContext context) throws StartException {
+            threads.add(Thread.currentThread().getName());
+            if (! ServiceUtils.isServiceThread(Thread.currentThread(), container)) {
+                foreignThreads.incrementAndGet();
+            }
+            if (installChild) {
+                context.getChildTarget().addService(context.getController().getName().append("child"), new ThreadService(container, threads, false)).install();
+            }
+        }
+
+        public void stop(final StopContext context) {
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.Test;
+
+/**
+ * Tests the cycle detection of the incrementally maintained dependency order, in particular that the exact cycle is
+ * reported after the order was rearranged.
+ */
+public class DependencyOrderTestCase extends AbstractServiceTest {
+
+    private static final ServiceName A = ServiceName.of("A");
+    private static final ServiceName B = ServiceName.of("B");
+    private static final ServiceName C = ServiceName.of("C");
+
+    @Test
+    public void exactCycle() {
+        serviceContainer.addService(A, Service.NULL).addDependency(B).install();
+        serviceContainer.addService(B, Service.NULL).addDependency(C).install();
+        try {
+            serviceContainer.addService(C, Service.NULL).addDependency(A).install();
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            // the installed service, followed by its dependents along the cycle
+            assertArrayEquals(new ServiceName[] {C, B, A}, e.getCycle());
+            assertEquals("Container " + serviceContainer.getName() + " has a circular dependency: [service C, service B, service A]", e.getMessage());
+        }
+        assertEquals(null, serviceContainer.getService(C));
+    }
+
+    @Test
+    public void reverseInstallationOrder() throws Exception {
+        // each service is installed before its dependency, so that every installation contradicts the order
+        final int count = 500;
+        for (int i = 0; i < count - 1; i ++) {
+            serviceContainer.addService(name(i), Service.NULL).addDependency(name(i + 1)).install();
+        }
+        try {
+            serviceContainer.addService(name(count - 1), Service.NULL).addDependency(name(0)).install();
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            final ServiceName[] cycle = e.getCycle();
+            assertEquals(count, cycle.length);
+            for (int i = 0; i < count; i ++) {
+                assertEquals(name(count - 1 - i), cycle[i]);
+            }
+        }
+        final ServiceController<?> last = serviceContainer.addService(name(count - 1), Service.NULL).install();
+        serviceContainer.awaitStability();
+        assertEquals(State.UP, last.getState());
+        assertEquals(State.UP, serviceContainer.getRequiredService(name(0)).getState());
+    }
+
+    @Test
+    public void removalBreaksCycle() throws Exception {
+        final ServiceController<?> a = serviceContainer.addService(A, Service.NULL).addDependency(B).install();
+        try {
+            serviceContainer.addService(B, Service.NULL).addDependency(A).install();
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            assertArrayEquals(new ServiceName[] {B, A}, e.getCycle());
+        }
+        a.setMode(Mode.REMOVE);
+        serviceContainer.awaitStability();
+        final ServiceController<?> b = serviceContainer.addService(B, Service.NULL).addDependency(A).install();
+        try {
+            serviceContainer.addService(A, Service.NULL).addDependency(B).install();
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            assertArrayEquals(new ServiceName[] {A, B}, e.getCycle());
+        }
+        serviceContainer.addService(A, Service.NULL).install();
+        serviceContainer.awaitStability();
+        assertEquals(State.UP, b.getState());
+    }
+
+    @Test
+    public void cycleThroughAlias() {
+        final ServiceName alias = ServiceName.of("A", "alias");
+        serviceContainer.addService(B, Service.NULL).addDependency(alias).install();
+        serviceContainer.addService(C, Service.NULL).addDependency(B).install();
+        try {
+            serviceContainer.addService(A, Service.NULL).addAliases(alias).addDependency(C).install();
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            assertArrayEquals(new ServiceName[] {A, B, C}, e.getCycle());
+        }
+    }
+
+    @Test
+    public void dependencyOnOwnAlias() {
+        final ServiceName alias = ServiceName.of("A", "alias");
+        try {
+            serviceContainer.addService(A, Service.NULL).addAliases(alias).addDependency(alias).install();
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            assertArrayEquals(new ServiceName[] {A}, e.getCycle());
+        }
+        assertTrue(serviceContainer.getServiceNames().isEmpty());
+    }
+
+    @Test
+    public void reinstallAfterRemoval() throws Exception {
+        // the removed services free their places in the order, which the reinstalled ones take over
+        final int count = 100;
+        final ServiceController<?>[] controllers = new ServiceController<?>[count];
+        for (int i = 0; i < count; i ++) {
+            controllers[i] = serviceContainer.addService(name(i), Service.NULL).addDependency(name(i + 1)).install();
+        }
+        for (int i = 0; i < count; i += 2) {
+            controllers[i].setMode(Mode.REMOVE);
+        }
+        serviceContainer.awaitStability();
+        for (int i = count - 2; i >= 0; i -= 2) {
+            serviceContainer.addService(name(i), Service.NULL).addDependency(name(i + 1)).install();
+        }
+        try {
+            serviceContainer.addService(name(count), Service.NULL).addDependency(name(0)).install();
+            fail("CircularDependencyException expected");
+        } catch (CircularDependencyException e) {
+            final ServiceName[] cycle = e.getCycle();
+            assertEquals(count + 1, cycle.length);
+            for (int i = 0; i <= count; i ++) {
+                assertEquals(name(count - i), cycle[i]);
+            }
+        }
+    }
+
+    private static ServiceName name(final int i) {
+        return ServiceName.of("chain", Integer.toString(i));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.service.ServiceContainer.TerminateListener;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests containers that run their tasks on a caller-supplied executor.
+ */
+public class ExternalExecutorTestCase {
+
+    private ExecutorService executor;
+
+    @Before
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void shutdownExecutor() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void serviceThreadDetection() throws Exception {
+        final ServiceContainer container = ServiceContainer.Factory.create("external", executor, false);
+        final ThreadCheckService service = new ThreadCheckService(container);
+        final ServiceController<?> controller = container.addService(ServiceName.of("thread", "check"), service).install();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        assertTrue(service.serviceThread.get());
+        assertFalse(ServiceUtils.isServiceThread(Thread.currentThread()));
+        container.shutdown();
+        container.awaitTermination();
+        assertTrue(service.serviceThread.get());
+    }
+
+    @Test
+    public void sharedExecutorOutlivesContainers() throws Exception {
+        final ServiceContainer container1 = ServiceContainer.Factory.create("external-1", executor, false);
+        final ServiceContainer container2 = ServiceContainer.Factory.create("external-2", executor, false);
+        final ServiceName serviceName = ServiceName.of("service");
+        final ServiceController<?> controller1 = container1.addService(serviceName, Service.NULL).install();
+        final ServiceController<?> controller2 = container2.addService(serviceName, Service.NULL).install();
+        container1.awaitStability();
+        container2.awaitStability();
+        assertEquals(State.UP, controller1.getState());
+        assertEquals(State.UP, controller2.getState());
+
+        final LatchTerminateListener terminateListener = new LatchTerminateListener();
+        container1.addTerminateListener(terminateListener);
+        container1.shutdown();
+        assertTrue(terminateListener.await(10, TimeUnit.SECONDS));
+        assertNotNull(terminateListener.info);
+        assertTrue(container1.isShutdownComplete());
+        assertEquals(State.REMOVED, controller1.getState());
+
+        // the shared executor and the other container are unaffected
+        assertFalse(executor.isShutdown());
+        assertEquals(State.UP, controller2.getState());
+        container2.getService(serviceName).setMode(ServiceController.Mode.NEVER);
+        container2.awaitStability();
+        assertEquals(State.DOWN, controller2.getState());
+        container2.shutdown();
+        container2.awaitTermination();
+        assertTrue(container2.isShutdownComplete());
+    }
+
+    @Test
+    public void boundedExecutor() throws Exception {
+        // rejects every task submitted while its only thread is busy
+        final ThreadPoolExecutor bounded = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>());
+        try {
+            final ServiceContainer container = ServiceContainer.Factory.create("bounded", bounded, false);
+            final Thread installer = Thread.currentThread();
+            final AtomicInteger inlineStarts = new AtomicInteger();
+            final Service<Void> service = new AbstractService<Void>() {
+                public void start(final StartContext context) throws StartException {
+                    if (Thread.currentThread() == installer) {
+                        inlineStarts.incrementAndGet();
+                    }
+                }
+            };
+            final ServiceName root = ServiceName.of("bounded");
+            final List<ServiceController<?>> controllers = new ArrayList<ServiceController<?>>();
+            for (int i = 0; i < 100; i ++) {
+                controllers.add(container.addService(root.append(Integer.toString(i)), service).install());
+            }
+            container.awaitStability();
+            for (ServiceController<?> controller : controllers) {
+                assertEquals(State.UP, controller.getState());
+            }
+            assertEquals(0, inlineStarts.get());
+            container.shutdown();
+            container.awaitTermination();
+            assertTrue(container.isShutdownComplete());
+        } finally {
+            bounded.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdownEmptyContainer() throws Exception {
+        final ServiceContainer container = ServiceContainer.Factory.create(executor);
+        container.shutdown();
+        container.awaitTermination();
+        assertTrue(container.isShutdownComplete());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullExecutor() {
+        ServiceContainer.Factory.create("external", null, false);
+    }
+
+    private static final class ThreadCheckService implements Service<Void> {
+        private final ServiceContainer container;
+        private final AtomicBoolean serviceThread = new AtomicBoolean();
+
+        ThreadCheckService(final ServiceContainer container) {
+            this.container = container;
+        }
+
+        public void start(final StartContext context) throws StartException {
+            serviceThread.set(ServiceUtils.isServiceThread(Thread.currentThread(), container));
+        }
+
+        public void stop(final StopContext context) {
+            serviceThread.compareAndSet(true, ServiceUtils.isServiceThread(Thread.currentThread(), container));
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+
+    private static final class LatchTerminateListener extends CountDownLatch implements TerminateListener {
+        private volatile Info info;
+
+        LatchTerminateListener() {
+            super(1);
+        }
+
+        public void handleTermination(final Info info) {
+            this.info = info;
+            countDown();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests a service with many dependents which are installed, started and stopped concurrently, so that most of the
+ * demand and dependent notifications it receives are applied without taking its lock.
+ */
+public class FanInTestCase {
+
+    private static final int THREADS = 4;
+    private static final int DEPENDENTS_PER_THREAD = 250;
+
+    private ServiceContainer container;
+
+    @Before
+    public void setUp() {
+        container = ServiceContainer.Factory.create("fan-in", false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.shutdown();
+        container.awaitTermination();
+    }
+
+    @Test
+    public void concurrentDependents() throws Exception {
+        final ServiceName rootName = ServiceName.of("root");
+        final ServiceController<?> root = container.addService(rootName, Service.NULL).setInitialMode(Mode.ON_DEMAND).install();
+        container.awaitStability();
+        assertEquals(State.DOWN, root.getState());
+
+        final List<ServiceController<?>> dependents = new ArrayList<ServiceController<?>>();
+        runConcurrently(new Task() {
+            public void run(final int thread) {
+                for (int i = 0; i < DEPENDENTS_PER_THREAD; i ++) {
+                    final ServiceController<?> dependent = container.addService(ServiceName.of("dependent", Integer.toString(thread), Integer.toString(i)), Service.NULL)
+                            .addDependency(rootName)
+                            .install();
+                    synchronized (dependents) {
+                        dependents.add(dependent);
+                    }
+                }
+            }
+        });
+        container.awaitStability();
+        assertEquals(State.UP, root.getState());
+        for (ServiceController<?> dependent : dependents) {
+            assertEquals(State.UP, dependent.getState());
+        }
+
+        // stopping all the dependents but one keeps the root up
+        final ServiceController<?> last = dependents.remove(dependents.size() - 1);
+        setModes(dependents, Mode.NEVER);
+        container.awaitStability();
+        assertEquals(State.UP, root.getState());
+        assertEquals(State.UP, last.getState());
+
+        last.setMode(Mode.NEVER);
+        container.awaitStability();
+        assertEquals(State.DOWN, root.getState());
+
+        // and starting them again starts the root first
+        dependents.add(last);
+        setModes(dependents, Mode.ACTIVE);
+        container.awaitStability();
+        assertEquals(State.UP, root.getState());
+        for (ServiceController<?> dependent : dependents) {
+            assertEquals(State.UP, dependent.getState());
+        }
+
+        setModes(dependents, Mode.REMOVE);
+        container.awaitStability();
+        assertEquals(State.DOWN, root.getState());
+        assertEquals(Mode.ON_DEMAND, root.getMode());
+    }
+
+    private void setModes(final List<ServiceController<?>> controllers, final Mode mode) throws InterruptedException {
+        runConcurrently(new Task() {
+            public void run(final int thread) {
+                for (int i = thread; i < controllers.size(); i += THREADS) {
+                    controllers.get(i).setMode(mode);
+                }
+            }
+        });
+    }
+
+    private static void runConcurrently(final Task task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t ++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    task.run(thread);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private interface Task {
+        void run(int thread);
+    }
+}
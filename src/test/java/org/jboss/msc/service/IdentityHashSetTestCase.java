@@ -257,6 +257,96 @@ public class IdentityHashSetTestCase {
     }
 
     @Test
+    public void iteratorRemoveFromHashedSet() {
+        // the placement of the entries depends on their identity hash codes, so try many sets to hit the case where
+        // the iterator continues on a snapshot of the end of the table, which may be as short as a packed table
+        for (int n = 0; n < 2000; n++) {
+            final int count = 5 + n % 4;
+            final IdentityHashSet<Object> set = new IdentityHashSet<Object>();
+            final Set<Object> entries = new HashSet<Object>();
+            for (int i = 0; i < count; i++) {
+                final Object entry = new Object();
+                set.add(entry);
+                entries.add(entry);
+            }
+            final Iterator<Object> iterator = set.iterator();
+            int seen = 0;
+            while (iterator.hasNext()) {
+                final Object entry = iterator.next();
+                assertTrue(entries.contains(entry));
+                seen++;
+                if (seen % 2 == n % 2) {
+                    iterator.remove();
+                    entries.remove(entry);
+                }
+            }
+            assertEquals(count, seen);
+            assertEquals(entries.size(), set.size());
+            for (Object entry : entries) {
+                assertTrue(set.contains(entry));
+            }
+            assertTrue(set.removeAll(new ArrayList<Object>(entries)));
+            assertTrue(set.isEmpty());
+        }
+    }
+
+    @Test
+    public void smallHashSet() {
+        final String[] entries = new String[] {"entry1", "entry2", "entry3", "entry4", "entry5"};
+        final IdentityHashSet<String> set = new IdentityHashSet<String>();
+        for (int i = 0; i < entries.length; i++) {
+            assertTrue(set.add(entries[i]));
+            assertFalse(set.add(entries[i]));
+            assertEquals(i + 1, set.size());
+            for (int j = 0; j < entries.length; j++) {
+                assertEquals(j <= i, set.contains(entries[j]));
+            }
+        }
+        // remove down to a few entries and add them back
+        assertTrue(set.remove("entry1"));
+        assertTrue(set.remove("entry5"));
+        assertFalse(set.remove("entry5"));
+        assertEquals(3, set.size());
+        assertTrue(set.add("entry1"));
+        assertTrue(set.add("entry5"));
+        assertEquals(5, set.size());
+
+        final IdentityHashSet<String> small = new IdentityHashSet<String>();
+        small.add("entry1");
+        small.add("entry2");
+        small.add("entry3");
+        small.add("entry4");
+        final IdentityHashSet<String> copy = small.clone();
+        assertTrue(copy.remove("entry1"));
+        assertTrue(small.contains("entry1"));
+        final Iterator<String> iterator = small.iterator();
+        final Set<String> seen = new HashSet<String>();
+        while (iterator.hasNext()) {
+            final String entry = iterator.next();
+            assertTrue(seen.add(entry));
+            if (entry == "entry1" || entry == "entry3") {
+                iterator.remove();
+            }
+        }
+        assertEquals(4, seen.size());
+        assertEquals(2, small.size());
+        assertFalse(small.contains("entry1"));
+        assertTrue(small.contains("entry2"));
+        assertFalse(small.contains("entry3"));
+        assertTrue(small.contains("entry4"));
+        small.addAll(copy);
+        assertEquals(3, small.size());
+        assertFalse(small.contains("entry1"));
+        assertTrue(small.contains("entry3"));
+        assertTrue(copy.add("entry5"));
+        assertTrue(copy.add("entry6"));
+        small.addAll(copy);
+        assertEquals(5, small.size());
+        assertTrue(small.contains("entry5"));
+        assertTrue(small.contains("entry6"));
+    }
+
+        @Test
     public void illegalHashSet() {
         try {
             new IdentityHashSet<String>(-1);
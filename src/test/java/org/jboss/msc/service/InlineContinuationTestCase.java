@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests running internal controller tasks as continuations on the current thread.
+ */
+public class InlineContinuationTestCase {
+
+    private ExecutorService executor;
+
+    @Before
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdownExecutor() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fewerSubmissions() throws Exception {
+        final int submitted = runLifecycle(0);
+        final int submittedInline = runLifecycle(64);
+        assertTrue("expected fewer than " + submitted + " submissions, got " + submittedInline, submittedInline < submitted);
+    }
+
+    @Test
+    public void depthOfOne() throws Exception {
+        runLifecycle(1);
+    }
+
+    @Test
+    public void malformedDepth() throws Exception {
+        // a malformed value disables inlining instead of failing the container
+        System.setProperty("jboss.msc.inline.depth", "deep");
+        try {
+            assertEquals(0, new ServiceContainer.Options().getInlineDepth());
+        } finally {
+            System.clearProperty("jboss.msc.inline.depth");
+        }
+    }
+
+    private int runLifecycle(final int inlineDepth) throws Exception {
+        final CountingExecutor countingExecutor = new CountingExecutor(executor);
+        final ServiceContainer container = ServiceContainer.Factory.create("inline", countingExecutor, false, new ServiceContainer.Options().setInlineDepth(inlineDepth));
+        final ServiceName root = ServiceName.of("root");
+        final List<ServiceController<?>> controllers = new ArrayList<ServiceController<?>>();
+        controllers.add(container.addService(root, Service.NULL).install());
+        ServiceName previous = root;
+        for (int i = 0; i < 20; i ++) {
+            final ServiceName name = root.append("chain" + i);
+            controllers.add(container.addService(name, Service.NULL).addDependency(previous).install());
+            controllers.add(container.addService(name.append("demand"), Service.NULL).addDependency(name).setInitialMode(Mode.ON_DEMAND).install());
+            previous = name;
+        }
+        container.awaitStability();
+        for (int i = 0; i < controllers.size(); i ++) {
+            // the services on demand are never demanded
+            assertEquals(i == 0 || i % 2 == 1 ? State.UP : State.DOWN, controllers.get(i).getState());
+        }
+        container.getRequiredService(root).setMode(Mode.NEVER);
+        container.awaitStability();
+        for (ServiceController<?> controller : controllers) {
+            assertEquals(State.DOWN, controller.getState());
+        }
+        container.shutdown();
+        container.awaitTermination();
+        for (ServiceController<?> controller : controllers) {
+            assertEquals(State.REMOVED, controller.getState());
+        }
+        return countingExecutor.count.get();
+    }
+
+    private static final class CountingExecutor implements Executor {
+        private final Executor delegate;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CountingExecutor(final Executor delegate) {
+            this.delegate = delegate;
+        }
+
+        public void execute(final Runnable command) {
+            count.incrementAndGet();
+            delegate.execute(command);
+        }
+    }
+}
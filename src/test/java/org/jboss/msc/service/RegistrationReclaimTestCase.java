@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that registrations which are no longer used are removed from the registry, and that the registry shrinks back
+ * after a deployment is removed.
+ */
+public class RegistrationReclaimTestCase extends AbstractServiceTest {
+
+    private static final ServiceName A = ServiceName.of("A");
+    private static final ServiceName B = ServiceName.of("B");
+    private static final ServiceName X = ServiceName.of("X");
+    private static Field registryField;
+
+    @BeforeClass
+    public static void initRegistryField() throws Exception {
+        registryField = ServiceContainerImpl.class.getDeclaredField("registry");
+        registryField.setAccessible(true);
+    }
+
+    @Test
+    public void missingDependency() throws Exception {
+        final ServiceController<?> a = serviceContainer.addService(A, Service.NULL).addDependency(X).install();
+        serviceContainer.awaitStability();
+        // the registration of the missing dependency is kept while it has a dependent
+        assertTrue(getRegistry().containsKey(X));
+        a.setMode(Mode.REMOVE);
+        serviceContainer.awaitStability();
+        assertTrue(getRegistry().isEmpty());
+        // the name can be used again
+        final ServiceController<?> x = serviceContainer.addService(X, Service.NULL).install();
+        serviceContainer.awaitStability();
+        assertEquals(State.UP, x.getState());
+        assertTrue(getRegistry().containsKey(X));
+    }
+
+    @Test
+    public void dependencyOutlivesDependent() throws Exception {
+        final ServiceController<?> x = serviceContainer.addService(X, Service.NULL).install();
+        final ServiceController<?> a = serviceContainer.addService(A, Service.NULL).addDependency(X).install();
+        serviceContainer.awaitStability();
+        x.setMode(Mode.REMOVE);
+        serviceContainer.awaitStability();
+        // X still has a dependent, so a service installed later must be found by it
+        assertTrue(getRegistry().containsKey(X));
+        assertEquals(State.DOWN, a.getState());
+        serviceContainer.addService(X, Service.NULL).install();
+        serviceContainer.awaitStability();
+        assertEquals(State.UP, a.getState());
+    }
+
+    @Test
+    public void failedInstallation() throws Exception {
+        serviceContainer.addService(A, Service.NULL).install();
+        try {
+            serviceContainer.addService(A, Service.NULL).addAliases(B).addDependency(X).install();
+            fail("DuplicateServiceException expected");
+        } catch (DuplicateServiceException expected) {
+        }
+        serviceContainer.awaitStability();
+        assertFalse(getRegistry().containsKey(B));
+        assertFalse(getRegistry().containsKey(X));
+        assertEquals(1, getRegistry().size());
+    }
+
+    @Test
+    public void redeploy() throws Exception {
+        final UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl> registry = getRegistry();
+        final int initialCapacity = registry.capacity();
+        for (int deployment = 0; deployment < 50; deployment ++) {
+            // every deployment refers to names of its own, some of which are never installed
+            final ServiceName root = ServiceName.of("deployment" + deployment);
+            final ServiceTarget target = serviceContainer.subTarget();
+            final ServiceController<?>[] controllers = new ServiceController<?>[200];
+            for (int i = 0; i < controllers.length; i ++) {
+                controllers[i] = target.addService(root.append("service" + i), Service.NULL)
+                        .addDependency(ServiceBuilder.DependencyType.OPTIONAL, root.append("missing" + i)).install();
+            }
+            serviceContainer.awaitStability();
+            assertEquals(controllers.length * 2, registry.size());
+            for (ServiceController<?> controller : controllers) {
+                controller.setMode(Mode.REMOVE);
+            }
+            serviceContainer.awaitStability();
+            assertTrue(registry.isEmpty());
+        }
+        assertEquals(initialCapacity, registry.capacity());
+    }
+
+    @SuppressWarnings("unchecked")
+    private UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl> getRegistry() throws Exception {
+        return (UnlockedReadHashMap<ServiceName, ServiceRegistrationImpl>) registryField.get(serviceContainer);
+    }
+}
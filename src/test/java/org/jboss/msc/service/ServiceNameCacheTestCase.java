@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link ServiceNameCache}.
+ */
+public class ServiceNameCacheTestCase {
+
+    @Test
+    public void bounded() {
+        final ServiceNameCache cache = new ServiceNameCache(64);
+        final ServiceName[] names = new ServiceName[1000];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = ServiceName.of("name" + i);
+            cache.put("name" + i, names[i]);
+            assertSame(names[i], cache.get("name" + i));
+        }
+        int cached = 0;
+        for (int i = 0; i < names.length; i++) {
+            final ServiceName name = cache.get("name" + i);
+            if (name != null) {
+                assertSame(names[i], name);
+                cached++;
+            }
+        }
+        assertTrue(cached > 0);
+        assertTrue(cached <= 64);
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    public void usedEntriesSurvive() {
+        // a single set, so every name competes for the same four entries
+        final ServiceNameCache cache = new ServiceNameCache(1);
+        final ServiceName hot = ServiceName.of("hot");
+        cache.put("hot", hot);
+        for (int i = 0; i < 100; i++) {
+            assertSame(hot, cache.get("hot"));
+            cache.put("cold" + i, ServiceName.of("cold" + i));
+        }
+        assertSame(hot, cache.get("hot"));
+        assertEquals(ServiceName.of("cold99"), cache.get("cold99"));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link ServiceNameIndex}.
+ */
+public class ServiceNameIndexTestCase {
+
+    private static final ServiceName UNIT = ServiceName.of("jboss", "deployment", "unit", "app.war");
+
+    @Test
+    public void namesUnderName() {
+        final ServiceNameIndex index = new ServiceNameIndex();
+        final ServiceName other = ServiceName.of("jboss", "deployment", "unit", "other.war");
+        index.add(UNIT);
+        for (int i = 0; i < 10; i++) {
+            index.add(UNIT.append("service" + i));
+        }
+        index.add(other.append("service"));
+        assertEquals(12, index.names(null).size());
+        assertEquals(11, index.names(UNIT).size());
+        assertEquals(Collections.singletonList(UNIT.append("service3")), index.names(UNIT.append("service3")));
+        assertEquals(12, index.names(ServiceName.JBOSS).size());
+        assertEquals(Collections.singletonList(other.append("service")), index.names(other));
+        assertTrue(index.names(UNIT.append("missing")).isEmpty());
+        assertTrue(index.names(ServiceName.of("other")).isEmpty());
+
+        index.remove(UNIT);
+        final List<ServiceName> names = index.names(UNIT);
+        assertEquals(10, names.size());
+        final Set<ServiceName> unique = new HashSet<ServiceName>(names);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(unique.contains(UNIT.append("service" + i)));
+        }
+    }
+
+    @Test
+    public void emptyNodesAreDropped() {
+        final ServiceNameIndex index = new ServiceNameIndex();
+        final ServiceName name = UNIT.append("deep", "er", "service");
+        index.add(name);
+        index.remove(name);
+        assertTrue(index.names(null).isEmpty());
+        assertTrue(index.names(ServiceName.JBOSS).isEmpty());
+        // the same name can be added again
+        index.add(name);
+        assertEquals(Collections.singletonList(name), index.names(UNIT));
+        assertEquals(Collections.singletonList(name), index.names(null));
+    }
+
+    @Test
+    public void concurrentChanges() throws Exception {
+        // the threads keep emptying and refilling the same subtrees, so that additions meet nodes being unlinked
+        final ServiceNameIndex index = new ServiceNameIndex();
+        final int threadCount = 4;
+        final int rounds = 20000;
+        final Thread[] threads = new Thread[threadCount];
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int t = 0; t < threadCount; t++) {
+            final ServiceName name = UNIT.append("shared", Integer.toString(t % 2), "thread" + t);
+            final ServiceName kept = UNIT.append("kept", "thread" + t);
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            index.add(name);
+                            if (! index.names(name).contains(name)) {
+                                throw new AssertionError("Missing " + name);
+                            }
+                            index.remove(name);
+                        }
+                        index.add(kept);
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(index.names(UNIT.append("shared")).isEmpty());
+        final Set<ServiceName> names = new HashSet<ServiceName>(index.names(null));
+        assertEquals(threadCount, names.size());
+        for (int t = 0; t < threadCount; t++) {
+            assertTrue(names.contains(UNIT.append("kept", "thread" + t)));
+        }
+    }
+}
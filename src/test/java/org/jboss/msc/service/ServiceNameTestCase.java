@@ -25,7 +25,9 @@ package org.jboss.msc.service;
 import static java.lang.Integer.signum;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.junit.Assert.assertArrayEquals;
@@ -34,6 +36,11 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -161,6 +168,34 @@ public final class ServiceNameTestCase {
         }
     }
 
+    @Test
+    public void testSimpleParsing() {
+        final ServiceName name = ServiceName.parse("jboss.naming.context.java.\"java:global/app\".bean");
+        assertEquals(ServiceName.of("jboss", "naming", "context", "java", "java:global/app", "bean"), name);
+        assertEquals(ServiceName.of("jboss", "deployment", "unit", "app.war", "component"), ServiceName.parse("jboss.deployment.unit.\"app.war\".component"));
+        assertEquals(ServiceName.of("jboss", "web", "host", "default-host", "/app"), ServiceName.parse("jboss.web.host.default-host./app"));
+        assertEquals(ServiceName.of("a"), ServiceName.parse("a"));
+        assertEquals(ServiceName.of("\u00e9t\u00e9", "b"), ServiceName.parse("\u00e9t\u00e9.b"));
+        final ServiceName simple = ServiceName.parse("jboss.web.host.default-host");
+        assertEquals(ServiceName.JBOSS.append("web", "host", "default-host"), simple);
+        assertEquals("jboss.web.host.default-host", simple.getCanonicalName());
+        assertEquals(ServiceName.JBOSS.append("web", "host", "default-host").hashCode(), simple.hashCode());
+        assertEquals(simple, ServiceName.parse("jboss.web.host.default-host"));
+        for (String invalid : new String[] { ".", "a.", ".a", "a..b", "a.b.", "a\\b", "a\"b", "a.\u007f", "a\u0000b" }) {
+            try {
+                ServiceName.parse(invalid);
+                fail("Expected exception: invalid name " + invalid);
+            } catch (IllegalArgumentException expected) {
+            }
+            // failures are not cached
+            try {
+                ServiceName.parse(invalid);
+                fail("Expected exception: invalid name " + invalid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
     @Test
     public void testInvalidServiceName() {
         // this untrusted service name can be created with of, because of performance issues
@@ -312,4 +347,68 @@ public final class ServiceNameTestCase {
         assertArrayEquals(new String[] { "foo", "bar" }, two.toArray());
         assertArrayEquals(new String[] { "foo" }, three.toArray());
     }
+
+    @Test
+    public void testIntern() {
+        final ServiceName name = ServiceName.of("intern", "a", "b").intern();
+        assertSame(name, ServiceName.parse("intern.a.b").intern());
+        assertSame(name, ServiceName.of("intern").append("a", "b").intern());
+        assertSame(name, name.intern());
+        assertSame(name.getParent(), ServiceName.of("intern", "a").intern());
+        assertSame(ServiceName.JBOSS, ServiceName.of("jboss").intern());
+        assertEquals(ServiceName.of("intern", "a", "b"), name);
+        assertEquals(name, ServiceName.of("intern", "a", "b"));
+        assertFalse(name.equals(ServiceName.of("intern", "a", "c").intern()));
+        assertFalse(name.equals(name.getParent()));
+        // a name whose parent is canonical already is itself made canonical
+        final ServiceName child = name.append("c");
+        assertSame(child, child.intern());
+        // but a name whose parent is not canonical is not
+        final ServiceName other = ServiceName.of("intern", "x");
+        assertNotSame(other, other.intern());
+        assertSame(other.intern().getParent(), name.getParent().getParent());
+    }
+
+    @Test
+    public void testInternIsWeak() throws Exception {
+        final WeakReference<ServiceName> reference = new WeakReference<ServiceName>(ServiceName.of("intern", "weak", "name").intern());
+        for (int i = 0; i < 100 && reference.get() != null; i ++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void testConcurrentIntern() throws Exception {
+        final int threadCount = 4;
+        final int nameCount = 2000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final Callable<ServiceName[]> task = new Callable<ServiceName[]>() {
+                public ServiceName[] call() {
+                    final ServiceName[] names = new ServiceName[nameCount];
+                    for (int i = 0; i < nameCount; i ++) {
+                        names[i] = ServiceName.of("concurrent", "deployment" + (i % 10), "service" + i).intern();
+                    }
+                    return names;
+                }
+            };
+            @SuppressWarnings("unchecked")
+            final Future<ServiceName[]>[] futures = new Future[threadCount];
+            for (int t = 0; t < threadCount; t ++) {
+                futures[t] = executor.submit(task);
+            }
+            final ServiceName[] expected = futures[0].get();
+            for (int t = 1; t < threadCount; t ++) {
+                final ServiceName[] names = futures[t].get();
+                for (int i = 0; i < nameCount; i ++) {
+                    assertSame(expected[i], names[i]);
+                    assertSame(expected[i].getParent(), names[i].getParent());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
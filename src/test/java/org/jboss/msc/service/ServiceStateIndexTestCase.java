@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceController.Substate;
+import org.junit.Test;
+
+/**
+ * Tests that the container keeps its services indexed by state across transitions.
+ */
+public class ServiceStateIndexTestCase extends AbstractServiceTest {
+
+    private static final ServiceName A = ServiceName.of("A");
+    private static final ServiceName B = ServiceName.of("B");
+    private static final ServiceName C = ServiceName.of("C");
+
+    @Test
+    public void followsTransitions() throws Exception {
+        final ServiceStateIndex index = ((ServiceContainerImpl) serviceContainer).getServiceStateIndex();
+        final ServiceController<?> a = serviceContainer.addService(A, Service.NULL).addAliases(A.append("alias")).install();
+        final ServiceController<?> b = serviceContainer.addService(B, Service.NULL).setInitialMode(Mode.NEVER).install();
+        final ServiceController<?> c = serviceContainer.addService(C, Service.NULL).addDependency(ServiceName.of("missing")).install();
+        serviceContainer.awaitStability();
+        assertEquals(1, index.count(State.UP));
+        assertEquals(1, index.count(Substate.UP));
+        assertEquals(2, index.count(State.DOWN));
+        assertEquals(1, index.count(Substate.WONT_START));
+        assertEquals(1, index.count(Substate.PROBLEM));
+        assertEquals(c, index.getControllers(Substate.PROBLEM).get(0));
+        assertEquals(a, index.getControllers(State.UP).get(0));
+
+        b.setMode(Mode.ACTIVE);
+        serviceContainer.awaitStability();
+        final List<ServiceControllerImpl<?>> up = index.getControllers(State.UP);
+        assertEquals(2, up.size());
+        assertTrue(up.contains(a));
+        assertTrue(up.contains(b));
+
+        a.setMode(Mode.REMOVE);
+        serviceContainer.awaitStability();
+        assertEquals(1, index.count(State.UP));
+        assertFalse(index.getControllers(State.UP).contains(a));
+        assertEquals(0, index.count(State.REMOVED));
+        assertEquals(0, index.count(Substate.REMOVED));
+        assertEquals(2, index.count(State.UP) + index.count(State.DOWN));
+    }
+
+    @Test
+    public void queryByStatus() throws Exception {
+        serviceContainer.addService(A, Service.NULL).addAliases(A.append("alias")).install();
+        serviceContainer.addService(B, Service.NULL).setInitialMode(Mode.NEVER).install();
+        serviceContainer.awaitStability();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName("jboss.msc:type=container,name=" + serviceContainer.getName());
+        final String[] signature = { String.class.getName() };
+        assertEquals(1, server.invoke(objectName, "countServicesByStatus", new Object[] { "UP" }, signature));
+        assertEquals(1, server.invoke(objectName, "countServicesByStatus", new Object[] { "DOWN" }, signature));
+        assertEquals(0, server.invoke(objectName, "countServicesByStatus", new Object[] { "unknown" }, signature));
+        final String up = (String) server.invoke(objectName, "dumpServicesToStringByStatus", new Object[] { "UP" }, signature);
+        assertTrue(up.contains("\"A\""));
+        assertFalse(up.contains("\"B\""));
+        final String unknown = (String) server.invoke(objectName, "dumpServicesToStringByStatus", new Object[] { "unknown" }, signature);
+        assertTrue(unknown.contains("There are no services with status: unknown"));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the start and stop timeouts of services.
+ */
+public class ServiceTimeoutTestCase {
+
+    private ServiceContainer container;
+
+    @Before
+    public void setUp() {
+        container = ServiceContainer.Factory.create("timeout", false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.shutdown();
+        container.awaitTermination();
+    }
+
+    @Test
+    public void startTimeout() throws Exception {
+        final AsyncService service = new AsyncService();
+        final StabilityMonitor monitor = new StabilityMonitor();
+        final ServiceController<?> controller = container.addService(ServiceName.of("hanging"), service)
+                .setStartTimeout(100L, TimeUnit.MILLISECONDS)
+                .addMonitors(monitor)
+                .install();
+        final StabilityStatistics statistics = new StabilityStatistics();
+        assertTrue(monitor.awaitStability(10L, TimeUnit.SECONDS, statistics));
+        assertEquals(State.START_FAILED, controller.getState());
+        final StartException exception = controller.getStartException();
+        assertNotNull(exception);
+        assertTrue(exception.getMessage(), exception.getMessage().contains("100 ms"));
+        assertEquals(1, statistics.getFailedCount());
+        assertEquals(1, statistics.getTimedOutCount());
+
+        // a late completion is ignored
+        service.startContext.complete();
+        container.awaitStability();
+        assertEquals(State.START_FAILED, controller.getState());
+
+        // the start may be retried
+        service.startContext = null;
+        controller.retry();
+        service.awaitStartContext().complete();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        assertNull(controller.getStartException());
+        assertTrue(monitor.awaitStability(10L, TimeUnit.SECONDS, statistics));
+        assertEquals(0, statistics.getFailedCount());
+        assertEquals(0, statistics.getTimedOutCount());
+    }
+
+    @Test
+    public void completedInTime() throws Exception {
+        final AsyncService service = new AsyncService();
+        final ServiceController<?> controller = container.addService(ServiceName.of("async"), service)
+                .setStartTimeout(10L, TimeUnit.SECONDS)
+                .install();
+        service.awaitStartContext().complete();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        Thread.sleep(50L);
+        assertEquals(State.UP, controller.getState());
+    }
+
+    @Test
+    public void targetTimeout() throws Exception {
+        final ServiceTarget target = container.subTarget().setStartTimeout(50L, TimeUnit.MILLISECONDS);
+        final ServiceController<?> inherited = target.subTarget().addService(ServiceName.of("inherited"), new AsyncService()).install();
+        final AsyncService untimed = new AsyncService();
+        final ServiceController<?> overridden = target.addService(ServiceName.of("overridden"), untimed)
+                .setStartTimeout(0L, TimeUnit.MILLISECONDS)
+                .install();
+        final AsyncService unrelatedService = new AsyncService();
+        final ServiceController<?> unrelated = container.addService(ServiceName.of("unrelated"), unrelatedService).install();
+        final StabilityMonitor monitor = new StabilityMonitor();
+        monitor.addController(inherited);
+        assertTrue(monitor.awaitStability(10L, TimeUnit.SECONDS));
+        assertEquals(State.START_FAILED, inherited.getState());
+        Thread.sleep(100L);
+        assertEquals(State.STARTING, overridden.getState());
+        assertEquals(State.STARTING, unrelated.getState());
+        untimed.awaitStartContext().complete();
+        unrelatedService.awaitStartContext().complete();
+        container.awaitStability();
+        assertEquals(State.UP, overridden.getState());
+        assertEquals(State.UP, unrelated.getState());
+    }
+
+    @Test
+    public void stopTimeout() throws Exception {
+        final AsyncService service = new AsyncService();
+        service.asyncStop = true;
+        final ServiceController<?> controller = container.addService(ServiceName.of("hanging"), service)
+                .setStopTimeout(100L, TimeUnit.MILLISECONDS)
+                .install();
+        final StartContext firstStart = service.awaitStartContext();
+        firstStart.complete();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        controller.setMode(Mode.NEVER);
+        assertTrue(container.awaitStability(10L, TimeUnit.SECONDS));
+        assertEquals(ServiceController.Substate.STOPPING, controller.getSubstate());
+
+        // the service is not started again before its stop completes
+        controller.setMode(Mode.ACTIVE);
+        assertTrue(container.awaitStability(10L, TimeUnit.SECONDS));
+        assertEquals(ServiceController.Substate.STOPPING, controller.getSubstate());
+        assertSame(firstStart, service.startContext);
+
+        // a late completion finishes the stop
+        service.startContext = null;
+        service.asyncStop = false;
+        service.stopContext.complete();
+        service.awaitStartContext().complete();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeTimeout() {
+        container.addService(ServiceName.of("service"), Service.NULL).setStartTimeout(-1L, TimeUnit.SECONDS);
+    }
+
+    private static final class AsyncService implements Service<Void> {
+        volatile StartContext startContext;
+        volatile StopContext stopContext;
+        volatile boolean asyncStop;
+
+        public synchronized void start(final StartContext context) throws StartException {
+            context.asynchronous();
+            startContext = context;
+            notifyAll();
+        }
+
+        public void stop(final StopContext context) {
+            if (asyncStop) {
+                context.asynchronous();
+                stopContext = context;
+            }
+        }
+
+        synchronized StartContext awaitStartContext() throws InterruptedException {
+            while (startContext == null) {
+                wait();
+            }
+            return startContext;
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the stability listeners of containers and monitors.
+ */
+public class StabilityListenerTestCase {
+
+    private ServiceContainer container;
+
+    @Before
+    public void setUp() {
+        container = ServiceContainer.Factory.create("stability", false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        container.shutdown();
+        container.awaitTermination();
+    }
+
+    @Test
+    public void containerListener() throws Exception {
+        final AsyncService service = new AsyncService();
+        container.addService(ServiceName.of("async"), service).install();
+        container.addService(ServiceName.of("passive"), Service.NULL).setInitialMode(ServiceController.Mode.PASSIVE).install();
+        final StartContext context = service.awaitStartContext();
+        final RecordingListener listener = new RecordingListener();
+        container.addStabilityListener(listener);
+        Thread.sleep(50L);
+        assertEquals(0, listener.invocations.get());
+        context.complete();
+        assertTrue(listener.latch.await(10L, TimeUnit.SECONDS));
+        assertEquals(1, listener.invocations.get());
+        assertTrue(listener.failed.isEmpty());
+        assertTrue(listener.problems.isEmpty());
+        assertEquals(2, listener.statistics.getStartedCount());
+        assertEquals(1, listener.statistics.getActiveCount());
+        assertEquals(1, listener.statistics.getPassiveCount());
+        assertFalse(listener.thread == Thread.currentThread());
+    }
+
+    @Test
+    public void alreadyStable() throws Exception {
+        container.addService(ServiceName.of("service"), Service.NULL).install();
+        container.awaitStability();
+        final RecordingListener listener = new RecordingListener();
+        container.addStabilityListener(listener);
+        // notified right away, by a container thread just like when the container becomes stable
+        assertTrue(listener.latch.await(10L, TimeUnit.SECONDS));
+        assertEquals(1, listener.invocations.get());
+        assertTrue(ServiceUtils.isServiceThread(listener.thread, container));
+        assertEquals(1, listener.statistics.getStartedCount());
+
+        final StabilityMonitor monitor = new StabilityMonitor();
+        final RecordingListener monitorListener = new RecordingListener();
+        monitor.addStabilityListener(monitorListener);
+        assertEquals(1, monitorListener.invocations.get());
+        assertSame(Thread.currentThread(), monitorListener.thread);
+        assertEquals(0, monitorListener.statistics.getStartedCount());
+    }
+
+    @Test
+    public void monitorListener() throws Exception {
+        final StabilityMonitor monitor = new StabilityMonitor();
+        final AsyncService service = new AsyncService();
+        final ServiceController<?> failing = container.addService(ServiceName.of("failing"), service).addMonitors(monitor).install();
+        final ServiceController<?> missing = container.addService(ServiceName.of("missing"), Service.NULL)
+                .addDependency(ServiceName.of("absent"))
+                .addMonitors(monitor)
+                .install();
+        final AsyncService unrelated = new AsyncService();
+        container.addService(ServiceName.of("unrelated"), unrelated).install();
+        final RecordingListener listener = new RecordingListener();
+        monitor.addStabilityListener(listener);
+        service.awaitStartContext().failed(new StartException("expected"));
+        // the monitor is stable although the unrelated service is still starting
+        assertTrue(listener.latch.await(10L, TimeUnit.SECONDS));
+        assertEquals(1, listener.failed.size());
+        assertTrue(listener.failed.contains(failing));
+        assertEquals(1, listener.problems.size());
+        assertTrue(listener.problems.contains(missing));
+        assertEquals(1, listener.statistics.getFailedCount());
+        assertEquals(1, listener.statistics.getProblemsCount());
+        assertEquals(2, listener.statistics.getActiveCount());
+        assertEquals(0, listener.statistics.getStartedCount());
+        unrelated.awaitStartContext().complete();
+        container.awaitStability();
+    }
+
+    @Test
+    public void notifiedOnce() throws Exception {
+        final StabilityMonitor monitor = new StabilityMonitor();
+        final AsyncService service = new AsyncService();
+        final ServiceController<?> controller = container.addService(ServiceName.of("async"), service).addMonitors(monitor).install();
+        final RecordingListener monitorListener = new RecordingListener();
+        final RecordingListener containerListener = new RecordingListener();
+        monitor.addStabilityListener(monitorListener);
+        container.addStabilityListener(containerListener);
+        service.awaitStartContext().complete();
+        assertTrue(monitorListener.latch.await(10L, TimeUnit.SECONDS));
+        assertTrue(containerListener.latch.await(10L, TimeUnit.SECONDS));
+        controller.setMode(ServiceController.Mode.NEVER);
+        container.awaitStability();
+        monitor.awaitStability();
+        Thread.sleep(50L);
+        assertEquals(1, monitorListener.invocations.get());
+        assertEquals(1, containerListener.invocations.get());
+    }
+
+    @Test
+    public void clearNotifiesListeners() throws Exception {
+        final StabilityMonitor monitor = new StabilityMonitor();
+        final AsyncService service = new AsyncService();
+        container.addService(ServiceName.of("async"), service).addMonitors(monitor).install();
+        final StartContext context = service.awaitStartContext();
+        final RecordingListener listener = new RecordingListener();
+        monitor.addStabilityListener(listener);
+        assertEquals(0, listener.invocations.get());
+        monitor.clear();
+        assertEquals(1, listener.invocations.get());
+        assertTrue(listener.failed.isEmpty());
+        assertTrue(listener.problems.isEmpty());
+        context.complete();
+    }
+
+    @Test
+    public void failingListener() throws Exception {
+        final RecordingListener listener = new RecordingListener();
+        final AsyncService service = new AsyncService();
+        container.addService(ServiceName.of("async"), service).install();
+        final StartContext context = service.awaitStartContext();
+        container.addStabilityListener(new StabilityListener() {
+            public void handleStability(final Set<ServiceController<?>> failed, final Set<ServiceController<?>> problems, final StabilityStatistics statistics) {
+                throw new IllegalStateException("expected");
+            }
+        });
+        container.addStabilityListener(listener);
+        context.complete();
+        assertTrue(listener.latch.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutDownContainer() throws Exception {
+        container.shutdown();
+        container.awaitTermination();
+        final RecordingListener listener = new RecordingListener();
+        container.addStabilityListener(listener);
+        Thread.sleep(50L);
+        assertEquals(0, listener.invocations.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullListener() {
+        container.addStabilityListener(null);
+    }
+
+    private static final class RecordingListener implements StabilityListener {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger invocations = new AtomicInteger();
+        volatile Set<ServiceController<?>> failed;
+        volatile Set<ServiceController<?>> problems;
+        volatile StabilityStatistics statistics;
+        volatile Thread thread;
+
+        public void handleStability(final Set<ServiceController<?>> failed, final Set<ServiceController<?>> problems, final StabilityStatistics statistics) {
+            this.failed = failed;
+            this.problems = problems;
+            this.statistics = statistics;
+            thread = Thread.currentThread();
+            invocations.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    private static final class AsyncService implements Service<Void> {
+        private StartContext startContext;
+
+        public synchronized void start(final StartContext context) throws StartException {
+            context.asynchronous();
+            startContext = context;
+            notifyAll();
+        }
+
+        public void stop(final StopContext context) {
+        }
+
+        synchronized StartContext awaitStartContext() throws InterruptedException {
+            while (startContext == null) {
+                wait();
+            }
+            return startContext;
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.service.ServiceContainer.StartOrder;
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.Test;
+
+/**
+ * Tests prioritized ordering of service starts.
+ */
+public class StartPriorityTestCase {
+
+    private static ServiceContainer createContainer(final String startProfile) {
+        final ServiceContainer.Options options = new ServiceContainer.Options().setStartOrder(StartOrder.PRIORITY).setStartProfile(startProfile);
+        // a single thread, so that the order of the starts is the order of the queue
+        return ServiceContainer.Factory.create("priority", 1, 30L, TimeUnit.SECONDS, false, options);
+    }
+
+    @Test
+    public void longestChainFirst() throws Exception {
+        final ServiceContainer container = createContainer(null);
+        final List<ServiceName> started = Collections.synchronizedList(new ArrayList<ServiceName>());
+        final CountDownLatch blocked = block(container);
+
+        final ServiceName chain = ServiceName.of("chain");
+        ServiceName dependency = chain;
+        for (int i = 0; i < 5; i ++) {
+            final ServiceName name = chain.append(Integer.toString(i));
+            container.addService(name, new RecordingService(name, started)).addDependency(dependency).install();
+            dependency = name;
+        }
+        final List<ServiceName> leaves = new ArrayList<ServiceName>();
+        for (int i = 0; i < 10; i ++) {
+            final ServiceName name = ServiceName.of("leaf", Integer.toString(i));
+            leaves.add(name);
+            container.addService(name, new RecordingService(name, started)).install();
+        }
+        container.addService(chain, new RecordingService(chain, started)).install();
+
+        blocked.countDown();
+        container.awaitStability();
+        assertEquals(16, started.size());
+        assertEquals(chain, started.get(0));
+        assertTrue(started.indexOf(chain) < started.indexOf(leaves.get(0)));
+        shutdown(container);
+    }
+
+    @Test
+    public void historicalDurations() throws Exception {
+        final File profile = File.createTempFile("msc-profile", ".txt");
+        try {
+            final FileWriter writer = new FileWriter(profile);
+            try {
+                writer.write("slow\tS\t0\t50000000\n");
+                writer.write("fast\tS\t0\t1000\n");
+                writer.write("not a profile line\n");
+            } finally {
+                writer.close();
+            }
+            final ServiceContainer container = createContainer(profile.getAbsolutePath());
+            final List<ServiceName> started = Collections.synchronizedList(new ArrayList<ServiceName>());
+            final CountDownLatch blocked = block(container);
+            final ServiceName fast = ServiceName.of("fast");
+            final ServiceName slow = ServiceName.of("slow");
+            container.addService(fast, new RecordingService(fast, started)).install();
+            container.addService(slow, new RecordingService(slow, started)).install();
+            blocked.countDown();
+            container.awaitStability();
+            assertEquals(2, started.size());
+            assertEquals(slow, started.get(0));
+            assertEquals(fast, started.get(1));
+            shutdown(container);
+        } finally {
+            profile.delete();
+        }
+    }
+
+    @Test
+    public void ranksFollowDependentChanges() throws Exception {
+        final ServiceContainer container = createContainer(null);
+        final ServiceName a = ServiceName.of("a");
+        final ServiceName b = ServiceName.of("b");
+        final ServiceName c = ServiceName.of("c");
+        final ServiceControllerImpl<?> controllerA = (ServiceControllerImpl<?>) container.addService(a, Service.NULL).setInitialMode(Mode.NEVER).install();
+        final ServiceControllerImpl<?> controllerB = (ServiceControllerImpl<?>) container.addService(b, Service.NULL).addDependency(a).setInitialMode(Mode.NEVER).install();
+        assertEquals(1L, controllerA.getStartRank().getDependentCount());
+        assertEquals(0L, controllerB.getStartRank().getDependentCount());
+        // a new dependent of b changes the ranks of b and of a, which b depends on
+        final ServiceController<?> controllerC = container.addService(c, Service.NULL).addDependency(b).setInitialMode(Mode.NEVER).install();
+        assertEquals(2L, controllerA.getStartRank().getDependentCount());
+        assertEquals(1L, controllerB.getStartRank().getDependentCount());
+        controllerC.setMode(Mode.REMOVE);
+        container.awaitStability();
+        assertEquals(1L, controllerA.getStartRank().getDependentCount());
+        assertEquals(0L, controllerB.getStartRank().getDependentCount());
+        shutdown(container);
+    }
+
+    @Test
+    public void unknownStartOrder() {
+        System.setProperty("jboss.msc.start.order", "random");
+        try {
+            assertEquals(StartOrder.FIFO, new ServiceContainer.Options().getStartOrder());
+        } finally {
+            System.clearProperty("jboss.msc.start.order");
+        }
+    }
+
+    @Test
+    public void startOrderProperty() {
+        System.setProperty("jboss.msc.start.order", "Priority");
+        try {
+            assertEquals(StartOrder.PRIORITY, new ServiceContainer.Options().getStartOrder());
+        } finally {
+            System.clearProperty("jboss.msc.start.order");
+        }
+    }
+
+    /**
+     * Install a service which blocks the only service thread until the returned latch is counted down.
+     */
+    private static CountDownLatch block(final ServiceContainer container) throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch starting = new CountDownLatch(1);
+        final ServiceController<?> controller = container.addService(ServiceName.of("blocker"), new AbstractService<Void>() {
+            public void start(final StartContext context) throws StartException {
+                starting.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    throw new StartException(e);
+                }
+            }
+        }).install();
+        assertTrue(starting.await(10, TimeUnit.SECONDS));
+        assertEquals(State.STARTING, controller.getState());
+        return blocked;
+    }
+
+    private static void shutdown(final ServiceContainer container) throws InterruptedException {
+        container.shutdown();
+        container.awaitTermination();
+    }
+
+    private static final class RecordingService extends AbstractService<Void> {
+        private final ServiceName name;
+        private final List<ServiceName> started;
+
+        RecordingService(final ServiceName name, final List<ServiceName> started) {
+            this.name = name;
+            this.started = started;
+        }
+
+        public void start(final StartContext context) throws StartException {
+            started.add(name);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Tests batched submission of controller tasks.
+ */
+public class TaskBatchTestCase extends AbstractServiceTest {
+
+    private static Runnable task(final List<String> log, final String name) {
+        return new Runnable() {
+            public void run() {
+                log.add(name);
+            }
+
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    @Test
+    public void offerAllKeepsOrder() throws Exception {
+        final TaskQueue queue = new TaskQueue();
+        final List<String> log = new ArrayList<String>();
+        final Runnable a = task(log, "a");
+        final Runnable b = task(log, "b");
+        final Runnable c = task(log, "c");
+        final Runnable d = task(log, "d");
+        queue.offer(a);
+        queue.offerAll(Arrays.asList(b, c));
+        queue.offerAll(new ArrayList<Runnable>());
+        queue.offer(d);
+        assertEquals(4, queue.size());
+        assertSame(a, queue.peek());
+        assertTrue(queue.remove(c));
+        assertFalse(queue.remove(c));
+        assertEquals(3, queue.size());
+        assertSame(a, queue.take());
+        assertSame(b, queue.poll());
+        assertSame(d, queue.poll(1, TimeUnit.SECONDS));
+        assertNull(queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.isEmpty());
+
+        // the queue is still usable after removing its last node
+        queue.offerAll(Arrays.asList(a, b));
+        assertTrue(queue.remove(b));
+        queue.offer(c);
+        final List<Runnable> drained = new ArrayList<Runnable>();
+        assertEquals(2, queue.drainTo(drained));
+        assertEquals(Arrays.asList(a, c), drained);
+    }
+
+    @Test
+    public void batchWakesAllConsumers() throws Exception {
+        final TaskQueue queue = new TaskQueue();
+        final int consumers = 4;
+        final CountDownLatch taken = new CountDownLatch(consumers);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < consumers; i ++) {
+            final Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        queue.take();
+                        taken.countDown();
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        final List<Runnable> batch = new ArrayList<Runnable>();
+        final List<String> log = new ArrayList<String>();
+        for (int i = 0; i < consumers; i ++) {
+            batch.add(task(log, "task" + i));
+        }
+        queue.offerAll(batch);
+        // each consumer holds on to its task, so all of them must have been woken up
+        assertTrue(taken.await(10, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void batchCounters() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName("jboss.msc:type=container,name=" + serviceContainer.getName());
+        final ServiceName root = ServiceName.of("root");
+        serviceContainer.addService(root, Service.NULL).install();
+        for (int i = 0; i < 10; i ++) {
+            serviceContainer.addService(root.append(Integer.toString(i)), Service.NULL).addDependency(root).install();
+        }
+        serviceContainer.awaitStability();
+        final long batches = ((Long) server.getAttribute(objectName, "SubmittedTaskBatchCount")).longValue();
+        final long tasks = ((Long) server.getAttribute(objectName, "SubmittedTaskCount")).longValue();
+        final double average = ((Double) server.getAttribute(objectName, "AverageTaskBatchSize")).doubleValue();
+        assertTrue(batches > 0L);
+        assertTrue(tasks >= batches);
+        assertTrue(average >= 1.0);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the hashed timer wheel used for service timeouts.
+ */
+public class TimerWheelTestCase {
+
+    private TimerWheel wheel;
+
+    @Before
+    public void setUp() {
+        // a small wheel, so that the timeouts below need several rotations
+        wheel = new TimerWheel("test timer", 5L, TimeUnit.MILLISECONDS, 6);
+    }
+
+    @After
+    public void tearDown() {
+        wheel.shutdown();
+    }
+
+    @Test
+    public void expiresInDeadlineOrder() throws Exception {
+        final List<Integer> expired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(4);
+        final long start = System.nanoTime();
+        final long[] delays = { 120L, 20L, 70L, 0L };
+        for (int i = 0; i < delays.length; i ++) {
+            final Integer id = Integer.valueOf(i);
+            final long delay = delays[i];
+            wheel.schedule(new Runnable() {
+                public void run() {
+                    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(delay));
+                    expired.add(id);
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(10L, TimeUnit.SECONDS));
+        assertEquals(4, expired.size());
+        assertEquals(Integer.valueOf(3), expired.get(0));
+        assertEquals(Integer.valueOf(1), expired.get(1));
+        assertEquals(Integer.valueOf(2), expired.get(2));
+        assertEquals(Integer.valueOf(0), expired.get(3));
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        final AtomicBoolean ran = new AtomicBoolean();
+        final TimerWheel.Timeout timeout = wheel.schedule(new Runnable() {
+            public void run() {
+                ran.set(true);
+            }
+        }, 30L, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        final CountDownLatch latch = new CountDownLatch(1);
+        final TimerWheel.Timeout later = wheel.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 60L, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(10L, TimeUnit.SECONDS));
+        assertTrue(later.isExpired());
+        assertFalse(later.cancel());
+        assertFalse(ran.get());
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    public void idleWheelWakesUp() throws Exception {
+        final CountDownLatch first = new CountDownLatch(1);
+        wheel.schedule(new Runnable() {
+            public void run() {
+                first.countDown();
+            }
+        }, 1L, TimeUnit.MILLISECONDS);
+        assertTrue(first.await(10L, TimeUnit.SECONDS));
+        // let the timer thread go idle
+        Thread.sleep(50L);
+        final CountDownLatch second = new CountDownLatch(1);
+        wheel.schedule(new Runnable() {
+            public void run() {
+                second.countDown();
+            }
+        }, 10L, TimeUnit.MILLISECONDS);
+        assertTrue(second.await(10L, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void scheduleAfterShutdown() {
+        wheel.shutdown();
+        wheel.schedule(new Runnable() {
+            public void run() {
+            }
+        }, 1L, TimeUnit.MILLISECONDS);
+    }
+}
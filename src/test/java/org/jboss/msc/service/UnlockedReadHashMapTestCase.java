@@ -0,0 +1,233 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link UnlockedReadHashMap}, in particular concurrent writers while the table grows.
+ */
+public class UnlockedReadHashMapTestCase {
+
+    @Test
+    public void singleWriter() {
+        final UnlockedReadHashMap<Integer, String> map = new UnlockedReadHashMap<Integer, String>(4);
+        for (int i = 0; i < 1000; i ++) {
+            assertNull(map.putIfAbsent(i, "a" + i));
+        }
+        assertEquals(1000, map.size());
+        assertEquals("a7", map.putIfAbsent(7, "b7"));
+        assertEquals("a7", map.put(7, "c7"));
+        assertEquals("c7", map.get(7));
+        assertFalse(map.replace(7, "a7", "d7"));
+        assertTrue(map.replace(7, "c7", "d7"));
+        assertEquals("d7", map.replace(7, "e7"));
+        assertNull(map.replace(1000, "x"));
+        assertFalse(map.remove(8, "b8"));
+        assertTrue(map.remove(8, "a8"));
+        assertEquals("a9", map.remove(9));
+        assertNull(map.remove(9));
+        assertEquals(998, map.size());
+        assertFalse(map.containsKey(8));
+        assertTrue(map.containsKey(10));
+        int count = 0;
+        for (Map.Entry<Integer, String> entry : map.entrySet()) {
+            assertEquals(map.get(entry.getKey()), entry.getValue());
+            count ++;
+        }
+        assertEquals(998, count);
+        map.clear();
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(10));
+    }
+
+    @Test
+    public void incrementalGrowth() {
+        // with 1024 rows each write moves a fraction of the table, so the growth is still in progress below
+        final UnlockedReadHashMap<Integer, String> map = new UnlockedReadHashMap<Integer, String>(1024);
+        final int count = 620;
+        for (int i = 0; i < count; i ++) {
+            assertNull(map.put(i, "a" + i));
+        }
+        for (int i = 0; i < count; i ++) {
+            assertEquals("a" + i, map.get(i));
+        }
+        final Set<Integer> keys = new HashSet<Integer>(map.keySet());
+        assertEquals(count, keys.size());
+        assertEquals(count, map.size());
+        map.clear();
+        assertEquals(0, map.size());
+        assertTrue(map.keySet().isEmpty());
+        for (int i = 0; i < count; i ++) {
+            assertNull(map.get(i));
+        }
+        // keep writing until the growth is complete
+        for (int i = 0; i < 5000; i ++) {
+            map.put(i, "b" + i);
+        }
+        assertEquals(5000, map.size());
+        assertEquals(5000, map.entrySet().size());
+        assertEquals("b4999", map.get(4999));
+    }
+
+    @Test
+    public void shrink() {
+        final UnlockedReadHashMap<Integer, String> map = new UnlockedReadHashMap<Integer, String>(16);
+        for (int i = 0; i < 100000; i ++) {
+            map.put(i, "a" + i);
+        }
+        final int peak = map.capacity();
+        assertTrue(peak >= 131072);
+        // while the table shrinks, the remaining items must stay visible
+        for (int i = 0; i < 99999; i ++) {
+            assertEquals("a" + i, map.remove(i));
+            if (i % 1000 == 0) {
+                assertEquals("a99999", map.get(99999));
+                assertEquals(99999 - i, map.size());
+            }
+        }
+        assertEquals(1, map.size());
+        assertEquals(Collections.singleton(99999), new HashSet<Integer>(map.keySet()));
+        assertTrue(map.capacity() < peak);
+        // keep removing and adding until the table is back to its initial capacity
+        for (int i = 0; map.capacity() > 16 && i < 100000; i ++) {
+            map.put(-1, "x");
+            map.remove(-1);
+        }
+        assertEquals(16, map.capacity());
+        assertEquals("a99999", map.get(99999));
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void concurrentGrowAndShrink() throws Exception {
+        final UnlockedReadHashMap<Integer, Integer> map = new UnlockedReadHashMap<Integer, Integer>(16);
+        final int threadCount = 4;
+        final int perThread = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t ++) {
+            final int base = t * perThread;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        // each thread keeps one key, and adds and removes all others in waves
+                        assertNull(map.putIfAbsent(base, base));
+                        for (int wave = 0; wave < 10; wave ++) {
+                            for (int i = base + 1; i < base + perThread; i ++) {
+                                assertNull(map.putIfAbsent(i, i));
+                                assertEquals(Integer.valueOf(base), map.get(base));
+                            }
+                            for (int i = base + 1; i < base + perThread; i ++) {
+                                assertEquals(Integer.valueOf(i), map.remove(i));
+                                assertEquals(Integer.valueOf(base), map.get(base));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(threadCount, map.size());
+        final Set<Integer> keys = new HashSet<Integer>(map.keySet());
+        assertEquals(threadCount, keys.size());
+        for (int t = 0; t < threadCount; t ++) {
+            assertTrue(keys.contains(t * perThread));
+        }
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        final UnlockedReadHashMap<Integer, Integer> map = new UnlockedReadHashMap<Integer, Integer>(2);
+        final int threadCount = 4;
+        final int perThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t ++) {
+            final int base = t * perThread;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = base; i < base + perThread; i ++) {
+                            assertNull(map.putIfAbsent(i, i));
+                            // every key written by this thread so far must be visible while the table grows
+                            assertEquals(Integer.valueOf(i), map.get(i));
+                            assertEquals(Integer.valueOf(base), map.get(base));
+                            if ((i & 1) == 1) {
+                                assertEquals(Integer.valueOf(i), map.remove(i));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        final int expected = threadCount * perThread / 2;
+        assertEquals(expected, map.size());
+        final Set<Integer> keys = new HashSet<Integer>();
+        for (Integer key : map.keySet()) {
+            assertEquals(0, key.intValue() & 1);
+            assertTrue(keys.add(key));
+        }
+        assertEquals(expected, keys.size());
+        for (int i = 0; i < threadCount * perThread; i += 2) {
+            assertEquals(Integer.valueOf(i), map.get(i));
+        }
+    }
+}
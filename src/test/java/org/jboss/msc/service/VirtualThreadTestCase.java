@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.Test;
+
+/**
+ * Tests running service start and stop on virtual threads.  On a JVM without virtual threads, the container falls
+ * back to its thread pool, and the same behavior is expected apart from the kind of thread.
+ */
+public class VirtualThreadTestCase {
+
+    private static final Method IS_VIRTUAL;
+
+    static {
+        Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            isVirtual = null;
+        }
+        IS_VIRTUAL = isVirtual;
+    }
+
+    private static ServiceContainer createContainer() {
+        return ServiceContainer.Factory.create("virtual", 2, 30L, TimeUnit.SECONDS, false, new ServiceContainer.Options().setVirtualThreads(true));
+    }
+
+    private static boolean isVirtual(final Thread thread) throws Exception {
+        return IS_VIRTUAL != null && ((Boolean) IS_VIRTUAL.invoke(thread)).booleanValue();
+    }
+
+    @Test
+    public void startAndStop() throws Exception {
+        final ServiceContainer container = createContainer();
+        final ThreadRecordingService service = new ThreadRecordingService(container, false);
+        final ServiceController<?> controller = container.addService(ServiceName.of("sync"), service).install();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        assertTrue(service.startServiceThread);
+        assertSame(ThreadRecordingService.class.getClassLoader(), service.startTCCL);
+        assertEquals(IS_VIRTUAL != null, isVirtual(service.startThread));
+
+        controller.setMode(Mode.NEVER);
+        container.awaitStability();
+        assertEquals(State.DOWN, controller.getState());
+        assertTrue(service.stopServiceThread);
+        assertEquals(IS_VIRTUAL != null, isVirtual(service.stopThread));
+
+        container.shutdown();
+        container.awaitTermination();
+        assertTrue(container.isShutdownComplete());
+    }
+
+    @Test
+    public void asynchronousStartAndStop() throws Exception {
+        final ServiceContainer container = createContainer();
+        final ThreadRecordingService service = new ThreadRecordingService(container, true);
+        final ServiceController<?> controller = container.addService(ServiceName.of("async"), service).install();
+        container.awaitStability();
+        assertEquals(State.UP, controller.getState());
+        assertTrue(service.startServiceThread);
+        assertSame(ThreadRecordingService.class.getClassLoader(), service.startTCCL);
+
+        container.shutdown();
+        container.awaitTermination();
+        assertTrue(container.isShutdownComplete());
+        assertEquals(State.REMOVED, controller.getState());
+        assertTrue(service.stopServiceThread);
+    }
+
+    private static final class ThreadRecordingService implements Service<Void> {
+        private final ServiceContainer container;
+        private final boolean async;
+        private volatile Thread startThread;
+        private volatile Thread stopThread;
+        private volatile boolean startServiceThread;
+        private volatile boolean stopServiceThread;
+        private volatile ClassLoader startTCCL;
+
+        ThreadRecordingService(final ServiceContainer container, final boolean async) {
+            this.container = container;
+            this.async = async;
+        }
+
+        public void start(final StartContext context) throws StartException {
+            if (async) {
+                context.asynchronous();
+                context.execute(new Runnable() {
+                    public void run() {
+                        recordStart();
+                        context.complete();
+                    }
+                });
+            } else {
+                recordStart();
+            }
+        }
+
+        private void recordStart() {
+            startThread = Thread.currentThread();
+            startServiceThread = ServiceUtils.isServiceThread(startThread, container);
+            startTCCL = startThread.getContextClassLoader();
+        }
+
+        public void stop(final StopContext context) {
+            if (async) {
+                context.asynchronous();
+                context.execute(new Runnable() {
+                    public void run() {
+                        recordStop();
+                        context.complete();
+                    }
+                });
+            } else {
+                recordStop();
+            }
+        }
+
+        private void recordStop() {
+            stopThread = Thread.currentThread();
+            stopServiceThread = ServiceUtils.isServiceThread(stopThread, container);
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+}
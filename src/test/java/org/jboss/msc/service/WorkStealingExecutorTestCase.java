@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.msc.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.junit.Test;
+
+/**
+ * Tests containers running in work-stealing mode.
+ */
+public class WorkStealingExecutorTestCase {
+
+    private static ServiceContainer createContainer() {
+        return ServiceContainer.Factory.create("work-stealing", 4, 30L, TimeUnit.SECONDS, false, new ServiceContainer.Options().setWorkStealing(true));
+    }
+
+    @Test
+    public void dependencyTree() throws Exception {
+        final ServiceContainer container = createContainer();
+        final CountingService service = new CountingService(container);
+        final ServiceName root = ServiceName.of("root");
+        final List<ServiceController<?>> controllers = new ArrayList<ServiceController<?>>();
+        controllers.add(container.addService(root, service).install());
+        for (int i = 0; i < 50; i ++) {
+            final ServiceName branch = root.append("branch" + i);
+            controllers.add(container.addService(branch, service).addDependency(root).install());
+            for (int j = 0; j < 20; j ++) {
+                controllers.add(container.addService(branch.append("leaf" + j), service).addDependency(branch).install());
+            }
+        }
+        container.awaitStability();
+        for (ServiceController<?> controller : controllers) {
+            assertEquals(State.UP, controller.getState());
+        }
+        assertEquals(controllers.size(), service.started.get());
+        assertEquals(0, service.foreignThreads.get());
+
+        container.getRequiredService(root).setMode(Mode.NEVER);
+        container.awaitStability();
+        for (ServiceController<?> controller : controllers) {
+            assertEquals(State.DOWN, controller.getState());
+        }
+        assertEquals(controllers.size(), service.stopped.get());
+
+        container.shutdown();
+        container.awaitTermination();
+        assertTrue(container.isShutdownComplete());
+        for (ServiceController<?> controller : controllers) {
+            assertEquals(State.REMOVED, controller.getState());
+        }
+        assertEquals(0, service.foreignThreads.get());
+    }
+
+    @Test
+    public void shutdownEmptyContainer() throws Exception {
+        final ServiceContainer container = createContainer();
+        container.shutdown();
+        container.awaitTermination();
+        assertTrue(container.isShutdownComplete());
+    }
+
+    private static final class CountingService implements Service<Void> {
+        private final ServiceContainer container;
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger stopped = new AtomicInteger();
+        private final AtomicInteger foreignThreads = new AtomicInteger();
+
+        CountingService(final ServiceContainer container) {
+            this.container = container;
+        }
+
+        public void start(final StartContext context) throws StartException {
+            checkThread();
+            started.incrementAndGet();
+        }
+
+        public void stop(final StopContext context) {
+            checkThread();
+            stopped.incrementAndGet();
+        }
+
+        private void checkThread() {
+            if (! ServiceUtils.isServiceThread(Thread.currentThread(), container)) {
+                foreignThreads.incrementAndGet();
+            }
+        }
+
+        public Void getValue() throws IllegalStateException, IllegalArgumentException {
+            return null;
+        }
+    }
+}